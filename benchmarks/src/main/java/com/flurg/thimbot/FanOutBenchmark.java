@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.prefs.Preferences;
+
+import javax.net.SocketFactory;
+
+import com.flurg.thimbot.mock.MockIRCServer;
+import com.flurg.thimbot.raw.StringEmitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Send one message to many targets, from the call until the last line has reached a {@link MockIRCServer}.  Flood
+ * control is off, so this measures target grouping, message splitting, queueing and writing.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({ "1", "8", "32" })
+    int targets;
+
+    @Param({ "40", "1200" })
+    int messageLength;
+
+    MockIRCServer server;
+    ThimBot bot;
+    List<String> targetList;
+    StringEmitter message;
+    final AtomicLong received = new AtomicLong();
+    long expected;
+    long linesPerMessage;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new MockIRCServer();
+        server.setListener((client, line) -> {
+            if (line.startsWith("PRIVMSG ")) received.incrementAndGet();
+        });
+        server.start();
+        bot = new ThimBot(Preferences.userRoot().node("thimbot-benchmarks"), server.getAddress(), SocketFactory.getDefault());
+        final Thread connector = new Thread(() -> {
+            try {
+                bot.connect();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        connector.setDaemon(true);
+        connector.start();
+        targetList = new ArrayList<>();
+        for (int i = 0; i < targets; i ++) {
+            targetList.add("#channel" + i);
+        }
+        final StringBuilder b = new StringBuilder();
+        while (b.length() < messageLength) {
+            b.append("words ").append(b.length()).append(' ');
+        }
+        message = new StringEmitter(b.substring(0, messageLength));
+        // let registration settle, then find out how many lines one message takes
+        Thread.sleep(500);
+        long before = received.get();
+        send();
+        Thread.sleep(500);
+        linesPerMessage = received.get() - before;
+        expected = received.get();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        bot.disconnect();
+        server.close();
+    }
+
+    private void send() throws IOException {
+        bot.sendRawMultiTarget(Priority.NORMAL, ThimBot.CmdType.SIMPLE, targetList, IRCStrings.PRIVMSG, message);
+    }
+
+    @Benchmark
+    public void fanOut() throws IOException {
+        send();
+        final long expected = this.expected += linesPerMessage;
+        while (received.get() < expected) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Match users against a single mask, against each of a list of masks, and against a {@link MaskSet}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaskBenchmark {
+
+    @Param({ "10", "100", "2000" })
+    int masks;
+
+    Mask single;
+    Mask[] list;
+    MaskSet set;
+    String[] nicks, users, hosts, prefixes;
+    int next;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1234);
+        single = new Mask("*!*@*.users.example.com");
+        final List<Mask> list = new ArrayList<>();
+        set = new MaskSet(CaseMapping.RFC1459);
+        for (int i = 0; i < masks; i ++) {
+            final String mask;
+            switch (i % 4) {
+                case 0: mask = "*!*@host" + i + ".example.com"; break;
+                case 1: mask = "*!*@*.net" + i + ".example.org"; break;
+                case 2: mask = "nick" + i + "!*@*"; break;
+                default: mask = "*!ident" + i + "@10." + (i & 255) + ".*"; break;
+            }
+            list.add(new Mask(mask));
+            set.add(mask);
+        }
+        this.list = list.toArray(new Mask[0]);
+        nicks = new String[256];
+        users = new String[256];
+        hosts = new String[256];
+        prefixes = new String[256];
+        for (int i = 0; i < 256; i ++) {
+            final int n = random.nextInt(masks * 2);
+            nicks[i] = "nick" + n;
+            users[i] = "ident" + n;
+            hosts[i] = random.nextBoolean() ? "host" + n + ".example.com" : "a" + n + ".users.example.com";
+            prefixes[i] = nicks[i] + "!" + users[i] + "@" + hosts[i];
+        }
+    }
+
+    private int next() {
+        return next = next + 1 & 255;
+    }
+
+    @Benchmark
+    public boolean singleMask() {
+        final int i = next();
+        return single.matches(nicks[i], users[i], hosts[i]);
+    }
+
+    @Benchmark
+    public int linearScan() {
+        final int i = next();
+        int cnt = 0;
+        for (Mask mask : list) {
+            if (mask.matches(nicks[i], users[i], hosts[i])) cnt ++;
+        }
+        return cnt;
+    }
+
+    @Benchmark
+    public int maskSet() {
+        final int i = next();
+        return set.getMatches(nicks[i], users[i], hosts[i]).size();
+    }
+
+    @Benchmark
+    public boolean maskSetAnyPrefix() {
+        return set.matchesAny(prefixes[next()]);
+    }
+}
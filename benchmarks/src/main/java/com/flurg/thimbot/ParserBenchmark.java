@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parse and dispatch a corpus of inbound lines, one line per operation.  There are no handlers other than the default
+ * one, so this measures the parser, the state tracker and the cost of getting an event to the end of the chain.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({ "privmsg", "joins", "names", "numerics" })
+    String corpus;
+
+    ThimBot bot;
+    IRCParser parser;
+    byte[][] lines;
+    int next;
+
+    @Setup
+    public void setup() {
+        bot = new ThimBot(new InetSocketAddress("localhost", 6667), SocketFactory.getDefault());
+        parser = new IRCParser(new InternTable(4096));
+        final List<String> list = new ArrayList<>();
+        switch (corpus) {
+            case "privmsg": {
+                for (int i = 0; i < 64; i ++) {
+                    final String user = "user" + (i & 15);
+                    list.add("@time=2024-05-01T12:00:00.000Z;account=" + user + " :" + user + "!~" + user + "@host-" + (i & 15) + ".example.com PRIVMSG #chan" + (i & 3) + " :hello there, is anyone around who knows about thing number " + i + "?");
+                    list.add(":" + user + "!~" + user + "@host-" + (i & 15) + ".example.com PRIVMSG #chan" + (i & 3) + " :\u0002bold\u0002 and \u000304,12colored\u0003 text " + i);
+                }
+                break;
+            }
+            case "joins": {
+                // a join storm, followed by everyone leaving again so that the state stays the same size
+                for (int i = 0; i < 64; i ++) {
+                    list.add(":user" + i + "!~u" + i + "@h" + i + ".example.com JOIN #storm user" + i + " :Real Name " + i);
+                }
+                for (int i = 0; i < 64; i ++) {
+                    list.add(":user" + i + "!~u" + i + "@h" + i + ".example.com PART #storm :bye");
+                }
+                break;
+            }
+            case "names": {
+                for (int line = 0; line < 10; line ++) {
+                    final StringBuilder b = new StringBuilder(":irc.example.com 353 thimbot = #big :");
+                    for (int i = 0; i < 40; i ++) {
+                        final int n = line * 40 + i;
+                        b.append(n % 20 == 0 ? "@" : n % 7 == 0 ? "+" : "").append("member").append(n).append(' ');
+                    }
+                    list.add(b.toString().trim());
+                }
+                list.add(":irc.example.com 366 thimbot #big :End of /NAMES list.");
+                break;
+            }
+            case "numerics": {
+                list.add(":irc.example.com 005 thimbot CHANTYPES=# PREFIX=(ov)@+ CHANMODES=beI,k,l,imnpst NICKLEN=30 CASEMAPPING=rfc1459 TARGMAX=PRIVMSG:4,NOTICE:4 :are supported by this server");
+                list.add(":irc.example.com 251 thimbot :There are 120 users and 15000 invisible on 20 servers");
+                list.add(":irc.example.com 252 thimbot 30 :IRC Operators online");
+                list.add(":irc.example.com 254 thimbot 9000 :channels formed");
+                list.add(":irc.example.com 265 thimbot 7000 8000 :Current local users 7000, max 8000");
+                list.add(":irc.example.com 332 thimbot #chan0 :The topic of the channel, with a link https://example.com/");
+                list.add(":irc.example.com 333 thimbot #chan0 someone!~some@where 1700000000");
+                for (int i = 0; i < 16; i ++) {
+                    list.add(":irc.example.com 372 thimbot :- line " + i + " of the message of the day, which nobody reads");
+                }
+                break;
+            }
+            default: throw new IllegalArgumentException(corpus);
+        }
+        lines = new byte[list.size()][];
+        for (int i = 0; i < lines.length; i ++) {
+            lines[i] = list.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public void handleLine() {
+        final byte[][] lines = this.lines;
+        int next = this.next;
+        final byte[] line = lines[next];
+        this.next = ++ next == lines.length ? 0 : next;
+        parser.handleLine(bot, null, line, 0, line.length);
+    }
+}
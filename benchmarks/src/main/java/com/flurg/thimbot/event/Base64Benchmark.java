@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.event;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.flurg.thimbot.raw.EmittableByteArrayOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encode and decode SASL-sized payloads.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+
+    @Param({ "32", "400" })
+    int size;
+
+    byte[] original;
+    byte[] encoded;
+    EmittableByteArrayOutputStream target;
+
+    @Setup
+    public void setup() throws IOException {
+        original = new byte[size];
+        new Random(1234).nextBytes(original);
+        target = new EmittableByteArrayOutputStream(size * 2);
+        IRCBase64.encode(original, target);
+        encoded = target.toByteArray();
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        final EmittableByteArrayOutputStream target = this.target;
+        target.reset();
+        IRCBase64.encode(original, target);
+        return target.size();
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        final EmittableByteArrayOutputStream target = this.target;
+        target.reset();
+        return IRCBase64.decode(encoded, 0, encoded.length, target);
+    }
+}
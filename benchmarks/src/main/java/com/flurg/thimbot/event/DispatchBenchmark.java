@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.event;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import com.flurg.thimbot.ThimBot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dispatch an event through chains of handlers.  Half of the handlers handle the event and pass it on; the other half
+ * only handle other kinds of event, and should cost nothing.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({ "1", "10", "50" })
+    int handlers;
+
+    HandlerChain chain;
+    ChannelMessageEvent event;
+    long count;
+
+    @Setup
+    public void setup() {
+        final ThimBot bot = new ThimBot(new InetSocketAddress("localhost", 6667), SocketFactory.getDefault());
+        final List<EventHandler> list = new ArrayList<>();
+        for (int i = 0; i < handlers; i ++) {
+            list.add(i % 2 == 0 ? new MessageHandler() : new JoinHandler());
+        }
+        chain = new HandlerChain(list);
+        event = new ChannelMessageEvent(bot, "nick!user@host", "#channel", "a message");
+    }
+
+    @Benchmark
+    public long dispatch() {
+        EventHandlerContext.dispatch(chain, event);
+        return count;
+    }
+
+    final class MessageHandler extends EventHandler {
+        public void handleEvent(final EventHandlerContext context, final ChannelMessageEvent event) throws Exception {
+            count ++;
+            super.handleEvent(context, event);
+        }
+    }
+
+    final class JoinHandler extends EventHandler {
+        public void handleEvent(final EventHandlerContext context, final ChannelJoinEvent event) throws Exception {
+            count ++;
+            super.handleEvent(context, event);
+        }
+    }
+}
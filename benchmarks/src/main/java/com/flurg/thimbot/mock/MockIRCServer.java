@@ -0,0 +1,618 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.mock;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small IRC server on the loopback interface, for driving a bot under load without a real ircd.  It knows
+ * registration, {@code CAP}, {@code PING}/{@code PONG}, {@code JOIN}/{@code PART} with {@code NAMES}, {@code NICK},
+ * {@code PRIVMSG} and {@code NOTICE} (with {@code echo-message}), and {@code QUIT}.  Replies to labeled commands are
+ * labeled, as {@code labeled-response} requires.
+ * <p>
+ * Inbound lines can be throttled the way ircds do it, by holding back a client which has sent more than a burst of
+ * lines, and every line the server sends can be delayed by a fixed lag.  Each client has a reader thread and a writer
+ * thread; the writer flushes only once it has nothing more to send.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class MockIRCServer implements Closeable {
+    private static final String CAPABILITIES = "echo-message multi-prefix account-notify extended-join batch labeled-response";
+
+    private final String serverName;
+    private final ServerSocket serverSocket;
+    private final Set<Client> clients = Collections.newSetFromMap(new ConcurrentHashMap<Client, Boolean>());
+    private final ConcurrentHashMap<String, Set<Client>> channels = new ConcurrentHashMap<>();
+    private final LongAdder linesReceived = new LongAdder();
+    private final LongAdder linesSent = new LongAdder();
+
+    private volatile int floodBurst;
+    private volatile long floodPenaltyNanos;
+    private volatile long lagNanos;
+    private volatile int extraNames;
+    private volatile Listener listener;
+    private volatile boolean closed;
+
+    /**
+     * Construct a new instance listening on an ephemeral loopback port.
+     *
+     * @throws IOException if the socket cannot be opened
+     */
+    public MockIRCServer() throws IOException {
+        this("mock.irc");
+    }
+
+    public MockIRCServer(final String serverName) throws IOException {
+        this.serverName = serverName;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * Set the inbound flood limit.  A client may send {@code burst} lines back-to-back, and after that one line per
+     * {@code interval}; lines beyond that are not read until their time comes.
+     *
+     * @param burst the burst size, or 0 for no limit
+     * @param interval the interval per line after the burst
+     * @param unit the interval unit
+     */
+    public void setFloodLimit(final int burst, final long interval, final TimeUnit unit) {
+        floodPenaltyNanos = unit.toNanos(interval);
+        floodBurst = burst;
+    }
+
+    /**
+     * Set the lag added to every line the server sends.
+     *
+     * @param lag the lag, or 0 for none
+     * @param unit the lag unit
+     */
+    public void setLag(final long lag, final TimeUnit unit) {
+        lagNanos = unit.toNanos(lag);
+    }
+
+    /**
+     * Set how many made-up members are listed in {@code NAMES} for every channel, besides the real ones.
+     *
+     * @param extraNames the number of extra names
+     */
+    public void setExtraNames(final int extraNames) {
+        this.extraNames = extraNames;
+    }
+
+    /**
+     * Set the listener to call for each line received from a client, before the server handles it.
+     *
+     * @param listener the listener, or {@code null} for none
+     */
+    public void setListener(final Listener listener) {
+        this.listener = listener;
+    }
+
+    public long getLinesReceived() {
+        return linesReceived.sum();
+    }
+
+    public long getLinesSent() {
+        return linesSent.sum();
+    }
+
+    /**
+     * Get a registered client by nick.
+     *
+     * @param nick the nick
+     * @return the client, or {@code null} if there is none
+     */
+    public Client getClient(final String nick) {
+        for (Client client : clients) {
+            if (client.registered && nick.equalsIgnoreCase(client.nick)) return client;
+        }
+        return null;
+    }
+
+    public Collection<Client> getClients() {
+        return Collections.unmodifiableSet(clients);
+    }
+
+    /**
+     * Start accepting connections.
+     */
+    public void start() {
+        final Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                while (! closed) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        socket.setTcpNoDelay(true);
+                        final Client client = new Client(socket);
+                        clients.add(client);
+                        client.start();
+                    } catch (IOException e) {
+                        if (! closed) e.printStackTrace();
+                    }
+                }
+            }
+        }, "mock-irc-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    /**
+     * A listener for lines received by the server.
+     */
+    public interface Listener {
+        void lineReceived(Client client, String line);
+    }
+
+    /**
+     * One connected client.
+     */
+    public final class Client {
+        private final Socket socket;
+        private final DelayQueue<Pending> outbound = new DelayQueue<>();
+        private final AtomicLong sequence = new AtomicLong();
+        private final Set<String> capabilities = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Set<String> joined = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private volatile String nick = "*";
+        private volatile String user;
+        private volatile boolean registered;
+        private long floodClock;
+        // reader thread only: the replies to the labeled command being handled
+        private List<String> responses;
+
+        Client(final Socket socket) {
+            this.socket = socket;
+        }
+
+        public String getNick() {
+            return nick;
+        }
+
+        public String getPrefix() {
+            return nick + "!" + user + "@" + socket.getInetAddress().getHostAddress();
+        }
+
+        public boolean isRegistered() {
+            return registered;
+        }
+
+        /**
+         * Send a line to this client, after the configured lag.
+         *
+         * @param line the line, without its terminator
+         */
+        public void send(final String line) {
+            outbound.add(new Pending(System.nanoTime() + lagNanos, sequence.getAndIncrement(), line));
+        }
+
+        void start() {
+            final Thread reader = new Thread(this::read, "mock-irc-read");
+            reader.setDaemon(true);
+            reader.start();
+            final Thread writer = new Thread(this::write, "mock-irc-write");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            outbound.add(new Pending(0, 0, null));
+        }
+
+        private void read() {
+            final byte[] line = new byte[8192];
+            int len = 0;
+            try (InputStream is = socket.getInputStream()) {
+                final byte[] buf = new byte[65536];
+                int n;
+                while ((n = is.read(buf)) != -1) {
+                    for (int i = 0; i < n; i ++) {
+                        final byte b = buf[i];
+                        if (b == '\n') {
+                            if (len > 0 && line[len - 1] == '\r') len --;
+                            throttle();
+                            received(new String(line, 0, len, StandardCharsets.UTF_8));
+                            len = 0;
+                        } else if (len < line.length) {
+                            line[len ++] = b;
+                        }
+                    }
+                }
+            } catch (IOException | InterruptedException ignored) {
+            } finally {
+                quit("Connection closed");
+            }
+        }
+
+        private void throttle() throws InterruptedException {
+            final long penalty = floodPenaltyNanos;
+            final int burst = floodBurst;
+            if (burst == 0) return;
+            final long now = System.nanoTime();
+            if (floodClock - now < 0) floodClock = now;
+            final long ahead = floodClock - now - burst * penalty;
+            if (ahead > 0) {
+                TimeUnit.NANOSECONDS.sleep(ahead);
+            }
+            floodClock += penalty;
+        }
+
+        private void write() {
+            try (OutputStream os = new BufferedOutputStream(socket.getOutputStream(), 65536)) {
+                for (;;) {
+                    Pending pending = outbound.take();
+                    do {
+                        if (pending.line == null) return;
+                        os.write(pending.line.getBytes(StandardCharsets.UTF_8));
+                        os.write('\r');
+                        os.write('\n');
+                        linesSent.increment();
+                    } while ((pending = outbound.poll()) != null);
+                    os.flush();
+                }
+            } catch (IOException | InterruptedException ignored) {
+            }
+        }
+
+        private void reply(final String numeric, final String text) {
+            respond(":" + serverName + " " + numeric + " " + nick + " " + text);
+        }
+
+        /**
+         * Send a reply to the command being handled.
+         */
+        private void respond(final String line) {
+            final List<String> responses = this.responses;
+            if (responses != null) {
+                responses.add(line);
+            } else {
+                send(line);
+            }
+        }
+
+        private void sendLabeled(final String label, final List<String> responses) {
+            if (responses.isEmpty()) {
+                send("@label=" + label + " :" + serverName + " ACK");
+            } else if (responses.size() == 1) {
+                send("@label=" + label + " " + responses.get(0));
+            } else {
+                final String reference = "L" + sequence.get();
+                send("@label=" + label + " :" + serverName + " BATCH +" + reference + " labeled-response");
+                for (String response : responses) {
+                    send("@batch=" + reference + " " + response);
+                }
+                send(":" + serverName + " BATCH -" + reference);
+            }
+        }
+
+        private void received(final String line) {
+            linesReceived.increment();
+            final Listener listener = MockIRCServer.this.listener;
+            if (listener != null) {
+                listener.lineReceived(this, line);
+            }
+            final List<String> params = parse(line);
+            if (params.isEmpty()) return;
+            final String label = capabilities.contains("labeled-response") ? labelOf(line) : null;
+            if (label == null) {
+                handle(params);
+            } else {
+                responses = new ArrayList<>();
+                try {
+                    handle(params);
+                } finally {
+                    final List<String> responses = this.responses;
+                    this.responses = null;
+                    sendLabeled(label, responses);
+                }
+            }
+        }
+
+        private void handle(final List<String> params) {
+            final String command = params.remove(0).toUpperCase(Locale.ROOT);
+            switch (command) {
+                case "CAP": {
+                    final String sub = params.isEmpty() ? "" : params.get(0).toUpperCase(Locale.ROOT);
+                    if (sub.equals("LS") || sub.equals("LIST")) {
+                        send(":" + serverName + " CAP " + nick + " " + sub + " :" + CAPABILITIES);
+                    } else if (sub.equals("REQ") && params.size() > 1) {
+                        final List<String> requested = Arrays.asList(params.get(1).trim().split(" +"));
+                        if (Arrays.asList(CAPABILITIES.split(" ")).containsAll(requested)) {
+                            capabilities.addAll(requested);
+                            send(":" + serverName + " CAP " + nick + " ACK :" + params.get(1).trim());
+                        } else {
+                            send(":" + serverName + " CAP " + nick + " NAK :" + params.get(1).trim());
+                        }
+                    }
+                    break;
+                }
+                case "NICK": {
+                    if (params.isEmpty()) break;
+                    final String newNick = params.get(0);
+                    if (registered) {
+                        final String message = ":" + getPrefix() + " NICK :" + newNick;
+                        for (Client client : neighbors()) {
+                            client.send(message);
+                        }
+                        nick = newNick;
+                    } else {
+                        nick = newNick;
+                        maybeRegister();
+                    }
+                    break;
+                }
+                case "USER": {
+                    if (params.isEmpty()) break;
+                    user = "~" + params.get(0);
+                    maybeRegister();
+                    break;
+                }
+                case "PING": {
+                    respond(":" + serverName + " PONG " + serverName + " :" + (params.isEmpty() ? "" : params.get(params.size() - 1)));
+                    break;
+                }
+                case "PONG": {
+                    break;
+                }
+                case "JOIN": {
+                    if (params.isEmpty()) break;
+                    for (String channel : params.get(0).split(",")) {
+                        join(channel);
+                    }
+                    break;
+                }
+                case "PART": {
+                    if (params.isEmpty()) break;
+                    for (String channel : params.get(0).split(",")) {
+                        part(channel, params.size() > 1 ? params.get(1) : "");
+                    }
+                    break;
+                }
+                case "PRIVMSG":
+                case "NOTICE": {
+                    if (params.size() < 2) break;
+                    for (String target : params.get(0).split(",")) {
+                        message(command, target, params.get(1));
+                    }
+                    break;
+                }
+                case "QUIT": {
+                    close();
+                    break;
+                }
+                default: {
+                    if (registered) reply("421", command + " :Unknown command");
+                    break;
+                }
+            }
+        }
+
+        private void maybeRegister() {
+            if (registered || user == null || nick.equals("*")) return;
+            registered = true;
+            reply("001", ":Welcome to the mock network " + getPrefix());
+            reply("002", ":Your host is " + serverName);
+            reply("003", ":This server was created just now");
+            reply("004", serverName + " mock-1.0 iow beIklmnopstv");
+            reply("005", "CHANTYPES=# PREFIX=(ov)@+ CHANMODES=beI,k,l,imnpst NICKLEN=30 CASEMAPPING=rfc1459 TARGMAX=PRIVMSG:4,NOTICE:4 :are supported by this server");
+            reply("375", ":- " + serverName + " Message of the day -");
+            reply("372", ":- This server is not real.");
+            reply("376", ":End of /MOTD command.");
+        }
+
+        private void join(final String channel) {
+            if (! joined.add(channel.toLowerCase(Locale.ROOT))) return;
+            final Set<Client> members = channels.computeIfAbsent(channel.toLowerCase(Locale.ROOT), k -> Collections.newSetFromMap(new ConcurrentHashMap<Client, Boolean>()));
+            members.add(this);
+            final String message = ":" + getPrefix() + " JOIN " + channel;
+            for (Client client : members) {
+                client.send(message);
+            }
+            reply("331", channel + " :No topic is set");
+            StringBuilder b = new StringBuilder();
+            for (Client client : members) {
+                b = names(channel, b, client.nick);
+            }
+            for (int i = 0; i < extraNames; i ++) {
+                b = names(channel, b, (i % 10 == 0 ? "+" : "") + "member" + i);
+            }
+            if (b.length() > 0) reply("353", "= " + channel + " :" + b);
+            reply("366", channel + " :End of /NAMES list.");
+        }
+
+        private StringBuilder names(final String channel, StringBuilder b, final String name) {
+            if (b.length() + name.length() > 400) {
+                reply("353", "= " + channel + " :" + b);
+                b = new StringBuilder();
+            }
+            if (b.length() > 0) b.append(' ');
+            return b.append(name);
+        }
+
+        private void part(final String channel, final String reason) {
+            final String key = channel.toLowerCase(Locale.ROOT);
+            if (! joined.remove(key)) return;
+            final Set<Client> members = channels.get(key);
+            if (members == null) return;
+            final String message = ":" + getPrefix() + " PART " + channel + " :" + reason;
+            for (Client client : members) {
+                client.send(message);
+            }
+            members.remove(this);
+        }
+
+        private void message(final String command, final String target, final String text) {
+            final String message = ":" + getPrefix() + " " + command + " " + target + " :" + text;
+            if (target.startsWith("#")) {
+                final Set<Client> members = channels.get(target.toLowerCase(Locale.ROOT));
+                if (members == null) {
+                    reply("403", target + " :No such channel");
+                    return;
+                }
+                for (Client client : members) {
+                    if (client != this) client.send(message);
+                }
+            } else {
+                final Client client = getClient(target);
+                if (client == null) {
+                    reply("401", target + " :No such nick/channel");
+                    return;
+                }
+                if (client != this) client.send(message);
+            }
+            if (capabilities.contains("echo-message")) {
+                respond(message);
+            }
+        }
+
+        private void quit(final String reason) {
+            if (! clients.remove(this)) return;
+            final String message = ":" + getPrefix() + " QUIT :" + reason;
+            for (Client client : neighbors()) {
+                if (client != this) client.send(message);
+            }
+            for (String channel : joined) {
+                final Set<Client> members = channels.get(channel);
+                if (members != null) members.remove(this);
+            }
+            close();
+        }
+
+        private Set<Client> neighbors() {
+            final Set<Client> set = Collections.newSetFromMap(new IdentityHashMap<Client, Boolean>());
+            set.add(this);
+            for (String channel : joined) {
+                final Set<Client> members = channels.get(channel);
+                if (members != null) set.addAll(members);
+            }
+            return set;
+        }
+    }
+
+    /**
+     * Split a line into its command and parameters, dropping any tags and prefix.
+     */
+    static List<String> parse(final String line) {
+        final List<String> list = new ArrayList<>();
+        int p = 0;
+        final int length = line.length();
+        if (p < length && line.charAt(p) == '@') {
+            p = skipWord(line, p);
+        }
+        if (p < length && line.charAt(p) == ':') {
+            p = skipWord(line, p);
+        }
+        while (p < length) {
+            if (line.charAt(p) == ':') {
+                list.add(line.substring(p + 1));
+                break;
+            }
+            final int end = line.indexOf(' ', p);
+            list.add(end == -1 ? line.substring(p) : line.substring(p, end));
+            p = end == -1 ? length : skipSpaces(line, end);
+        }
+        return list;
+    }
+
+    /**
+     * Get the value of the label tag of a line, if any.
+     */
+    static String labelOf(final String line) {
+        if (! line.startsWith("@")) return null;
+        final int end = line.indexOf(' ');
+        for (String tag : (end == -1 ? line.substring(1) : line.substring(1, end)).split(";")) {
+            if (tag.startsWith("label=")) return tag.substring(6);
+        }
+        return null;
+    }
+
+    private static int skipWord(final String line, final int p) {
+        final int end = line.indexOf(' ', p);
+        return end == -1 ? line.length() : skipSpaces(line, end);
+    }
+
+    private static int skipSpaces(final String line, int p) {
+        while (p < line.length() && line.charAt(p) == ' ') p ++;
+        return p;
+    }
+
+    static final class Pending implements Delayed {
+        final long due;
+        final long seq;
+        final String line;
+
+        Pending(final long due, final long seq, final String line) {
+            this.due = due;
+            this.seq = seq;
+            this.line = line;
+        }
+
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(final Delayed o) {
+            // lines due at the same time keep their order
+            final Pending other = (Pending) o;
+            final int res = Long.signum(due - other.due);
+            return res == 0 ? Long.signum(seq - other.seq) : res;
+        }
+    }
+}
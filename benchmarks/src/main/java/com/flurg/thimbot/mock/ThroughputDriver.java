@@ -0,0 +1,249 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.mock;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.prefs.Preferences;
+
+import javax.net.SocketFactory;
+
+import com.flurg.thimbot.ThimBot;
+import com.flurg.thimbot.event.ChannelJoinEvent;
+import com.flurg.thimbot.event.ChannelMessageEvent;
+import com.flurg.thimbot.event.EventHandler;
+import com.flurg.thimbot.event.EventHandlerContext;
+import com.flurg.thimbot.event.MOTDEndEvent;
+import com.flurg.thimbot.raw.SelectorLoopGroup;
+
+/**
+ * Connect a bot to a {@link MockIRCServer} and measure it end to end: inbound events per second, outbound lines per
+ * second, and the latency from a request sent by the server to the bot's response arriving back.
+ * <p>
+ * Requests are sent at a fixed rate, and latency is measured from when each request was due rather than when it was
+ * actually sent, so that a stalled bot shows up in the percentiles instead of hiding behind fewer samples.  With
+ * {@code -tracked}, outbound messages are sent with delivery tracking, and the outbound run lasts until the server has
+ * confirmed them all.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.flurg.thimbot.mock.ThroughputDriver
+ *     [-inbound N] [-outbound N] [-requests N] [-rate N] [-window N] [-lag MS] [-flood BURST/MS] [-nio] [-metrics] [-tracked]
+ * </pre>
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class ThroughputDriver {
+    private static final String CHANNEL = "#bench";
+
+    private final MockIRCServer server;
+    private final ThimBot bot;
+    private final CountDownLatch registered = new CountDownLatch(1);
+    private final CountDownLatch joined = new CountDownLatch(1);
+    private final LongAdder inbound = new LongAdder();
+    private final LongAdder outbound = new LongAdder();
+    private long[] due;
+    private long[] latencies;
+    private final AtomicInteger responses = new AtomicInteger();
+
+    ThroughputDriver(final MockIRCServer server, final ThimBot bot) {
+        this.server = server;
+        this.bot = bot;
+        bot.addEventHandler(new EventHandler() {
+            public void handleEvent(final EventHandlerContext context, final MOTDEndEvent event) throws Exception {
+                registered.countDown();
+                super.handleEvent(context, event);
+            }
+
+            public void handleEvent(final EventHandlerContext context, final ChannelJoinEvent event) throws Exception {
+                if (event.isFromMe()) joined.countDown();
+                super.handleEvent(context, event);
+            }
+
+            public void handleEvent(final EventHandlerContext context, final ChannelMessageEvent event) throws Exception {
+                final String text = event.getRawText();
+                if (text.startsWith("!ping ")) {
+                    event.sendMessageResponse("pong " + text.substring(6));
+                } else {
+                    inbound.increment();
+                }
+                super.handleEvent(context, event);
+            }
+        });
+        server.setListener(new MockIRCServer.Listener() {
+            public void lineReceived(final MockIRCServer.Client client, String line) {
+                if (line.startsWith("@")) {
+                    // skip the tags
+                    line = line.substring(line.indexOf(' ') + 1);
+                }
+                final int idx = line.indexOf(" :");
+                if (! line.startsWith("PRIVMSG ") || idx == -1) return;
+                if (line.startsWith("out ", idx + 2)) {
+                    outbound.increment();
+                } else if (line.startsWith("pong ", idx + 2)) {
+                    final int seq = Integer.parseInt(line.substring(idx + 7));
+                    latencies[seq] = System.nanoTime() - due[seq];
+                    responses.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    void connect() throws Exception {
+        final Thread connector = new Thread(() -> {
+            try {
+                bot.connect();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        connector.setDaemon(true);
+        connector.start();
+        if (! registered.await(10, TimeUnit.SECONDS)) throw new IllegalStateException("Bot did not register");
+        bot.sendJoin(CHANNEL);
+        if (! joined.await(10, TimeUnit.SECONDS)) throw new IllegalStateException("Bot did not join");
+    }
+
+    void runInbound(final int count) throws InterruptedException {
+        final MockIRCServer.Client client = server.getClient(bot.getBotNick());
+        inbound.reset();
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i ++) {
+            client.send(":load" + (i & 63) + "!~load@mock.users PRIVMSG " + CHANNEL + " :inbound message number " + i);
+        }
+        while (inbound.sum() < count) {
+            Thread.sleep(1);
+        }
+        report("inbound", count, "events", System.nanoTime() - start);
+    }
+
+    void runOutbound(final int count, final boolean tracked) throws Exception {
+        outbound.reset();
+        final long start = System.nanoTime();
+        if (tracked) {
+            // the run is over when the server has confirmed every message to the bot
+            final CompletableFuture<?>[] deliveries = new CompletableFuture<?>[count];
+            for (int i = 0; i < count; i ++) {
+                deliveries[i] = bot.sendMessageTracked(CHANNEL, "out " + i);
+            }
+            CompletableFuture.allOf(deliveries).get(60, TimeUnit.SECONDS);
+            report("confirmed", count, "lines", System.nanoTime() - start);
+            return;
+        }
+        for (int i = 0; i < count; i ++) {
+            bot.sendMessage(CHANNEL, "out " + i);
+        }
+        while (outbound.sum() < count) {
+            Thread.sleep(1);
+        }
+        report("outbound", count, "lines", System.nanoTime() - start);
+    }
+
+    void runLatency(final int count, final int rate) throws InterruptedException {
+        final MockIRCServer.Client client = server.getClient(bot.getBotNick());
+        due = new long[count];
+        latencies = new long[count];
+        responses.set(0);
+        final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i ++) {
+            final int seq = i;
+            due[seq] = start + seq * interval;
+            executor.schedule(() -> client.send(":client!~client@mock.users PRIVMSG " + CHANNEL + " :!ping " + seq), due[seq] - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        while (responses.get() < count) {
+            Thread.sleep(1);
+        }
+        executor.shutdown();
+        final long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf(Locale.ROOT, "latency:  %d requests at %d/s: p50 %s  p90 %s  p99 %s  p99.9 %s  max %s%n", count, rate,
+            micros(percentile(sorted, 0.5)), micros(percentile(sorted, 0.9)), micros(percentile(sorted, 0.99)), micros(percentile(sorted, 0.999)), micros(sorted[sorted.length - 1]));
+    }
+
+    private static long percentile(final long[] sorted, final double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static String micros(final long nanos) {
+        return String.format(Locale.ROOT, "%.1fus", nanos / 1000.0);
+    }
+
+    private static void report(final String name, final int count, final String unit, final long nanos) {
+        System.out.printf(Locale.ROOT, "%-9s %d %s in %.1f ms: %.0f %s/s%n", name + ":", count, unit, nanos / 1e6, count * 1e9 / nanos, unit);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int inboundCount = 200000;
+        int outboundCount = 50000;
+        int requests = 10000;
+        int rate = 2000;
+        int window = 0;
+        long lag = 0;
+        String flood = null;
+        boolean nio = false;
+        boolean metrics = false;
+        boolean tracked = false;
+        for (int i = 0; i < args.length; i ++) {
+            switch (args[i]) {
+                case "-inbound": inboundCount = Integer.parseInt(args[++ i]); break;
+                case "-outbound": outboundCount = Integer.parseInt(args[++ i]); break;
+                case "-requests": requests = Integer.parseInt(args[++ i]); break;
+                case "-rate": rate = Integer.parseInt(args[++ i]); break;
+                case "-window": window = Integer.parseInt(args[++ i]); break;
+                case "-lag": lag = Long.parseLong(args[++ i]); break;
+                case "-flood": flood = args[++ i]; break;
+                case "-nio": nio = true; break;
+                case "-metrics": metrics = true; break;
+                case "-tracked": tracked = true; break;
+                default: {
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+        try (MockIRCServer server = new MockIRCServer()) {
+            server.setLag(lag, TimeUnit.MILLISECONDS);
+            if (flood != null) {
+                final int slash = flood.indexOf('/');
+                server.setFloodLimit(Integer.parseInt(flood.substring(0, slash)), Long.parseLong(flood.substring(slash + 1)), TimeUnit.MILLISECONDS);
+            }
+            server.start();
+            final ThimBot bot = new ThimBot(Preferences.userRoot().node("thimbot-driver"), server.getAddress(), SocketFactory.getDefault());
+            if (nio) bot.setSelectorLoopGroup(new SelectorLoopGroup(1));
+            final ThroughputDriver driver = new ThroughputDriver(server, bot);
+            driver.connect();
+            bot.getMetrics().setEnabled(metrics);
+            if (window > 0) bot.setWindowSize(window);
+            if (inboundCount > 0) driver.runInbound(inboundCount);
+            if (outboundCount > 0) driver.runOutbound(outboundCount, tracked);
+            if (requests > 0) driver.runLatency(requests, rate);
+            if (metrics) System.out.print(bot.getMetrics());
+            bot.disconnect();
+        }
+        System.exit(0);
+    }
+}
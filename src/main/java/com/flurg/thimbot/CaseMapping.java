@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+/**
+ * An IRC case mapping, which decides which nicks and channel names are considered equal.  The server announces its
+ * case mapping in the {@code CASEMAPPING} ISUPPORT token.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public enum CaseMapping {
+    /**
+     * Only {@code A-Z} and {@code a-z} are equivalent.
+     */
+    ASCII("ascii", 'Z'),
+    /**
+     * As {@link #ASCII}, and {@code []\^} are equivalent to <code>{}|~</code>.  This is the default.
+     */
+    RFC1459("rfc1459", '^'),
+    /**
+     * As {@link #ASCII}, and {@code []\} are equivalent to <code>{}|</code>.
+     */
+    STRICT_RFC1459("strict-rfc1459", ']'),
+    ;
+
+    private final String name;
+    private final char upperLast;
+
+    CaseMapping(final String name, final char upperLast) {
+        this.name = name;
+        this.upperLast = upperLast;
+    }
+
+    /**
+     * Get the name of this case mapping, as used in ISUPPORT.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Find a case mapping by its ISUPPORT name.
+     *
+     * @param name the name
+     * @return the case mapping, or {@code null} if it is not known
+     */
+    public static CaseMapping forName(final String name) {
+        for (CaseMapping caseMapping : values()) {
+            if (caseMapping.name.equalsIgnoreCase(name)) {
+                return caseMapping;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fold a character to lower case.
+     *
+     * @param c the character
+     * @return the folded character
+     */
+    public char toLowerCase(final char c) {
+        return c >= 'A' && c <= upperLast ? (char) (c + 32) : c;
+    }
+
+    /**
+     * Fold a byte to lower case.
+     *
+     * @param b the byte
+     * @return the folded byte
+     */
+    public int toLowerCase(final byte b) {
+        return b >= 'A' && b <= upperLast ? b + 32 : b & 0xff;
+    }
+
+    /**
+     * Fold a string to lower case.
+     *
+     * @param s the string
+     * @return the folded string, which is {@code s} itself if nothing changed
+     */
+    public String toLowerCase(final String s) {
+        final int length = s.length();
+        for (int i = 0; i < length; i ++) {
+            final char c = s.charAt(i);
+            if (c >= 'A' && c <= upperLast) {
+                final char[] chars = s.toCharArray();
+                for (int j = i; j < length; j ++) {
+                    chars[j] = toLowerCase(chars[j]);
+                }
+                return new String(chars);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Determine whether two names are equal under this case mapping.
+     *
+     * @param a the first name
+     * @param b the second name
+     * @return {@code true} if they are equal
+     */
+    public boolean equals(final String a, final String b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        final int length = a.length();
+        if (length != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i ++) {
+            final char ca = a.charAt(i);
+            final char cb = b.charAt(i);
+            if (ca != cb && toLowerCase(ca) != toLowerCase(cb)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute a hash code of a name which is consistent with {@link #equals(String, String)}.
+     *
+     * @param s the name
+     * @return the hash code
+     */
+    public int hashCode(final String s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i ++) {
+            h = 31 * h + toLowerCase(s.charAt(i));
+        }
+        return h;
+    }
+}
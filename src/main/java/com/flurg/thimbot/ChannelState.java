@@ -0,0 +1,262 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable snapshot of a channel which the bot is in.  Each change to the channel produces a new snapshot, so a
+ * snapshot may be read from any thread without locking.
+ * <p>
+ * Members are held in a compact array ordered by {@linkplain IRCUser#getId() user id}, each with a bit mask of the
+ * membership modes (such as {@code o} or {@code v}) which the member holds; see {@link ModeFlags} for the bit layout.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class ChannelState {
+    private static final IRCUser[] NO_MEMBERS = new IRCUser[0];
+    private static final long[] NO_MODES = new long[0];
+
+    private final StateTracker tracker;
+    private final String name;
+    private final String topic;
+    private final long modes;
+    private final IRCUser[] members;
+    private final long[] memberModes;
+
+    private ChannelState(final StateTracker tracker, final String name, final String topic, final long modes, final IRCUser[] members, final long[] memberModes) {
+        this.tracker = tracker;
+        this.name = name;
+        this.topic = topic;
+        this.modes = modes;
+        this.members = members;
+        this.memberModes = memberModes;
+    }
+
+    ChannelState(final StateTracker tracker, final String name) {
+        this(tracker, name, null, 0L, NO_MEMBERS, NO_MODES);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the channel topic.
+     *
+     * @return the topic, or {@code null} if there is none or it is not yet known
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * Get the channel's parameterless modes (such as {@code n} or {@code t}) as a bit mask.
+     *
+     * @return the mode bits
+     */
+    public long getModes() {
+        return modes;
+    }
+
+    public boolean hasMode(final char mode) {
+        return (modes & ModeFlags.getBits(mode)) != 0;
+    }
+
+    public int getMemberCount() {
+        return members.length;
+    }
+
+    /**
+     * Get a member by position, for iterating without allocating.
+     *
+     * @param index the position, from 0 to {@code getMemberCount() - 1}
+     * @return the member
+     */
+    public IRCUser getMember(final int index) {
+        return members[index];
+    }
+
+    /**
+     * Get the membership mode bits of a member by position.
+     *
+     * @param index the position, from 0 to {@code getMemberCount() - 1}
+     * @return the mode bits
+     */
+    public long getMemberModes(final int index) {
+        return memberModes[index];
+    }
+
+    /**
+     * Get the members of the channel.
+     *
+     * @return an immutable list view of the members
+     */
+    public List<IRCUser> getMembers() {
+        final IRCUser[] members = this.members;
+        return new AbstractList<IRCUser>() {
+            public IRCUser get(final int index) {
+                return members[index];
+            }
+
+            public int size() {
+                return members.length;
+            }
+        };
+    }
+
+    /**
+     * Find a member.
+     *
+     * @param user the user
+     * @return the position of the member, or -1 if the user is not a member
+     */
+    public int indexOf(final IRCUser user) {
+        if (user == null) {
+            return -1;
+        }
+        final IRCUser[] members = this.members;
+        final int id = user.getId();
+        int low = 0, high = members.length - 1;
+        while (low <= high) {
+            final int mid = low + high >>> 1;
+            final int midId = members[mid].getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return members[mid] == user ? mid : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find a member by nick.
+     *
+     * @param nick the nick, compared using the server's case mapping
+     * @return the position of the member, or -1 if there is no such member
+     */
+    public int indexOf(final String nick) {
+        return indexOf(tracker.getUser(nick));
+    }
+
+    public boolean contains(final String nick) {
+        return indexOf(nick) != -1;
+    }
+
+    /**
+     * Get the membership mode bits of a member.
+     *
+     * @param nick the nick
+     * @return the mode bits, or 0 if there is no such member
+     */
+    public long getMemberModes(final String nick) {
+        final int index = indexOf(nick);
+        return index == -1 ? 0L : memberModes[index];
+    }
+
+    /**
+     * Determine whether a member holds a membership mode, e.g. {@code o} for a channel operator.
+     *
+     * @param nick the nick
+     * @param mode the mode character
+     * @return {@code true} if the nick is a member and holds the mode
+     */
+    public boolean hasMemberMode(final String nick, final char mode) {
+        return (getMemberModes(nick) & ModeFlags.getBits(mode)) != 0;
+    }
+
+    ChannelState withTopic(final String topic) {
+        return new ChannelState(tracker, name, topic, modes, members, memberModes);
+    }
+
+    ChannelState withModes(final long modes) {
+        return modes == this.modes ? this : new ChannelState(tracker, name, topic, modes, members, memberModes);
+    }
+
+    ChannelState withMember(final IRCUser user, final long modes) {
+        final int length = members.length;
+        final int id = user.getId();
+        int pos = 0, high = length;
+        while (pos < high) {
+            final int mid = pos + high >>> 1;
+            if (members[mid].getId() < id) {
+                pos = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        final IRCUser[] newMembers = new IRCUser[length + 1];
+        final long[] newModes = new long[length + 1];
+        System.arraycopy(members, 0, newMembers, 0, pos);
+        System.arraycopy(memberModes, 0, newModes, 0, pos);
+        newMembers[pos] = user;
+        newModes[pos] = modes;
+        System.arraycopy(members, pos, newMembers, pos + 1, length - pos);
+        System.arraycopy(memberModes, pos, newModes, pos + 1, length - pos);
+        return new ChannelState(tracker, name, topic, this.modes, newMembers, newModes);
+    }
+
+    ChannelState withoutMember(final int index) {
+        final int length = members.length;
+        final IRCUser[] newMembers = new IRCUser[length - 1];
+        final long[] newModes = new long[length - 1];
+        System.arraycopy(members, 0, newMembers, 0, index);
+        System.arraycopy(memberModes, 0, newModes, 0, index);
+        System.arraycopy(members, index + 1, newMembers, index, length - index - 1);
+        System.arraycopy(memberModes, index + 1, newModes, index, length - index - 1);
+        return new ChannelState(tracker, name, topic, modes, newMembers, newModes);
+    }
+
+    ChannelState withMemberModes(final int index, final long modes) {
+        if (memberModes[index] == modes) {
+            return this;
+        }
+        final long[] newModes = memberModes.clone();
+        newModes[index] = modes;
+        return new ChannelState(tracker, name, topic, this.modes, members, newModes);
+    }
+
+    ChannelState withMembers(final IRCUser[] members, final long[] memberModes) {
+        return new ChannelState(tracker, name, topic, modes, members, memberModes);
+    }
+
+    public String toString() {
+        return "Channel " + name + " (" + members.length + " members)";
+    }
+
+    static final class Builder {
+        IRCUser[] members = new IRCUser[16];
+        long[] modes = new long[16];
+        int count;
+
+        void add(final IRCUser user, final long modes) {
+            if (count == members.length) {
+                members = Arrays.copyOf(members, count << 1);
+                this.modes = Arrays.copyOf(this.modes, count << 1);
+            }
+            members[count] = user;
+            this.modes[count ++] = modes;
+        }
+    }
+}
@@ -92,18 +92,19 @@ final class DefaultHandler extends EventHandler {
         accountNotify |= capabilities.contains("account-notify");
         extendedJoin |= capabilities.contains("extended-join");
         inviteNotify |= capabilities.contains("invite-notify");
+        if (capabilities.contains("labeled-response")) {
+            event.getBot().setLabeledResponse(true);
+        }
         context.redispatch(new CapabilityEndEvent(event.getBot(), Priority.NORMAL));
     }
 
     public void handleEvent(final EventHandlerContext context, final CapabilityEndEvent event) throws Exception {
         final ThimBot bot = event.getBot();
-        synchronized (bot.lock) {
-            bot.getConnection().queueMessage(Priority.HIGH, (context1, target, seq) -> {
-                target.write(IRCStrings.CAP);
-                target.write(' ');
-                target.write(IRCStrings.END);
-            });
-        }
+        bot.getConnection().queueMessage(Priority.HIGH, (context1, target, seq) -> {
+            target.write(IRCStrings.CAP);
+            target.write(' ');
+            target.write(IRCStrings.END);
+        });
         super.handleEvent(context, event);
     }
 
@@ -112,22 +113,18 @@ final class DefaultHandler extends EventHandler {
         super.handleEvent(context, event);
         Set<String> desiredCapabilities = event.getBot().getDesiredCapabilities();
         desiredCapabilities.retainAll(capabilities);
-        desiredCapabilities.remove("batch"); // not yet supported
         desiredCapabilities.remove("cap-notify"); // unsupported
-        desiredCapabilities.remove("server-time"); // not yet supported
         desiredCapabilities.remove("userhost-in-names"); // not yet supported
         event.getBot().sendCapReq(desiredCapabilities);
     }
 
     public void handleEvent(final EventHandlerContext context, final CapabilityListRequestEvent event) throws Exception {
         final ThimBot bot = event.getBot();
-        synchronized (bot.lock) {
-            bot.getConnection().queueMessage(event.getPriority(), (bot1, target, seq) -> {
-                target.write(IRCStrings.CAP);
-                target.write(' ');
-                target.write(IRCStrings.LS);
-            });
-        }
+        bot.getConnection().queueMessage(event.getPriority(), (bot1, target, seq) -> {
+            target.write(IRCStrings.CAP);
+            target.write(' ');
+            target.write(IRCStrings.LS);
+        });
         super.handleEvent(context, event);
     }
 
@@ -142,20 +139,18 @@ final class DefaultHandler extends EventHandler {
         assert desiredCapabilities.size() > 0;
         final String[] caps = desiredCapabilities.toArray(NO_STRINGS);
         final ThimBot bot = event.getBot();
-        synchronized (bot.lock) {
-            bot.getConnection().queueMessage(Priority.HIGH, (bot1, target, seq) -> {
-                target.write(IRCStrings.CAP);
-                target.write(' ');
-                target.write(IRCStrings.REQ);
+        bot.getConnection().queueMessage(Priority.HIGH, (bot1, target, seq) -> {
+            target.write(IRCStrings.CAP);
+            target.write(' ');
+            target.write(IRCStrings.REQ);
+            target.write(' ');
+            target.write(':');
+            target.write(caps[0]);
+            for (int i = 1; i < caps.length; i++) {
                 target.write(' ');
-                target.write(':');
-                target.write(caps[0]);
-                for (int i = 1; i < caps.length; i++) {
-                    target.write(' ');
-                    target.write(caps[i]);
-                }
-            });
-        }
+                target.write(caps[i]);
+            }
+        });
         super.handleEvent(context, event);
     }
 
@@ -171,24 +166,22 @@ final class DefaultHandler extends EventHandler {
     }
 
     public void handleEvent(final EventHandlerContext context, final QuitRequestEvent event) throws Exception {
-        synchronized (event.getBot().lock) {
-            event.getBot().getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
-                target.write(IRCStrings.QUIT);
-                final String reason = event.getRawReason();
-                if (reason != null) {
-                    target.write(' ');
-                    target.write(':');
-                    target.write(reason.getBytes(event.getBot().getCharset()));
-                }
-            });
-        }
+        event.getBot().getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
+            target.write(IRCStrings.QUIT);
+            final String reason = event.getRawReason();
+            if (reason != null) {
+                target.write(' ');
+                target.write(':');
+                target.write(reason.getBytes(event.getBot().getCharset()));
+            }
+        });
         super.handleEvent(context, event);
     }
 
     // flow control - messages and actions
 
     public void handleEvent(final EventHandlerContext context, final OutboundActionEvent event) throws Exception {
-        event.getBot().sendRawMultiTarget(event.getPriority(), ThimBot.CmdType.CTCP_PRIVMSG, event.getTargets(), IRCStrings.ACTION, new StringEmitter(event.getRawText()));
+        event.getBot().sendRawMultiTarget(event.getPriority(), ThimBot.CmdType.CTCP_PRIVMSG, event.getTargets(), IRCStrings.ACTION, new StringEmitter(event.getRawText()), event.getDelivery());
         super.handleEvent(context, event);
     }
 
@@ -202,7 +195,7 @@ final class DefaultHandler extends EventHandler {
     }
 
     public void handleEvent(final EventHandlerContext context, final OutboundMessageEvent event) throws Exception {
-        event.getBot().sendRawMultiTarget(event.getPriority(), ThimBot.CmdType.SIMPLE, event.getTargets(), IRCStrings.PRIVMSG, new StringEmitter(event.getRawText()));
+        event.getBot().sendRawMultiTarget(event.getPriority(), ThimBot.CmdType.SIMPLE, event.getTargets(), IRCStrings.PRIVMSG, new StringEmitter(event.getRawText()), event.getDelivery());
         super.handleEvent(context, event);
     }
 
@@ -216,7 +209,7 @@ final class DefaultHandler extends EventHandler {
     }
 
     public void handleEvent(final EventHandlerContext context, final OutboundNoticeEvent event) throws Exception {
-        event.getBot().sendRawMultiTarget(event.getPriority(), ThimBot.CmdType.SIMPLE, event.getTargets(), IRCStrings.NOTICE, new StringEmitter(event.getRawText()));
+        event.getBot().sendRawMultiTarget(event.getPriority(), ThimBot.CmdType.SIMPLE, event.getTargets(), IRCStrings.NOTICE, new StringEmitter(event.getRawText()), event.getDelivery());
         super.handleEvent(context, event);
     }
 
@@ -255,13 +248,11 @@ final class DefaultHandler extends EventHandler {
         final Priority priority = event.getPriority();
         final String channel = event.getChannel();
         final ThimBot bot = event.getBot();
-        synchronized (bot.lock) {
-            bot.getConnection().queueMessage(priority, (bot1, target, seq) -> {
-                target.write(IRCStrings.JOIN);
-                target.write(' ');
-                target.write(new StringEmitter(channel));
-            });
-        }
+        bot.getConnection().queueMessage(priority, channel, (bot1, target, seq) -> {
+            target.write(IRCStrings.JOIN);
+            target.write(' ');
+            target.write(new StringEmitter(channel));
+        });
         super.handleEvent(context, event);
     }
 
@@ -270,18 +261,16 @@ final class DefaultHandler extends EventHandler {
         final String channel = event.getChannel();
         final String reason = event.getRawText();
         final ThimBot bot = event.getBot();
-        synchronized (bot.lock) {
-            bot.getConnection().queueMessage(priority, (context1, target, seq) -> {
-                target.write(IRCStrings.PART);
+        bot.getConnection().queueMessage(priority, channel, (context1, target, seq) -> {
+            target.write(IRCStrings.PART);
+            target.write(' ');
+            target.write(new StringEmitter(channel));
+            if (reason != null) {
                 target.write(' ');
-                target.write(new StringEmitter(channel));
-                if (reason != null) {
-                    target.write(' ');
-                    target.write(':');
-                    target.write(reason.getBytes(context1.getCharset()));
-                }
-            });
-        }
+                target.write(':');
+                target.write(reason.getBytes(context1.getCharset()));
+            }
+        });
         super.handleEvent(context, event);
     }
 
@@ -313,28 +302,24 @@ final class DefaultHandler extends EventHandler {
 
     public void handleEvent(final EventHandlerContext context, final ChannelTopicRequestEvent event) throws Exception {
         final String channel = event.getChannel();
-        synchronized (event.getBot().lock) {
-            event.getBot().getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
-                target.write(IRCStrings.TOPIC);
-                target.write(' ');
-                target.write(new StringEmitter(channel));
-            });
-        }
+        event.getBot().getConnection().queueMessage(event.getPriority(), channel, (context1, target, seq) -> {
+            target.write(IRCStrings.TOPIC);
+            target.write(' ');
+            target.write(new StringEmitter(channel));
+        });
         super.handleEvent(context, event);
     }
 
     public void handleEvent(final EventHandlerContext context, final ChannelTopicChangeRequestEvent event) throws Exception {
         final ThimBot bot = event.getBot();
-        synchronized (bot.lock) {
-            bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
-                target.write(IRCStrings.TOPIC);
-                target.write(' ');
-                target.write(new StringEmitter(event.getChannel()));
-                target.write(' ');
-                target.write(':');
-                target.write(event.getRawText().getBytes(context1.getCharset()));
-            });
-        }
+        bot.getConnection().queueMessage(event.getPriority(), event.getChannel(), (context1, target, seq) -> {
+            target.write(IRCStrings.TOPIC);
+            target.write(' ');
+            target.write(new StringEmitter(event.getChannel()));
+            target.write(' ');
+            target.write(':');
+            target.write(event.getRawText().getBytes(context1.getCharset()));
+        });
         super.handleEvent(context, event);
     }
 
@@ -342,38 +327,32 @@ final class DefaultHandler extends EventHandler {
 
     public void handleEvent(final EventHandlerContext context, final ChannelModeRequestEvent event) throws Exception {
         final ThimBot bot = event.getBot();
-        synchronized (bot.lock) {
-            bot.getConnection().queueMessage(event.getPriority(), (context1, bo, seq) -> {
-                bo.write(IRCStrings.MODE);
-                bo.write(' ');
-                bo.write(event.getChannel());
-            });
-        }
+        bot.getConnection().queueMessage(event.getPriority(), event.getChannel(), (context1, bo, seq) -> {
+            bo.write(IRCStrings.MODE);
+            bo.write(' ');
+            bo.write(event.getChannel());
+        });
     }
 
     // server pings
 
     public void handleEvent(final EventHandlerContext context, final OutboundServerPingEvent event) throws Exception {
         final ThimBot bot = event.getBot();
-        synchronized (bot.lock) {
-            bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
-                target.write(IRCStrings.PING);
-                target.write(' ');
-                target.write(event.getPayload().getBytes(StandardCharsets.UTF_8));
-            });
-        }
+        bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
+            target.write(IRCStrings.PING);
+            target.write(' ');
+            target.write(event.getPayload().getBytes(StandardCharsets.UTF_8));
+        });
         super.handleEvent(context, event);
     }
 
     public void handleEvent(final EventHandlerContext context, final OutboundServerPongEvent event) throws Exception {
         final ThimBot bot = event.getBot();
-        synchronized (bot.lock) {
-            bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
-                target.write(IRCStrings.PONG);
-                target.write(' ');
-                target.write(event.getPayload().getBytes(StandardCharsets.UTF_8));
-            });
-        }
+        bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
+            target.write(IRCStrings.PONG);
+            target.write(' ');
+            target.write(event.getPayload().getBytes(StandardCharsets.UTF_8));
+        });
         super.handleEvent(context, event);
     }
 
@@ -417,35 +396,31 @@ final class DefaultHandler extends EventHandler {
     public void handleEvent(final EventHandlerContext context, final AuthenticationRequestEvent event) throws Exception {
         final String mechanismName = event.getMechanism();
         final ThimBot bot = event.getBot();
-        synchronized (bot.lock) {
-            bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
-                target.write(IRCStrings.AUTHENTICATE);
-                target.write(' ');
-                target.write(mechanismName);
-            });
-        }
+        bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
+            target.write(IRCStrings.AUTHENTICATE);
+            target.write(' ');
+            target.write(mechanismName);
+        });
         super.handleEvent(context, event);
     }
 
     public void handleEvent(final EventHandlerContext context, final AuthenticationResponseEvent event) throws Exception {
         final ThimBot bot = event.getBot();
         final byte[] response = event.getBytes();
-        synchronized (bot.lock) {
-            final int length = response.length;
-            if (length == 0) {
-                bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
-                    target.write(IRCStrings.AUTHENTICATE);
-                    target.write(' ');
-                    target.write('+');
-                });
-            } else for (int i = 0; i < length; i += 400) {
-                final int start = i;
-                bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
-                    target.write(IRCStrings.AUTHENTICATE);
-                    target.write(' ');
-                    IRCBase64.encode(response, start, min(400, length - start), target);
-                });
-            }
+        final int length = response.length;
+        if (length == 0) {
+            bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
+                target.write(IRCStrings.AUTHENTICATE);
+                target.write(' ');
+                target.write('+');
+            });
+        } else for (int i = 0; i < length; i += 400) {
+            final int start = i;
+            bot.getConnection().queueMessage(event.getPriority(), (context1, target, seq) -> {
+                target.write(IRCStrings.AUTHENTICATE);
+                target.write(' ');
+                IRCBase64.encode(response, start, min(400, length - start), target);
+            });
         }
         super.handleEvent(context, event);
     }
@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The tracked messages of the current connection, and their outbound lines keyed by line sequence number.  A message
+ * is tracked from the moment it is queued, so that it can time out or fail with the connection even if none of its
+ * lines has been written yet.  A line by a {@code labeled-response} reply which carries its sequence number as the label, or else when the
+ * server acknowledges a later line, since the server handles lines in order.  Labeled error replies, including those
+ * inside a labeled batch, fail the delivery; without labels, errors cannot be told apart, so a line which the server
+ * has processed counts as confirmed whether or not it was accepted.
+ * <p>
+ * The line table is bounded; when it is full, the oldest line is given up on.  Messages which are not confirmed in
+ * time are given up on as well, by a timer which runs while any are outstanding.  One timer thread is shared by all
+ * bots.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class DeliveryTracker {
+
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "IRC Delivery Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        TIMER = timer;
+    }
+
+    // outstanding messages in the order they were queued, which is also the order of their deadlines
+    private final ConcurrentSkipListMap<Long, Delivery> deliveries = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    // written lines which are waiting for confirmation
+    private final ConcurrentSkipListMap<Long, Delivery> lines = new ConcurrentSkipListMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    // whether an expiry task is pending for this table
+    private final AtomicBoolean timerScheduled = new AtomicBoolean();
+    private final Runnable expireTask = this::runTimer;
+    private volatile int capacity = 4096;
+    private volatile long timeoutNanos = TimeUnit.SECONDS.toNanos(60L);
+
+    DeliveryTracker() {
+    }
+
+    void setCapacity(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+    }
+
+    void setTimeout(final long timeout, final TimeUnit unit) {
+        timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Start tracking a message which is about to be queued.  Its deadline starts now.
+     *
+     * @param future the future to complete when the message is confirmed
+     * @param lineCount the number of lines the message will be sent as
+     * @return the delivery
+     */
+    Delivery track(final CompletableFuture<Void> future, final int lineCount) {
+        final Long id = Long.valueOf(nextId.getAndIncrement());
+        final Delivery delivery = new Delivery(future, lineCount, System.nanoTime() + timeoutNanos);
+        deliveries.put(id, delivery);
+        // however it ends, it is no longer outstanding
+        future.whenComplete((v, t) -> deliveries.remove(id, delivery));
+        scheduleTimer();
+        return delivery;
+    }
+
+    /**
+     * Start tracking a line of a tracked message, which has just been written.
+     *
+     * @param seq the line sequence number
+     * @param delivery the delivery the line belongs to
+     */
+    void register(final long seq, final Delivery delivery) {
+        lines.put(Long.valueOf(seq), delivery);
+        if (size.incrementAndGet() > capacity) {
+            final Map.Entry<Long, Delivery> eldest = lines.pollFirstEntry();
+            if (eldest != null) {
+                size.decrementAndGet();
+                eldest.getValue().fail(new TimeoutException("Too many deliveries outstanding"));
+            }
+        }
+    }
+
+    private void scheduleTimer() {
+        final Map.Entry<Long, Delivery> first = deliveries.firstEntry();
+        if (first != null && timerScheduled.compareAndSet(false, true)) {
+            TIMER.schedule(expireTask, Math.max(0L, first.getValue().deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void runTimer() {
+        try {
+            expire(System.nanoTime());
+        } finally {
+            timerScheduled.set(false);
+            // lines registered meanwhile may not have been able to schedule the timer
+            scheduleTimer();
+        }
+    }
+
+    /**
+     * Settle one line in response to a labeled reply.
+     *
+     * @param seq the line sequence number
+     * @param error the error text if the server rejected the line, or {@code null} if it was accepted
+     */
+    void complete(final long seq, final String error) {
+        final Delivery delivery = lines.remove(Long.valueOf(seq));
+        if (delivery != null) {
+            size.decrementAndGet();
+            if (error == null) {
+                delivery.confirm();
+            } else {
+                delivery.fail(new IOException("Message rejected: " + error));
+            }
+        }
+    }
+
+    /**
+     * Confirm every line up to and including the given one.
+     *
+     * @param ackSeq the sequence number of the last line the server has handled
+     */
+    void acknowledge(final long ackSeq) {
+        Map.Entry<Long, Delivery> first;
+        while ((first = lines.firstEntry()) != null && first.getKey().longValue() <= ackSeq) {
+            if (lines.remove(first.getKey(), first.getValue())) {
+                size.decrementAndGet();
+                first.getValue().confirm();
+            }
+        }
+    }
+
+    private void expire(final long now) {
+        Map.Entry<Long, Delivery> first;
+        while ((first = deliveries.firstEntry()) != null && first.getValue().deadline - now < 0L) {
+            if (deliveries.remove(first.getKey(), first.getValue())) {
+                first.getValue().fail(new TimeoutException("No response from server"));
+            }
+        }
+        // drop lines of messages which have already failed
+        while ((first = lines.firstEntry()) != null && first.getValue().future.isDone()) {
+            if (lines.remove(first.getKey(), first.getValue())) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Fail every outstanding message, written or still queued, because the connection is gone.
+     */
+    void failAll() {
+        Map.Entry<Long, Delivery> first;
+        while ((first = deliveries.pollFirstEntry()) != null) {
+            first.getValue().fail(new IOException("Connection closed"));
+        }
+        while ((first = lines.pollFirstEntry()) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * One tracked message, which may be sent as several lines.  Its future completes when all of them are confirmed,
+     * or fails as soon as any one of them fails.
+     */
+    static final class Delivery {
+        final CompletableFuture<Void> future;
+        final long deadline;
+        private final AtomicInteger remaining;
+
+        Delivery(final CompletableFuture<Void> future, final int lineCount, final long deadline) {
+            this.future = future;
+            this.deadline = deadline;
+            remaining = new AtomicInteger(lineCount);
+        }
+
+        void confirm() {
+            if (remaining.decrementAndGet() == 0) {
+                future.complete(null);
+            }
+        }
+
+        void fail(final Throwable cause) {
+            future.completeExceptionally(cause);
+        }
+    }
+}
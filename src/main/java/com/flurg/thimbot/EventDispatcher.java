@@ -0,0 +1,284 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.flurg.thimbot.event.AccountChangeEvent;
+import com.flurg.thimbot.event.ChannelEvent;
+import com.flurg.thimbot.event.Event;
+import com.flurg.thimbot.event.FromUserEvent;
+import com.flurg.thimbot.event.NickChangeEvent;
+import com.flurg.thimbot.event.QuitEvent;
+
+/**
+ * A dispatcher which runs the handlers for inbound events on a pool of worker threads, so that a slow handler does
+ * not hold up reading from the connection.
+ * <p>
+ * Each event is assigned to a lane: channel events by channel name, events from a user which are not about a channel
+ * by the user's nick, and everything else (server messages, nick changes, quits, and so on) to the server lane.  Names
+ * are compared case-insensitively.  Each lane runs its events one at a time in the order they were received, so events
+ * for any one channel are always handled in order; different lanes run in parallel.  Channel and user lanes are
+ * selected by hash, so two channels may share a lane; the server lane is never shared.
+ * <p>
+ * Each lane holds a bounded number of waiting events.  What happens when a channel or user lane is full is decided by
+ * the {@link OverflowPolicy}.  The server lane carries the events which keep the connection alive and registered, such
+ * as {@code PING}, capability negotiation and disconnection, so its events are never discarded: when it is full, the
+ * connection's reader waits for room regardless of the policy.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class EventDispatcher {
+
+    /**
+     * The action taken when an event is dispatched to a lane which is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for room in the lane.  This pushes back on the connection's reader, which stops reading until the
+         * handlers catch up.  Note that with a {@link com.flurg.thimbot.raw.SelectorLoopGroup}, the reader is the
+         * selector thread, which is shared by other connections; all of them stall while it waits.
+         */
+        BLOCK,
+        /**
+         * Discard the new event.
+         */
+        DISCARD,
+        /**
+         * Discard the oldest waiting event in the lane to make room for the new event.
+         */
+        DISCARD_OLDEST,
+    }
+
+    private static final int DRAIN_BATCH = 64;
+    private static final AtomicInteger poolSeq = new AtomicInteger(1);
+
+    private final Executor executor;
+    private final Lane[] lanes;
+    private final Lane serverLane;
+    private final int mask;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * Construct a new instance which runs its lanes on a new pool of daemon threads, one per processor.  There are four
+     * lanes per thread, each holding up to 1024 events, and full lanes block.
+     */
+    public EventDispatcher() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    private EventDispatcher(final int threads) {
+        this(newPool(threads), threads * 4, 1024, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param executor the executor to run lanes on
+     * @param lanes the number of lanes (rounded up to a power of two)
+     * @param capacity the maximum number of events waiting in each lane
+     * @param overflowPolicy the action to take when a lane is full
+     */
+    public EventDispatcher(final Executor executor, final int lanes, final int capacity, final OverflowPolicy overflowPolicy) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor is null");
+        }
+        if (lanes < 1) {
+            throw new IllegalArgumentException("lanes must be at least 1");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflowPolicy is null");
+        }
+        this.executor = executor;
+        this.overflowPolicy = overflowPolicy;
+        int size = 1;
+        while (size < lanes) {
+            size <<= 1;
+        }
+        this.lanes = new Lane[size];
+        for (int i = 0; i < size; i ++) {
+            this.lanes[i] = new Lane(capacity);
+        }
+        mask = size - 1;
+        serverLane = new Lane(capacity);
+    }
+
+    private static ExecutorService newPool(final int threads) {
+        final int id = poolSeq.getAndIncrement();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadSeq = new AtomicInteger(1);
+
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "IRC Dispatch Thread " + id + "-" + threadSeq.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get the number of events which have been discarded because their lane was full.
+     *
+     * @return the number of discarded events
+     */
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    /**
+     * Get the total number of events currently waiting in all lanes.
+     *
+     * @return the number of waiting events
+     */
+    public int getQueuedCount() {
+        int count = 0;
+        for (Lane lane : lanes) {
+            count += lane.queue.size();
+        }
+        return count + serverLane.queue.size();
+    }
+
+    /**
+     * Queue an event to be dispatched to its bot's handlers.
+     *
+     * @param event the event
+     */
+    public void dispatch(final Event event) {
+        final Lane lane = laneOf(event);
+        final ArrayBlockingQueue<Event> queue = lane.queue;
+        if (! queue.offer(event)) {
+            switch (lane == serverLane ? OverflowPolicy.BLOCK : overflowPolicy) {
+                case BLOCK: {
+                    boolean intr = false;
+                    try {
+                        for (;;) try {
+                            queue.put(event);
+                            break;
+                        } catch (InterruptedException e) {
+                            intr = true;
+                        }
+                    } finally {
+                        if (intr) Thread.currentThread().interrupt();
+                    }
+                    break;
+                }
+                case DISCARD: {
+                    discarded.getAndIncrement();
+                    return;
+                }
+                case DISCARD_OLDEST: {
+                    do {
+                        if (queue.poll() != null) {
+                            discarded.getAndIncrement();
+                        }
+                    } while (! queue.offer(event));
+                    break;
+                }
+                default: throw new IllegalStateException();
+            }
+        }
+        if (lane.scheduled.compareAndSet(false, true)) {
+            lane.schedule();
+        }
+    }
+
+    private Lane laneOf(final Event event) {
+        final String name;
+        if (event instanceof ChannelEvent) {
+            name = ((ChannelEvent) event).getChannel();
+        } else if (event instanceof FromUserEvent && ! (event instanceof NickChangeEvent || event instanceof QuitEvent || event instanceof AccountChangeEvent)) {
+            name = ((FromUserEvent) event).getFromNick();
+        } else {
+            return serverLane;
+        }
+        return name == null ? serverLane : lanes[nameHash(name) & mask];
+    }
+
+    private static int nameHash(final String name) {
+        // fold case (including the RFC 1459 characters) without allocating
+        int h = 0;
+        for (int i = 0; i < name.length(); i ++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= '^') {
+                c += 32;
+            }
+            h = 31 * h + c;
+        }
+        return h ^ h >>> 16;
+    }
+
+    final class Lane implements Runnable {
+        final ArrayBlockingQueue<Event> queue;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Lane(final int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the pool is gone or saturated; run the lane right here rather than lose its events
+                run();
+            }
+        }
+
+        public void run() {
+            final ArrayBlockingQueue<Event> queue = this.queue;
+            for (;;) {
+                for (int i = 0; i < DRAIN_BATCH; i ++) {
+                    final Event event = queue.poll();
+                    if (event == null) {
+                        scheduled.set(false);
+                        // an event may have been added after we found the queue empty but before it could see the flag cleared
+                        if (queue.isEmpty() || ! scheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    try {
+                        event.getBot().dispatch(event);
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                }
+                // give the other lanes a turn
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // keep going on this thread
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import com.flurg.thimbot.event.Event;
+import com.flurg.thimbot.event.EventHandler;
+import com.flurg.thimbot.raw.IRCCommand;
+
+/**
+ * Hooks for JDK Flight Recorder events.  This version is used on JVMs without Flight Recorder, and does nothing; on
+ * JDK 11 and later it is replaced by a version which emits events to any active recording.  The hooks are cheap
+ * enough to call unconditionally, and cost nothing at all here, since the JIT removes them entirely.
+ * <p>
+ * Hooks which measure a span of time are split into a {@code begin} method, which returns a token, and an {@code end}
+ * method which takes the token.  The token is {@code null} if the event is not being recorded.
+ * <p>
+ * This class is internal to the bot; it is public only so that the raw and event packages can reach it.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class FlightRecording {
+
+    private FlightRecording() {
+    }
+
+    /**
+     * Determine whether the time spent by queued lines must be recorded, which is needed by
+     * {@link #messageWritten(Priority, long)}.
+     *
+     * @return {@code true} if queued lines must be stamped
+     */
+    public static boolean isMessageWrittenEnabled() {
+        return false;
+    }
+
+    /**
+     * Record that a line was parsed.
+     *
+     * @param command the command of the line
+     * @param length the length of the line in bytes, not counting the terminator
+     */
+    public static void lineReceived(IRCCommand command, int length) {
+    }
+
+    /**
+     * Begin recording the dispatch of an event to one handler.
+     *
+     * @return the token, or {@code null} if dispatch is not being recorded
+     */
+    public static Object dispatchBegin() {
+        return null;
+    }
+
+    /**
+     * Finish recording the dispatch of an event to one handler.
+     *
+     * @param token the token from {@link #dispatchBegin()}
+     * @param event the event
+     * @param handler the handler
+     */
+    public static void dispatchEnd(Object token, Event event, EventHandler handler) {
+    }
+
+    /**
+     * Record that a line was queued.
+     *
+     * @param priority the priority
+     * @param target the target of the line, or {@code null} for none
+     */
+    public static void messageQueued(Priority priority, String target) {
+    }
+
+    /**
+     * Record that a queued line was written to the transport.
+     *
+     * @param priority the priority it was queued at
+     * @param queueNanos the time it spent waiting, or -1 if not known
+     */
+    public static void messageWritten(Priority priority, long queueNanos) {
+    }
+
+    /**
+     * Begin recording a window stall.
+     *
+     * @return the token, or {@code null} if window stalls are not being recorded
+     */
+    public static Object windowStallBegin() {
+        return null;
+    }
+
+    /**
+     * Finish recording a window stall.
+     *
+     * @param token the token from {@link #windowStallBegin()}
+     * @param windowSize the size of the window
+     */
+    public static void windowStallEnd(Object token, int windowSize) {
+    }
+
+    /**
+     * Begin recording a connection attempt.
+     *
+     * @return the token, or {@code null} if connections are not being recorded
+     */
+    public static Object connectBegin() {
+        return null;
+    }
+
+    /**
+     * Finish recording a connection attempt.
+     *
+     * @param token the token from {@link #connectBegin()}
+     * @param host the host name
+     * @param port the port
+     * @param attempt the number of connection attempts made by this bot, including this one
+     * @param success {@code true} if the connection was established
+     */
+    public static void connectEnd(Object token, String host, int port, int attempt, boolean success) {
+    }
+}
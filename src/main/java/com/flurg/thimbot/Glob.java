@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.util.Arrays;
+
+/**
+ * A compiled IRC wildcard pattern, in which {@code *} matches any run of characters and {@code ?} matches any single
+ * character.  Matching folds case with a {@link CaseMapping} and does not allocate.  Names are decoded as ISO-8859-1,
+ * so each character stands for one byte of the name.
+ * <p>
+ * The literal characters before the first wildcard and after the last are compared directly, so that the common
+ * {@code *.example.com} and {@code 10.0.*} forms cost a single comparison; only the part in between needs the general
+ * matcher, which backtracks to the most recent {@code *} only.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class Glob {
+    private final String source;
+    private final CaseMapping caseMapping;
+    private final char[] pattern;
+    private final int prefixLength;
+    private final int suffixLength;
+    private final int minLength;
+    private final boolean hasStar;
+    private final boolean matchesAll;
+
+    Glob(final String source, final CaseMapping caseMapping) {
+        this.source = source;
+        this.caseMapping = caseMapping;
+        final char[] pattern = new char[source.length()];
+        int length = 0;
+        int minLength = 0;
+        boolean hasStar = false;
+        for (int i = 0; i < source.length(); i ++) {
+            final char c = source.charAt(i);
+            if (c == '*') {
+                // runs of stars are the same as one star
+                if (length > 0 && pattern[length - 1] == '*') continue;
+                hasStar = true;
+            } else {
+                minLength ++;
+            }
+            pattern[length ++] = caseMapping.toLowerCase(c);
+        }
+        this.pattern = length == pattern.length ? pattern : Arrays.copyOf(pattern, length);
+        this.minLength = minLength;
+        this.hasStar = hasStar;
+        int prefixLength = 0;
+        while (prefixLength < length && ! isWild(this.pattern[prefixLength])) prefixLength ++;
+        int suffixLength = 0;
+        if (prefixLength < length) {
+            while (suffixLength < length && ! isWild(this.pattern[length - 1 - suffixLength])) suffixLength ++;
+        }
+        this.prefixLength = prefixLength;
+        this.suffixLength = suffixLength;
+        matchesAll = length == 1 && hasStar;
+    }
+
+    private static boolean isWild(final char c) {
+        return c == '*' || c == '?';
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    boolean matchesAll() {
+        return matchesAll;
+    }
+
+    boolean isLiteral() {
+        return prefixLength == pattern.length;
+    }
+
+    /**
+     * Get the literal characters before the first wildcard, folded.
+     *
+     * @return the literal prefix
+     */
+    String getLiteralPrefix() {
+        return new String(pattern, 0, prefixLength);
+    }
+
+    /**
+     * Get the literal characters after the last wildcard, folded.
+     *
+     * @return the literal suffix
+     */
+    String getLiteralSuffix() {
+        return new String(pattern, pattern.length - suffixLength, suffixLength);
+    }
+
+    boolean matches(final String s) {
+        return matches(s, 0, s.length());
+    }
+
+    boolean matches(final String s, final int from, final int to) {
+        if (matchesAll) {
+            return true;
+        }
+        final int length = to - from;
+        if (hasStar ? length < minLength : length != minLength) {
+            return false;
+        }
+        final char[] pattern = this.pattern;
+        final CaseMapping caseMapping = this.caseMapping;
+        final int prefixLength = this.prefixLength;
+        for (int i = 0; i < prefixLength; i ++) {
+            if (caseMapping.toLowerCase(s.charAt(from + i)) != pattern[i]) {
+                return false;
+            }
+        }
+        if (prefixLength == pattern.length) {
+            return true;
+        }
+        final int suffixLength = this.suffixLength;
+        final int pEnd = pattern.length - suffixLength;
+        final int sEnd = to - suffixLength;
+        for (int i = 0; i < suffixLength; i ++) {
+            if (caseMapping.toLowerCase(s.charAt(sEnd + i)) != pattern[pEnd + i]) {
+                return false;
+            }
+        }
+        // the general case, between the literal ends
+        int p = prefixLength;
+        int i = from + prefixLength;
+        int starP = -1;
+        int starI = 0;
+        while (i < sEnd) {
+            if (p < pEnd) {
+                final char pc = pattern[p];
+                if (pc == '*') {
+                    starP = ++ p;
+                    starI = i;
+                    continue;
+                }
+                if (pc == '?' || pc == caseMapping.toLowerCase(s.charAt(i))) {
+                    p ++;
+                    i ++;
+                    continue;
+                }
+            }
+            if (starP == -1) {
+                return false;
+            }
+            // let the last star absorb one more character
+            p = starP;
+            i = ++ starI;
+        }
+        while (p < pEnd && pattern[p] == '*') {
+            p ++;
+        }
+        return p == pEnd;
+    }
+
+    public String toString() {
+        return source;
+    }
+}
@@ -21,6 +21,7 @@ package com.flurg.thimbot;
 import com.flurg.thimbot.event.AccountChangeEvent;
 import com.flurg.thimbot.event.AuthenticationChallengeEvent;
 import com.flurg.thimbot.event.AuthenticationFailedEvent;
+import com.flurg.thimbot.event.BatchEvent;
 import com.flurg.thimbot.event.ChannelActionEvent;
 import com.flurg.thimbot.event.ChannelNoTopicEvent;
 import com.flurg.thimbot.event.ChannelTopicEvent;
@@ -32,12 +33,14 @@ import com.flurg.thimbot.event.CapabilityAckEvent;
 import com.flurg.thimbot.event.CapabilityListEvent;
 import com.flurg.thimbot.event.CapabilityNakEvent;
 import com.flurg.thimbot.event.ChannelJoinEvent;
+import com.flurg.thimbot.event.ChannelKickEvent;
 import com.flurg.thimbot.event.ChannelMessageEvent;
 import com.flurg.thimbot.event.ChannelNoticeEvent;
 import com.flurg.thimbot.event.ChannelPartEvent;
 import com.flurg.thimbot.event.ErrorEvent;
 import com.flurg.thimbot.event.Event;
 import com.flurg.thimbot.event.LoggedOutEvent;
+import com.flurg.thimbot.event.MessageTags;
 import com.flurg.thimbot.event.MOTDEndEvent;
 import com.flurg.thimbot.event.MOTDLineEvent;
 import com.flurg.thimbot.event.NickChangeEvent;
@@ -53,15 +56,20 @@ import com.flurg.thimbot.event.UserAwayEvent;
 import com.flurg.thimbot.event.UserBackEvent;
 import com.flurg.thimbot.event.UserPongEvent;
 import com.flurg.thimbot.raw.EmittableByteArrayOutputStream;
+import com.flurg.thimbot.raw.IRCCommand;
+import com.flurg.thimbot.raw.IRCMessage;
 import com.flurg.thimbot.raw.LineListener;
 import com.flurg.thimbot.raw.LineProtocolConnection;
-import com.flurg.thimbot.util.IRCStringUtil;
+import com.flurg.thimbot.util.Arrays2;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
 * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -71,610 +79,739 @@ class IRCParser implements LineListener {
 
     private static final byte[] NO_BYTES = new byte[0];
 
-    private final StringBuilder b = new StringBuilder();
+    private static final byte[] LS = bytes("LS");
+    private static final byte[] LIST = bytes("LIST");
+    private static final byte[] ACK = bytes("ACK");
+    private static final byte[] NAK = bytes("NAK");
+    private static final byte[] PLUS = bytes("+");
+    private static final byte[] STAR = bytes("*");
+    private static final byte[] CTCP_ACTION = bytes("ACTION");
+    private static final byte[] CTCP_PONG = bytes("PONG");
+    private static final byte[] FAIL = bytes("FAIL");
+
+    // a server which never closes its batches must not be able to exhaust memory
+    private static final int MAX_OPEN_BATCHES = 32;
+    private static final int MAX_BATCH_EVENTS = 1024;
+
+    private final IRCMessage message = new IRCMessage();
     private final EmittableByteArrayOutputStream authBlock = new EmittableByteArrayOutputStream();
+    // open batches in the order they were opened
+    private final Map<String, OpenBatch> openBatches = new LinkedHashMap<>();
+    private final InternTable names;
+    // whether the current line is being timed, and the time spent dispatching its events so far
+    private boolean timing;
+    private long dispatchNanos;
+
+    IRCParser(final InternTable names) {
+        this.names = names;
+    }
 
-    IRCParser() {
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.US_ASCII);
     }
 
     public void handleLine(final ThimBot bot, final LineProtocolConnection connection, final byte[] buffer, final int offs, final int len) {
-        final Input is = new Input(buffer, offs, len);
-        int ch;
-        final String source = parsePrefix(is);
-        final String command = tokenize(is, ' ');
-        switch (command) {
-            case "CAP": {
-                tokenize(is, ' ');
-                final String subCommand = tokenize(is, ' ');
-                switch (subCommand) {
-                    case "LIST": {
-                        // todo active capabilities
-                        break;
+        final Metrics metrics = bot.getMetrics();
+        if (! metrics.isEnabled()) {
+            parseLine(bot, buffer, offs, len);
+            return;
+        }
+        final long start = System.nanoTime();
+        timing = true;
+        dispatchNanos = 0L;
+        try {
+            if (parseLine(bot, buffer, offs, len)) {
+                metrics.recordParseTime(message.getCommand(), System.nanoTime() - start - dispatchNanos);
+            }
+        } finally {
+            timing = false;
+        }
+    }
+
+    private boolean parseLine(final ThimBot bot, final byte[] buffer, final int offs, final int len) {
+        final IRCMessage message = this.message;
+        if (! message.parse(buffer, offs, len)) {
+            return false;
+        }
+        FlightRecording.lineReceived(message.getCommand(), len);
+        final MessageTags tags = MessageTags.of(buffer, message.getTagsOffset(), message.getTagsLength());
+        final int paramCount = message.getParamCount();
+        if (! tags.isEmpty()) {
+            final String label = tags.getLabel();
+            if (label != null) {
+                // a labeled batch is settled when it closes, from the lines it contains
+                if (message.getCommand() != IRCCommand.BATCH || paramCount == 0 || buffer[message.getParamOffset(0)] != '+') {
+                    bot.labeledResponse(label, labeledError(bot, message));
+                }
+            } else if (! openBatches.isEmpty()) {
+                final String reference = tags.getBatch();
+                final OpenBatch batch = reference == null ? null : openBatches.get(reference);
+                if (batch != null && batch.error == null) {
+                    batch.error = labeledError(bot, message);
+                }
+            }
+        }
+        switch (message.getCommand()) {
+            case BATCH: {
+                if (paramCount < 1) break;
+                final int refOffs = message.getParamOffset(0);
+                final int refLen = message.getParamLength(0);
+                if (refLen < 2) break;
+                final String reference = new String(buffer, refOffs + 1, refLen - 1, StandardCharsets.ISO_8859_1);
+                if (buffer[refOffs] == '+') {
+                    if (paramCount < 2) break;
+                    final ArrayList<String> parameters = new ArrayList<>(paramCount - 2);
+                    for (int i = 2; i < paramCount; i ++) {
+                        parameters.add(message.getParam(i, bot.getCharset()));
                     }
-                    case "LS": {
-                        if (is.read() == ':') {
-                            ArrayList<String> list = new ArrayList<>();
-                            String s;
-                            while (! (s = tokenize(is, ' ')).isEmpty()) {
-                                list.add(s);
-                            }
-                            final CapabilityListEvent event = new CapabilityListEvent(bot, list);
-                            bot.dispatch(event);
-                        }
-                        break;
+                    if (openBatches.size() >= MAX_OPEN_BATCHES && ! openBatches.containsKey(reference)) {
+                        // close the oldest batch early
+                        final Iterator<Map.Entry<String, OpenBatch>> iterator = openBatches.entrySet().iterator();
+                        final Map.Entry<String, OpenBatch> eldest = iterator.next();
+                        iterator.remove();
+                        closeBatch(bot, eldest.getKey(), eldest.getValue());
                     }
-                    case "ACK": {
-                        if (is.read() == ':') {
-                            ArrayList<String> list = new ArrayList<>();
-                            String s;
-                            while (! (s = tokenize(is, ' ')).isEmpty()) {
-                                list.add(s);
-                            }
-                            final CapabilityAckEvent event = new CapabilityAckEvent(bot, list);
-                            bot.dispatch(event);
-                            break;
-                        }
+                    openBatches.put(reference, new OpenBatch(tags, message.getParam(1), parameters));
+                } else if (buffer[refOffs] == '-') {
+                    final OpenBatch batch = openBatches.remove(reference);
+                    if (batch != null) {
+                        closeBatch(bot, reference, batch);
                     }
-                    case "NAK": {
-                        final CapabilityNakEvent event = new CapabilityNakEvent(bot);
-                        bot.dispatch(event);
-                        break;
+                }
+                break;
+            }
+            case CAP: {
+                if (paramCount < 2) break;
+                if (message.paramEquals(1, LIST)) {
+                    // todo active capabilities
+                } else if (message.paramEquals(1, LS)) {
+                    if (paramCount > 2) {
+                        final CapabilityListEvent event = new CapabilityListEvent(bot, tags, splitSpaces(message, paramCount - 1));
+                        dispatch(bot, tags, event);
                     }
+                } else if (message.paramEquals(1, ACK)) {
+                    if (paramCount > 2) {
+                        final CapabilityAckEvent event = new CapabilityAckEvent(bot, tags, splitSpaces(message, paramCount - 1));
+                        dispatch(bot, tags, event);
+                    } else {
+                        final CapabilityNakEvent event = new CapabilityNakEvent(bot, tags);
+                        dispatch(bot, tags, event);
+                    }
+                } else if (message.paramEquals(1, NAK)) {
+                    final CapabilityNakEvent event = new CapabilityNakEvent(bot, tags);
+                    dispatch(bot, tags, event);
                 }
                 break;
             }
-            case "ACCOUNT": {
-                if (IRCStringUtil.isUser(source)) {
-                    final AccountChangeEvent event = new AccountChangeEvent(bot, source, tokenize(is, ' '));
-                    bot.dispatch(event);
+            case ACCOUNT: {
+                if (message.hasUserPrefix() && paramCount > 0) {
+                    final String source = userPrefix(message);
+                    final String account = message.getParam(0);
+                    bot.getStateTracker().account(bot.nickOf(source), account.equals("*") ? null : account);
+                    final AccountChangeEvent event = new AccountChangeEvent(bot, tags, source, account);
+                    dispatch(bot, tags, event);
                 }
                 break;
             }
-            case "AUTHENTICATE": {
-                final String base64 = is.getRemaining(bot.getCharset());
-                if (base64.equals("+")) {
-                    final AuthenticationChallengeEvent event = new AuthenticationChallengeEvent(bot, NO_BYTES);
-                    bot.dispatch(event);
-                } else if (base64.length() == 400) {
+            case AUTHENTICATE: {
+                if (paramCount < 1) break;
+                final byte[] buf = message.getBuffer();
+                final int base64Offs = message.getParamOffset(0);
+                final int base64Len = message.getParamLength(0);
+                if (message.paramEquals(0, PLUS)) {
+                    final AuthenticationChallengeEvent event = new AuthenticationChallengeEvent(bot, tags, NO_BYTES);
+                    dispatch(bot, tags, event);
+                } else if (base64Len == 400) {
                     try {
-                        IRCBase64.decode(base64, 0, authBlock);
+                        IRCBase64.decode(buf, base64Offs, base64Len, authBlock);
                     } catch (IOException e) {
                         throw new IllegalStateException();
                     }
                 } else {
                     try {
-                        IRCBase64.decode(base64, 0, authBlock);
+                        IRCBase64.decode(buf, base64Offs, base64Len, authBlock);
                     } catch (IOException e) {
                         throw new IllegalStateException();
                     }
-                    final AuthenticationChallengeEvent event = new AuthenticationChallengeEvent(bot, authBlock.toByteArray());
-                    bot.dispatch(event);
+                    final AuthenticationChallengeEvent event = new AuthenticationChallengeEvent(bot, tags, authBlock.toByteArray());
+                    dispatch(bot, tags, event);
                     authBlock.reset();
                 }
                 break;
             }
-            case "AWAY": {
-                if (IRCStringUtil.isUser(source)) {
-                    if (is.read() == ':') {
-                        final UserAwayEvent event = new UserAwayEvent(bot, source, is.getRemaining(bot.getCharset()));
-                        bot.dispatch(event);
+            case AWAY: {
+                if (message.hasUserPrefix()) {
+                    final String source = userPrefix(message);
+                    bot.getStateTracker().away(bot.nickOf(source), paramCount > 0);
+                    if (paramCount > 0) {
+                        final UserAwayEvent event = new UserAwayEvent(bot, tags, source, message.getParam(0, bot.getCharset()));
+                        dispatch(bot, tags, event);
                     } else {
-                        final UserBackEvent event = new UserBackEvent(bot, source);
-                        bot.dispatch(event);
+                        final UserBackEvent event = new UserBackEvent(bot, tags, source);
+                        dispatch(bot, tags, event);
                     }
                 }
                 break;
             }
-            case "INVITE": {
+            case INVITE: {
                 break;
             }
-            case "JOIN": {
-                if (IRCStringUtil.isUser(source)) {
-                    final ChannelJoinEvent event = new ChannelJoinEvent(bot, source, tokenize(is, ' '));
-                    bot.dispatch(event);
+            case JOIN: {
+                if (message.hasUserPrefix() && paramCount > 0) {
+                    final String source = userPrefix(message);
+                    final String channel = name(message, 0);
+                    // extended-join adds the account name
+                    final String account = paramCount > 1 && ! message.paramEquals(1, STAR) ? message.getParam(1) : null;
+                    bot.getStateTracker().join(channel, source, bot.nickOf(source), account);
+                    final ChannelJoinEvent event = new ChannelJoinEvent(bot, tags, source, channel);
+                    dispatch(bot, tags, event);
                 }
                 break;
             }
-            case "KICK": {
+            case KICK: {
+                if (message.hasPrefix() && paramCount > 1) {
+                    final String source = message.hasUserPrefix() ? userPrefix(message) : message.getPrefix();
+                    final String channel = name(message, 0);
+                    final String target = name(message, 1);
+                    bot.getStateTracker().part(channel, target);
+                    final ChannelKickEvent event = new ChannelKickEvent(bot, tags, source, channel, target, paramCount > 2 ? message.getParam(2, bot.getCharset()) : "");
+                    dispatch(bot, tags, event);
+                }
                 break;
             }
-            case "MODE": {
+            case MODE: {
+                if (paramCount > 1) {
+                    final String target = name(message, 0);
+                    if (bot.getServerSupport().isChannel(target)) {
+                        bot.getStateTracker().mode(target, params(message, 1));
+                    }
+                }
                 break;
             }
-            case "NICK": {
-                if (IRCStringUtil.isUser(source) && is.read() == ':') {
-                    final NickChangeEvent event = new NickChangeEvent(bot, source, tokenize(is, ' '));
-                    bot.dispatch(event);
+            case NICK: {
+                if (message.hasUserPrefix() && paramCount > 0) {
+                    final String source = userPrefix(message);
+                    final String newNick = name(message, 0);
+                    bot.getStateTracker().nick(bot.nickOf(source), newNick);
+                    final NickChangeEvent event = new NickChangeEvent(bot, tags, source, newNick);
+                    dispatch(bot, tags, event);
                 }
                 break;
             }
-            case "NOTICE": {
-                if (IRCStringUtil.isUser(source)) {
-                    is.mark(0);
-                    ch = is.read();
-                    final String target = tokenize(is, ' ');
-                    if (is.read() == ':') {
-                        is.mark(0);
-                        if (is.read() == 1) {
-                            final String subcommand = tokenize(is, ' ');
-                            switch (subcommand) {
-                                case "PONG": {
-                                    final UserPongEvent event = new UserPongEvent(bot, source, tokenize(is, (char) 1));
-                                    bot.dispatch(event);
-                                    break;
-                                }
-                                default: {
-                                    final Event event;
-                                    if (IRCStringUtil.isChannel(target)) {
-                                        event = new ChannelCTCPResponseEvent(bot, source, target, tokenize(is, ' '), tokenize(is, (char) 1));
-                                    } else {
-                                        event = new PrivateCTCPResponseEvent(bot, source, tokenize(is, ' '), tokenize(is, (char) 1));
-                                    }
-                                    bot.dispatch(event);
-                                    break;
-                                }
-                            }
+            case NOTICE: {
+                if (message.hasUserPrefix() && paramCount > 1) {
+                    final String source = userPrefix(message);
+                    final String target = name(message, 0);
+                    final byte[] buf = message.getBuffer();
+                    final int textOffs = message.getParamOffset(1);
+                    final int textEnd = textOffs + message.getParamLength(1);
+                    if (textOffs < textEnd && buf[textOffs] == 1) {
+                        final int cmdEnd = ctcpCommandEnd(buf, textOffs + 1, textEnd);
+                        final int cmdLen = cmdEnd - textOffs - 1;
+                        final String argument = ctcpArgument(buf, cmdEnd, textEnd, bot.getCharset());
+                        if (Arrays2.equals(buf, textOffs + 1, cmdLen, CTCP_PONG)) {
+                            final UserPongEvent event = new UserPongEvent(bot, tags, source, argument);
+                            dispatch(bot, tags, event);
                         } else {
-                            is.reset();
+                            final String subcommand = new String(buf, textOffs + 1, cmdLen, StandardCharsets.ISO_8859_1);
                             final Event event;
-                            if (IRCStringUtil.isChannel(target)) {
-                                event = new ChannelNoticeEvent(bot, source, target, is.getRemaining(bot.getCharset()));
+                            if (bot.getServerSupport().isChannel(target)) {
+                                event = new ChannelCTCPResponseEvent(bot, tags, source, target, subcommand, argument);
                             } else {
-                                event = new PrivateNoticeEvent(bot, source, is.getRemaining(bot.getCharset()));
+                                event = new PrivateCTCPResponseEvent(bot, tags, source, subcommand, argument);
                             }
-                            bot.dispatch(event);
+                            dispatch(bot, tags, event);
                         }
+                    } else {
+                        final Event event;
+                        if (bot.getServerSupport().isChannel(target)) {
+                            event = new ChannelNoticeEvent(bot, tags, source, target, message.getParam(1, bot.getCharset()));
+                        } else {
+                            event = new PrivateNoticeEvent(bot, tags, source, message.getParam(1, bot.getCharset()));
+                        }
+                        dispatch(bot, tags, event);
                     }
                 }
                 break;
             }
-            case "PART": {
-                if (IRCStringUtil.isUser(source)) {
-                    final ChannelPartEvent event = new ChannelPartEvent(bot, source, tokenize(is, ' '), is.read() == ':' ? is.getRemaining(bot.getCharset()) : "");
-                    bot.dispatch(event);
+            case PART: {
+                if (message.hasUserPrefix() && paramCount > 0) {
+                    final String source = userPrefix(message);
+                    final String channel = name(message, 0);
+                    bot.getStateTracker().part(channel, bot.nickOf(source));
+                    final ChannelPartEvent event = new ChannelPartEvent(bot, tags, source, channel, paramCount > 1 ? message.getParam(1, bot.getCharset()) : "");
+                    dispatch(bot, tags, event);
                 }
                 break;
             }
-            case "PING": {
-                is.mark(0);
-                ch = is.read();
-                while (ch != ':' && ch != -1) {
-                    is.reset();
-                    tokenize(is, ' ');
-                    is.mark(0);
-                    ch = is.read();
-                }
-                final ServerPingEvent event = new ServerPingEvent(bot, is.getRemaining(StandardCharsets.ISO_8859_1));
-                bot.dispatch(event);
-                break;
-            }
-            case "PONG": {
-                is.mark(0);
-                ch = is.read();
-                while (ch != ':' && ch != -1) {
-                    is.reset();
-                    tokenize(is, ' ');
-                    is.mark(0);
-                    ch = is.read();
-                }
-                final ServerPongEvent event = new ServerPongEvent(bot, is.getRemaining(StandardCharsets.ISO_8859_1));
-                bot.dispatch(event);
-                break;
-            }
-            case "PRIVMSG": {
-                if (IRCStringUtil.isUser(source)) {
-                    is.mark(0);
-                    final String target = tokenize(is, ' ');
-                    if (is.read() == ':') {
-                        is.mark(0);
-                        if (is.read() == 1) {
-                            final String subcommand = tokenize(is, ' ');
-                            switch (subcommand) {
-                                case "PONG": {
-                                    final UserPongEvent event = new UserPongEvent(bot, source, tokenize(is, (char) 1));
-                                    bot.dispatch(event);
-                                    break;
-                                }
-                                case "ACTION": {
-                                    final Event event;
-                                    if (IRCStringUtil.isChannel(target)) {
-                                        event = new ChannelActionEvent(bot, source, target, tokenize(is, (char) 1));
-                                    } else {
-                                        event = new PrivateActionEvent(bot, source, tokenize(is, (char) 1));
-                                    }
-                                    bot.dispatch(event);
-                                }
-                                default: {
-                                    final Event event;
-                                    if (IRCStringUtil.isChannel(target)) {
-                                        event = new ChannelCTCPCommandEvent(bot, source, target, tokenize(is, ' '), tokenize(is, (char) 1));
-                                    } else {
-                                        event = new PrivateCTCPCommandEvent(bot, source, tokenize(is, ' '), tokenize(is, (char) 1));
-                                    }
-                                    bot.dispatch(event);
-                                    break;
-                                }
+            case PING: {
+                final ServerPingEvent event = new ServerPingEvent(bot, tags, message.getLastParam(StandardCharsets.ISO_8859_1));
+                dispatch(bot, tags, event);
+                break;
+            }
+            case PONG: {
+                final ServerPongEvent event = new ServerPongEvent(bot, tags, message.getLastParam(StandardCharsets.ISO_8859_1));
+                dispatch(bot, tags, event);
+                break;
+            }
+            case PRIVMSG: {
+                if (message.hasUserPrefix() && paramCount > 1) {
+                    final String source = userPrefix(message);
+                    final String target = name(message, 0);
+                    final byte[] buf = message.getBuffer();
+                    final int textOffs = message.getParamOffset(1);
+                    final int textEnd = textOffs + message.getParamLength(1);
+                    if (textOffs < textEnd && buf[textOffs] == 1) {
+                        final int cmdEnd = ctcpCommandEnd(buf, textOffs + 1, textEnd);
+                        final int cmdLen = cmdEnd - textOffs - 1;
+                        final String argument = ctcpArgument(buf, cmdEnd, textEnd, bot.getCharset());
+                        if (Arrays2.equals(buf, textOffs + 1, cmdLen, CTCP_PONG)) {
+                            final UserPongEvent event = new UserPongEvent(bot, tags, source, argument);
+                            dispatch(bot, tags, event);
+                        } else if (Arrays2.equals(buf, textOffs + 1, cmdLen, CTCP_ACTION)) {
+                            final Event event;
+                            if (bot.getServerSupport().isChannel(target)) {
+                                event = new ChannelActionEvent(bot, tags, source, target, argument);
+                            } else {
+                                event = new PrivateActionEvent(bot, tags, source, argument);
                             }
+                            dispatch(bot, tags, event);
                         } else {
-                            is.reset();
+                            final String subcommand = new String(buf, textOffs + 1, cmdLen, StandardCharsets.ISO_8859_1);
                             final Event event;
-                            if (IRCStringUtil.isChannel(target)) {
-                                event = new ChannelMessageEvent(bot, source, target, is.getRemaining(bot.getCharset()));
+                            if (bot.getServerSupport().isChannel(target)) {
+                                event = new ChannelCTCPCommandEvent(bot, tags, source, target, subcommand, argument);
                             } else {
-                                event = new PrivateMessageEvent(bot, source, is.getRemaining(bot.getCharset()));
+                                event = new PrivateCTCPCommandEvent(bot, tags, source, subcommand, argument);
                             }
-                            bot.dispatch(event);
+                            dispatch(bot, tags, event);
+                        }
+                    } else {
+                        final Event event;
+                        if (bot.getServerSupport().isChannel(target)) {
+                            event = new ChannelMessageEvent(bot, tags, source, target, message.getParam(1, bot.getCharset()));
+                        } else {
+                            event = new PrivateMessageEvent(bot, tags, source, message.getParam(1, bot.getCharset()));
                         }
+                        dispatch(bot, tags, event);
                     }
                 }
                 break;
             }
-            case "QUIT": {
-                if (IRCStringUtil.isUser(source)) {
-                    final String reason;
-                    if (is.read() == ':') {
-                        reason = is.getRemaining(bot.getCharset());
-                    } else {
-                        reason = "";
-                    }
-                    final QuitEvent event = new QuitEvent(bot, source, reason);
-                    bot.dispatch(event);
+            case QUIT: {
+                if (message.hasUserPrefix()) {
+                    final String source = userPrefix(message);
+                    final String reason = paramCount > 0 ? message.getParam(0, bot.getCharset()) : "";
+                    bot.getStateTracker().quit(bot.nickOf(source));
+                    final QuitEvent event = new QuitEvent(bot, tags, source, reason);
+                    dispatch(bot, tags, event);
                 }
                 break;
             }
-            case "ERROR": {
-                final ErrorEvent event = new ErrorEvent(bot, is.getRemaining(bot.getCharset()));
-                bot.dispatch(event);
+            case ERROR: {
+                final ErrorEvent event = new ErrorEvent(bot, tags, message.getLastParam(bot.getCharset()));
+                dispatch(bot, tags, event);
                 break;
             }
-            case "TOPIC": {
-                // should only be client to server, ignore
+            case TOPIC: {
+                // a topic change by someone in a channel we are in
+                if (paramCount > 1) {
+                    bot.getStateTracker().topic(name(message, 0), message.getParam(1, bot.getCharset()));
+                }
                 break;
             }
-            case "WALLOPS": {
+            case WALLOPS: {
                 break;
             }
+            case NUMERIC: {
+                handleNumeric(bot, message, tags);
+                break;
+            }
+            default: { // unknown
+                break;
+            }
+        }
+        return true;
+    }
 
-            // Numerics start here
+    /**
+     * Get the error text of a reply, if it is an error reply.
+     */
+    private static String labeledError(final ThimBot bot, final IRCMessage message) {
+        final IRCCommand command = message.getCommand();
+        final boolean error;
+        if (command == IRCCommand.NUMERIC) {
+            error = message.getNumeric() >= 400;
+        } else if (command == IRCCommand.UNKNOWN) {
+            error = Arrays2.equals(message.getBuffer(), message.getCommandOffset(), message.getCommandLength(), FAIL);
+        } else {
+            error = false;
+        }
+        return ! error ? null : message.getParamCount() == 0 ? "" : message.getLastParam(bot.getCharset());
+    }
 
-            case "001": { // welcome
+    private void handleNumeric(final ThimBot bot, final IRCMessage message, final MessageTags tags) {
+        // the first parameter of every numeric reply is our own nick
+        final int paramCount = message.getParamCount();
+        switch (message.getNumeric()) {
+            case 1: { // welcome
                 break;
             }
-            case "002": { // your host is...
+            case 2: { // your host is...
                 break;
             }
-            case "003": { // server created on...
+            case 3: { // server created on...
                 break;
             }
-            case "004": { // server info...
+            case 4: { // server info...
                 break;
             }
-            case "005": { // bounce
+            case 5: { // RPL_ISUPPORT: <nick> <token>[ <token>[...]] :are supported by this server
+                if (paramCount > 2) {
+                    final ArrayList<String> tokens = new ArrayList<>(paramCount - 2);
+                    for (int i = 1; i < paramCount - 1; i ++) {
+                        tokens.add(message.getParam(i));
+                    }
+                    bot.addServerSupport(tokens);
+                }
                 break;
             }
 
-            case "301": { // RPL_AWAY: <nick> :<message>
+            case 301: { // RPL_AWAY: <nick> :<message>
                 break;
             }
-            case "302": { // RPL_USERHOST: <nick>[*]=(+|-)<hostname>
+            case 302: { // RPL_USERHOST: <nick>[*]=(+|-)<hostname>
                 // - away, + present
                 break;
             }
-            case "303": { // RPL_ISON: :<nick> [ <nick>[...]]
+            case 303: { // RPL_ISON: :<nick> [ <nick>[...]]
                 break;
             }
-            case "305": { // RPL_UNAWAY: :<message>
+            case 305: { // RPL_UNAWAY: :<message>
                 // i.e. self "back"
                 break;
             }
-            case "306": { // RPL_NOWAWAY: :<message>
+            case 306: { // RPL_NOWAWAY: :<message>
                 // i.e. self "away"
                 break;
             }
 
-            case "311": { // RPL_WHOISUSER: <nick> <user> <host> * :<real name>
+            case 311: { // RPL_WHOISUSER: <nick> <user> <host> * :<real name>
                 break;
             }
-            case "312": { // RPL_WHOISSERVER: <nick> <server> :<server info>
+            case 312: { // RPL_WHOISSERVER: <nick> <server> :<server info>
                 break;
             }
-            case "313": { // RPL_WHOISOPERATOR: <nick> :is an operator
+            case 313: { // RPL_WHOISOPERATOR: <nick> :is an operator
                 break;
             }
-            case "314": { // RPL_WHOWASUSER: <nick> <user> <host> * :<real name>
+            case 314: { // RPL_WHOWASUSER: <nick> <user> <host> * :<real name>
                 break;
             }
-            case "315": { // RPL_ENDOFWHO: <name> :End of /WHO list
+            case 315: { // RPL_ENDOFWHO: <name> :End of /WHO list
                 break;
             }
 
-            case "317": { // RPL_WHOISIDLE: <nick> <integer> :seconds idle
+            case 317: { // RPL_WHOISIDLE: <nick> <integer> :seconds idle
                 break;
             }
-            case "318": { // RPL_ENDOFWHOIS: <nick> :end of WHOIS list
+            case 318: { // RPL_ENDOFWHOIS: <nick> :end of WHOIS list
                 break;
             }
-            case "319": { // RPL_WHOISCHANNELS: <nick> :[@|+]<channel>[ [@|+]<channel>[...]]
+            case 319: { // RPL_WHOISCHANNELS: <nick> :[@|+]<channel>[ [@|+]<channel>[...]]
                 break;
             }
 
 
-            case "321": { // RPL_LISTSTART: obsolete
+            case 321: { // RPL_LISTSTART: obsolete
                 break;
             }
-            case "322": { // RPL_LIST: <channel> <count> :<topic>
+            case 322: { // RPL_LIST: <channel> <count> :<topic>
                 break;
             }
-            case "323": { // RPL_LISTEND: :End of /LIST
+            case 323: { // RPL_LISTEND: :End of /LIST
                 break;
             }
 
-            case "324": { // RPL_CHANNEL_MODE_IS: <channel> <mode> <mode params>
+            case 324: { // RPL_CHANNEL_MODE_IS: <channel> <mode> <mode params>
+                if (paramCount > 2) {
+                    bot.getStateTracker().mode(name(message, 1), params(message, 2));
+                }
                 break;
             }
-            case "325": { // RPL_UNIQOPIS: <channel> <nickname>
+            case 325: { // RPL_UNIQOPIS: <channel> <nickname>
                 break;
             }
 
-            case "331": { // RPL_NOTOPIC: <channel> :No topic is set
-                final String channel = tokenize(is, ' ');
-                if (IRCStringUtil.isChannel(channel)) {
-                    if (is.read() == ':') {
-                        bot.dispatch(new ChannelNoTopicEvent(bot, channel));
+            case 331: { // RPL_NOTOPIC: <channel> :No topic is set
+                if (paramCount > 1) {
+                    final String channel = name(message, 1);
+                    if (bot.getServerSupport().isChannel(channel)) {
+                        bot.getStateTracker().topic(channel, null);
+                        dispatch(bot, tags, new ChannelNoTopicEvent(bot, tags, channel));
                     }
                 }
                 break;
             }
-            case "332": { // RPL_TOPIC: <channel> :<topic>
-                final String channel = tokenize(is, ' ');
-                if (IRCStringUtil.isChannel(channel)) {
-                    if (is.read() == ':') {
-                        bot.dispatch(new ChannelTopicEvent(bot, channel, is.getRemaining(bot.getCharset())));
+            case 332: { // RPL_TOPIC: <channel> :<topic>
+                if (paramCount > 2) {
+                    final String channel = name(message, 1);
+                    if (bot.getServerSupport().isChannel(channel)) {
+                        final String topic = message.getParam(2, bot.getCharset());
+                        bot.getStateTracker().topic(channel, topic);
+                        dispatch(bot, tags, new ChannelTopicEvent(bot, tags, channel, topic));
                     }
                 }
                 break;
             }
-            case "341": { // RPL_INVITING: <channel> <nick>
+            case 341: { // RPL_INVITING: <channel> <nick>
                 break;
             }
-            case "342": { // RPL_SUMMONING: <user> :Summoning to IRC
+            case 342: { // RPL_SUMMONING: <user> :Summoning to IRC
                 break;
             }
 
-            case "346": { // RPL_INVITELIST: <channel> <mask>
+            case 346: { // RPL_INVITELIST: <channel> <mask>
                 break;
             }
-            case "347": { // RPL_ENDOFINVITELIST: <channel> :End of list
+            case 347: { // RPL_ENDOFINVITELIST: <channel> :End of list
                 break;
             }
 
-            case "348": { // RPL_EXCEPTLIST: <channel> <mask>
+            case 348: { // RPL_EXCEPTLIST: <channel> <mask>
                 break;
             }
-            case "349": { // RPL_ENDOFEXCEPTLIST: <channel> :End of list
+            case 349: { // RPL_ENDOFEXCEPTLIST: <channel> :End of list
                 break;
             }
 
-            case "351": { // RPL_VERSION: <version>.<debuglevel> <server> :<comments>
+            case 351: { // RPL_VERSION: <version>.<debuglevel> <server> :<comments>
                 break;
             }
-            case "352": { // RPL_WHOREPLY: <channel> <user> <host> <server> <nick> (H|G)[*[(@|+)]]
+            case 352: { // RPL_WHOREPLY: <channel> <user> <host> <server> <nick> (H|G)[*[(@|+)]]
+                if (paramCount > 6) {
+                    bot.getStateTracker().who(message.getParam(1), message.getParam(2), message.getParam(3), message.getParam(5), message.getParam(6));
+                }
                 break;
             }
-            case "353": { // RPL_NAMREPLY: (=|*|@) <channel> :[(@\+)nick [(@\+)nick [...]]]
+            case 353: { // RPL_NAMREPLY: (=|*|@) <channel> :[(@\+)nick [(@\+)nick [...]]]
+                if (paramCount > 3) {
+                    bot.getStateTracker().names(name(message, 2), message.getParam(3));
+                }
                 break;
             }
 
-            case "364": { // RPL_LINKS: <mask> <server> :<hopcount> <server info>
+            case 364: { // RPL_LINKS: <mask> <server> :<hopcount> <server info>
                 break;
             }
-            case "365": { // RPL_ENDOFLINKS: <mask> :End of LINKS list
+            case 365: { // RPL_ENDOFLINKS: <mask> :End of LINKS list
                 break;
             }
-            case "366": { // RPL_ENDOFNAMES: <channel> :End names list
+            case 366: { // RPL_ENDOFNAMES: <channel> :End names list
+                if (paramCount > 1) {
+                    bot.getStateTracker().endOfNames(name(message, 1));
+                }
                 break;
             }
-            case "367": { // RPL_BANLIST: <channel> <banmask>
+            case 367: { // RPL_BANLIST: <channel> <banmask>
                 break;
             }
-            case "368": { // RPL_ENDOFBANLIST: <channel> :end of /BAN
+            case 368: { // RPL_ENDOFBANLIST: <channel> :end of /BAN
                 break;
             }
-            case "369": { // RPL_ENDOFWHOWAS: <nick> :end of /WHOWAS
+            case 369: { // RPL_ENDOFWHOWAS: <nick> :end of /WHOWAS
                 break;
             }
 
-            case "371": { // RPL_INFO: :<string>
+            case 371: { // RPL_INFO: :<string>
                 break;
             }
-            case "374": { // RPL_ENDOFINFO: :End of /INFO
+            case 374: { // RPL_ENDOFINFO: :End of /INFO
                 break;
             }
 
-            case "375": { // RPL_MOTDSTART: :- <server> blah MOTD
-                tokenize(is, ' ');
-                if (is.read() == ':') {
-                    final MOTDLineEvent event = new MOTDLineEvent(bot, is.getRemaining(bot.getCharset()));
-                    bot.dispatch(event);
+            case 375: { // RPL_MOTDSTART: :- <server> blah MOTD
+                if (paramCount > 1) {
+                    final MOTDLineEvent event = new MOTDLineEvent(bot, tags, message.getLastParam(bot.getCharset()));
+                    dispatch(bot, tags, event);
                 }
                 break;
             }
-            case "372": { // RPL_MOTD: :- <text>
-                tokenize(is, ' ');
-                if (is.read() == ':') {
-                    final MOTDLineEvent event = new MOTDLineEvent(bot, is.getRemaining(bot.getCharset()));
-                    bot.dispatch(event);
+            case 372: { // RPL_MOTD: :- <text>
+                if (paramCount > 1) {
+                    final MOTDLineEvent event = new MOTDLineEvent(bot, tags, message.getLastParam(bot.getCharset()));
+                    dispatch(bot, tags, event);
                 }
                 break;
             }
-            case "376": { // RPL_ENDOFMOTD: :End of /MOTD
-                tokenize(is, ' ');
-                final MOTDEndEvent event = new MOTDEndEvent(bot);
-                bot.dispatch(event);
+            case 376: { // RPL_ENDOFMOTD: :End of /MOTD
+                final MOTDEndEvent event = new MOTDEndEvent(bot, tags);
+                dispatch(bot, tags, event);
                 break;
             }
 
-            case "670": { // RPL_STARTTLS
+            case 670: { // RPL_STARTTLS
                 // todo
                 // SSLSocketFactory f = ...;
                 // socket = f.createSocket(socket, host, port, true);
                 break;
             }
-            case "900": { // RPL_LOGGEDIN
-                tokenize(is, ' ');
-                if (is.read() == ':') {
-                    bot.dispatch(new LoggedInEvent(bot, is.getRemaining(bot.getCharset())));
-                } else {
-                    bot.dispatch(new LoggedInEvent(bot, ""));
-                }
+            case 900: { // RPL_LOGGEDIN
+                dispatch(bot, tags, new LoggedInEvent(bot, tags, paramCount > 1 ? message.getLastParam(bot.getCharset()) : ""));
                 break;
             }
-            case "901": { // RPL_LOGGEDOUT
-                tokenize(is, ' ');
-                if (is.read() == ':') {
-                    bot.dispatch(new LoggedOutEvent(bot, is.getRemaining(bot.getCharset())));
-                } else {
-                    bot.dispatch(new LoggedOutEvent(bot, ""));
-                }
+            case 901: { // RPL_LOGGEDOUT
+                dispatch(bot, tags, new LoggedOutEvent(bot, tags, paramCount > 1 ? message.getLastParam(bot.getCharset()) : ""));
                 break;
             }
-            case "462": // cannot reregister?
-            case "902": // ERR_NICKLOCKED
-            case "904": // ERR_SASLFAIL
-            case "905": // ERR_SASLTOOLONG
-            case "906": // ERR_SASLABORTED
-            case "907": { // ERR_SASLALREADY
-                tokenize(is, ' ');
-                if (is.read() == ':') {
-                    bot.dispatch(new AuthenticationFailedEvent(bot, is.getRemaining(bot.getCharset())));
-                } else {
-                    bot.dispatch(new AuthenticationFailedEvent(bot, ""));
-                }
+            case 462: // cannot reregister?
+            case 902: // ERR_NICKLOCKED
+            case 904: // ERR_SASLFAIL
+            case 905: // ERR_SASLTOOLONG
+            case 906: // ERR_SASLABORTED
+            case 907: { // ERR_SASLALREADY
+                dispatch(bot, tags, new AuthenticationFailedEvent(bot, tags, paramCount > 1 ? message.getLastParam(bot.getCharset()) : ""));
                 break;
             }
-            case "903": { // RPL_SASLSUCCESS
-                tokenize(is, ' ');
-                if (is.read() == ':') {
-                    bot.dispatch(new LoggedInEvent(bot, is.getRemaining(bot.getCharset())));
-                } else {
-                    bot.dispatch(new LoggedInEvent(bot, ""));
-                }
+            case 903: { // RPL_SASLSUCCESS
+                dispatch(bot, tags, new LoggedInEvent(bot, tags, paramCount > 1 ? message.getLastParam(bot.getCharset()) : ""));
                 break;
             }
 
             default: { // unknown
                 break;
             }
-
         }
     }
 
-    private String tokenize(final ByteArrayInputStream is, final char delim1) {
-        final StringBuilder b = this.b;
-        b.setLength(0);
-        int ch;
-        ch = is.read();
-        while (ch != delim1 && ch != -1) {
-            b.append((char) ch);
-            ch = is.read();
+    private void dispatch(final ThimBot bot, final MessageTags tags, final Event event) {
+        if (! openBatches.isEmpty()) {
+            final String reference = tags.getBatch();
+            if (reference != null) {
+                final OpenBatch batch = openBatches.get(reference);
+                if (batch != null) {
+                    batch.events.add(event);
+                    if (batch.events.size() >= MAX_BATCH_EVENTS) {
+                        // pass on what we have so far; the batch stays open for the rest of its members
+                        flushBatch(bot, reference, batch);
+                        batch.events.clear();
+                    }
+                    return;
+                }
+            }
         }
-        try {
-            return b.toString();
-        } finally {
-            b.setLength(0);
+        dispatchInbound(bot, event);
+        if (event instanceof BatchEvent) {
+            // then the members one at a time, to the handlers which did not just see them in the batch
+            dispatchMembers(bot, (BatchEvent) event);
         }
     }
 
-    @SuppressWarnings("unused")
-    private String tokenize(final ByteArrayInputStream is, final char delim1, final char delim2) {
-        final StringBuilder b = this.b;
-        b.setLength(0);
-        int ch;
-        ch = is.read();
-        while (ch != delim1 && ch != delim2 && ch != -1) {
-            b.append((char) ch);
-            ch = is.read();
-        }
-        try {
-            return b.toString();
-        } finally {
-            b.setLength(0);
+    private void dispatchMembers(final ThimBot bot, final BatchEvent batchEvent) {
+        for (Event member : batchEvent.getEvents()) {
+            if (member instanceof BatchEvent) {
+                dispatchMembers(bot, (BatchEvent) member);
+            } else {
+                dispatchInbound(bot, member);
+            }
         }
     }
 
-    private String parsePrefix(final ByteArrayInputStream is) {
-        final StringBuilder b = this.b;
-        b.setLength(0);
-        int ch;
-        is.mark(0);
-        ch = is.read();
-        if (ch != ':') {
-            is.reset();
-            return "";
+    private void dispatchInbound(final ThimBot bot, final Event event) {
+        if (timing) {
+            final long start = System.nanoTime();
+            try {
+                bot.dispatchInbound(event);
+            } finally {
+                dispatchNanos += System.nanoTime() - start;
+            }
+        } else {
+            bot.dispatchInbound(event);
         }
-        ch = is.read();
-        while (ch != ' ' && ch != -1) {
-            b.append((char) ch);
-            if (ch == '!') {
-                ch = is.read();
-                while (ch != ' ' && ch != -1) {
-                    b.append((char) ch);
-                    if (ch == '@') {
-                        ch = is.read();
-                        while (ch != ' ' && ch != -1) {
-                            b.append((char) ch);
-                            ch = is.read();
-                        }
-                        final String user = b.toString();
-                        b.setLength(0);
-                        return user;
-                    } else {
-                        ch = is.read();
-                    }
-                }
-                break;
-            } else {
-                ch = is.read();
+    }
+
+    private void closeBatch(final ThimBot bot, final String reference, final OpenBatch batch) {
+        if (batch.error != null) {
+            // an error in a nested batch is an error in the enclosing one
+            final String outerReference = batch.tags.getBatch();
+            final OpenBatch outer = outerReference == null ? null : openBatches.get(outerReference);
+            if (outer != null && outer.error == null) {
+                outer.error = batch.error;
             }
         }
-        b.setLength(0);
-        return "";
+        final String label = batch.tags.getLabel();
+        if (label != null) {
+            bot.labeledResponse(label, batch.error);
+        }
+        flushBatch(bot, reference, batch);
     }
 
-    public void terminated(final ThimBot bot, final LineProtocolConnection connection) {
-        bot.terminated(connection);
+    private void flushBatch(final ThimBot bot, final String reference, final OpenBatch batch) {
+        // a nested batch is collected by its enclosing batch, via the batch tag of its opening line
+        dispatch(bot, batch.tags, new BatchEvent(bot, batch.tags, reference, batch.type, batch.parameters, batch.events));
     }
 
-    static final class Input extends ByteArrayInputStream {
+    private String userPrefix(final IRCMessage message) {
+        return names.internPrefix(message.getBuffer(), message.getPrefixOffset(), message.getPrefixLength());
+    }
 
-        Input(final byte[] buf) {
-            super(buf);
-        }
+    private String name(final IRCMessage message, final int index) {
+        return names.intern(message.getBuffer(), message.getParamOffset(index), message.getParamLength(index));
+    }
 
-        Input(final byte[] buf, final int offset, final int length) {
-            super(buf, offset, length);
+    private static ArrayList<String> params(final IRCMessage message, final int from) {
+        final int paramCount = message.getParamCount();
+        final ArrayList<String> list = new ArrayList<>(paramCount - from);
+        for (int i = from; i < paramCount; i ++) {
+            list.add(message.getParam(i));
         }
+        return list;
+    }
 
-        public byte[] getBuf() {
-            return buf;
+    private static ArrayList<String> splitSpaces(final IRCMessage message, final int index) {
+        final byte[] buf = message.getBuffer();
+        final int offs = message.getParamOffset(index);
+        final int end = offs + message.getParamLength(index);
+        final ArrayList<String> list = new ArrayList<>();
+        int s = offs;
+        for (int i = offs; i <= end; i ++) {
+            if (i == end || buf[i] == ' ') {
+                if (i > s) {
+                    list.add(new String(buf, s, i - s, StandardCharsets.ISO_8859_1));
+                }
+                s = i + 1;
+            }
         }
+        return list;
+    }
 
-        public int getCount() {
-            return count;
-        }
+    private static int ctcpCommandEnd(final byte[] buf, int i, final int end) {
+        while (i < end && buf[i] != ' ' && buf[i] != 1) i++;
+        return i;
+    }
 
-        public int getMark() {
-            return mark;
-        }
+    private static String ctcpArgument(final byte[] buf, int i, int end, final Charset charset) {
+        if (i < end && buf[i] == ' ') i++;
+        if (end > i && buf[end - 1] == 1) end--;
+        return i >= end ? "" : new String(buf, i, end - i, charset);
+    }
 
-        public int getPos() {
-            return pos;
-        }
+    public void terminated(final ThimBot bot, final LineProtocolConnection connection) {
+        bot.terminated(connection);
+    }
 
-        public String getRemaining(Charset charset) {
-            final int length = count - pos;
-            if (length == 0) return "";
-            return new String(buf, pos, length, charset);
+    static final class OpenBatch {
+        final MessageTags tags;
+        final String type;
+        final List<String> parameters;
+        final ArrayList<Event> events = new ArrayList<>();
+        // the text of the first error reply in the batch, if any
+        String error;
+
+        OpenBatch(final MessageTags tags, final String type, final List<String> parameters) {
+            this.tags = tags;
+            this.type = type;
+            this.parameters = parameters;
         }
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+/**
+ * A user who shares at least one channel with the bot.  There is one instance per user for as long as the user is
+ * visible, so instances may be compared by identity; the fields are kept up to date as the user changes nick, goes
+ * away, and so on.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class IRCUser {
+    private final int id;
+    private volatile String nick;
+    private volatile String user;
+    private volatile String host;
+    private volatile String account;
+    private volatile boolean away;
+
+    // tracker only
+    int channelCount;
+
+    IRCUser(final int id, final String nick) {
+        this.id = id;
+        this.nick = nick;
+    }
+
+    /**
+     * Get the small integer which identifies this user while it is visible.  Identifiers are reused once a user is no
+     * longer visible.
+     *
+     * @return the identifier
+     */
+    public int getId() {
+        return id;
+    }
+
+    public String getNick() {
+        return nick;
+    }
+
+    /**
+     * Get the user name (ident) of this user.
+     *
+     * @return the user name, or {@code null} if it is not yet known
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Get the host name of this user.
+     *
+     * @return the host name, or {@code null} if it is not yet known
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Get the services account of this user.
+     *
+     * @return the account name, or {@code null} if the user is not logged in or it is not known
+     */
+    public String getAccount() {
+        return account;
+    }
+
+    public boolean isAway() {
+        return away;
+    }
+
+    void setNick(final String nick) {
+        this.nick = nick;
+    }
+
+    void setUserHost(final String user, final String host) {
+        if (user != null && ! user.equals(this.user)) this.user = user;
+        if (host != null && ! host.equals(this.host)) this.host = host;
+    }
+
+    void setAccount(final String account) {
+        this.account = account;
+    }
+
+    void setAway(final boolean away) {
+        this.away = away;
+    }
+
+    public String toString() {
+        final String user = this.user;
+        return user == null ? nick : nick + "!" + user + "@" + host;
+    }
+}
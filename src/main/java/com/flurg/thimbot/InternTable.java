@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.nio.charset.StandardCharsets;
+
+import com.flurg.thimbot.util.Arrays2;
+import com.flurg.thimbot.util.IRCStringUtil;
+
+/**
+ * A bounded table of canonical string instances for the nicks, channel names and user prefixes seen on one
+ * connection, so that the parser can produce them from the line buffer without allocating, and so that most name
+ * comparisons succeed on identity.  Names are decoded as ISO-8859-1, like {@link com.flurg.thimbot.raw.IRCMessage#getParam(int)}.
+ * <p>
+ * The table is a direct-mapped cache: a name which collides with another replaces it.  Names are stored with their
+ * exact spelling, so that a case-only nick change is seen; use the connection's {@link CaseMapping} to compare names.
+ * <p>
+ * Only one thread may intern names; any thread may call {@link #nickOf(String)}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class InternTable {
+
+    private final Entry[] entries;
+    private final int mask;
+
+    InternTable(final int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two");
+        }
+        entries = new Entry[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Get the canonical instance of a name.
+     *
+     * @param buf the buffer
+     * @param offs the offset of the name
+     * @param len the length of the name
+     * @return the canonical instance
+     */
+    String intern(final byte[] buf, final int offs, final int len) {
+        return lookup(buf, offs, len, false).string;
+    }
+
+    /**
+     * Get the canonical instance of a {@code nick!user@host} prefix.  The nick of the prefix is interned as well, and
+     * may be had from {@link #nickOf(String)}.
+     *
+     * @param buf the buffer
+     * @param offs the offset of the prefix
+     * @param len the length of the prefix
+     * @return the canonical instance
+     */
+    String internPrefix(final byte[] buf, final int offs, final int len) {
+        return lookup(buf, offs, len, true).string;
+    }
+
+    /**
+     * Get the canonical instance of a name.
+     *
+     * @param name the name
+     * @return the canonical instance
+     */
+    String intern(final String name) {
+        final int hash = name.hashCode();
+        final int idx = spread(hash) & mask;
+        final Entry entry = entries[idx];
+        if (entry != null && entry.hash == hash && entry.string.equals(name)) {
+            return entry.string;
+        }
+        entries[idx] = new Entry(name.getBytes(StandardCharsets.ISO_8859_1), hash, name, null);
+        return name;
+    }
+
+    /**
+     * Get the nick of a user prefix.  If the prefix is a canonical instance, its canonical nick is returned without
+     * allocating.
+     *
+     * @param source the user prefix
+     * @return the nick
+     */
+    String nickOf(final String source) {
+        final Entry entry = entries[spread(source.hashCode()) & mask];
+        if (entry != null && entry.string == source && entry.nick != null) {
+            return entry.nick;
+        }
+        return IRCStringUtil.nickOf(source);
+    }
+
+    private Entry lookup(final byte[] buf, final int offs, final int len, final boolean prefix) {
+        // the same as String.hashCode() of the ISO-8859-1 decoded string
+        int hash = 0;
+        for (int i = 0; i < len; i ++) {
+            hash = 31 * hash + (buf[offs + i] & 0xff);
+        }
+        final int idx = spread(hash) & mask;
+        Entry entry = entries[idx];
+        if (entry != null && entry.hash == hash && Arrays2.equals(buf, offs, len, entry.bytes) && (! prefix || entry.nick != null)) {
+            return entry;
+        }
+        final byte[] bytes = new byte[len];
+        System.arraycopy(buf, offs, bytes, 0, len);
+        final String string = new String(bytes, StandardCharsets.ISO_8859_1);
+        final String nick = prefix ? intern(IRCStringUtil.nickOf(string)) : null;
+        entry = new Entry(bytes, hash, string, nick);
+        entries[idx] = entry;
+        return entry;
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ hash >>> 16;
+    }
+
+    static final class Entry {
+        final byte[] bytes;
+        final int hash;
+        final String string;
+        final String nick;
+
+        Entry(final byte[] bytes, final int hash, final String string, final String nick) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.string = string;
+            this.nick = nick;
+        }
+    }
+}
@@ -21,42 +21,103 @@ package com.flurg.thimbot;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * An IRC user mask of the form {@code nick!user@host}, where each part may contain the wildcards {@code *} and
+ * {@code ?}.  A mask without {@code !} matches any nick, and a mask without {@code @} matches any user name.  Names are
+ * compared using a {@link CaseMapping}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
 public final class Mask {
-    private static final Pattern ALL = Pattern.compile(".*");
-
-    private final Pattern nickMask;
-    private final Pattern nameMask;
-    private final Pattern hostMask;
     private static final Pattern MASK_CHARS = Pattern.compile("(\\*)|(\\?)|[^*?]+");
 
+    private final String mask;
+    private final CaseMapping caseMapping;
+    private final Glob nickMask;
+    private final Glob nameMask;
+    private final Glob hostMask;
+
+    /**
+     * Construct a new instance which uses the RFC 1459 case mapping.
+     *
+     * @param mask the mask
+     */
     public Mask(String mask) {
+        this(mask, CaseMapping.RFC1459);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param mask the mask
+     * @param caseMapping the case mapping to compare names with
+     */
+    public Mask(String mask, CaseMapping caseMapping) {
+        this.mask = mask;
+        this.caseMapping = caseMapping;
         final int nickSep = mask.indexOf('!');
         final int hostSep = mask.indexOf('@', nickSep + 1);
         if (nickSep == -1) {
-            nickMask = ALL;
+            nickMask = new Glob("*", caseMapping);
         } else {
-            nickMask = maskToPattern(mask.substring(0, nickSep));
+            nickMask = new Glob(mask.substring(0, nickSep), caseMapping);
         }
         if (hostSep == -1) {
-            nameMask = ALL;
-            hostMask = maskToPattern(mask.substring(nickSep + 1));
+            nameMask = new Glob("*", caseMapping);
+            hostMask = new Glob(mask.substring(nickSep + 1), caseMapping);
         } else {
-            nameMask = maskToPattern(mask.substring(nickSep + 1, hostSep));
-            hostMask = maskToPattern(mask.substring(hostSep + 1));
+            nameMask = new Glob(mask.substring(nickSep + 1, hostSep), caseMapping);
+            hostMask = new Glob(mask.substring(hostSep + 1), caseMapping);
         }
     }
 
     public boolean matches(String nick, String login, String hostName) {
-        if (! nickMask.matcher(nick).matches()) {
-            return false;
-        }
-        if (! nameMask.matcher(login).matches()) {
-            return false;
-        }
-        if (! hostMask.matcher(hostName).matches()) {
-            return false;
-        }
-        return true;
+        return nickMask.matches(nick) && nameMask.matches(login) && hostMask.matches(hostName);
+    }
+
+    /**
+     * Determine whether this mask matches a user prefix, without splitting it into strings.
+     *
+     * @param prefix the prefix, of the form {@code nick!user@host}
+     * @return {@code true} if the mask matches
+     */
+    public boolean matches(String prefix) {
+        final int length = prefix.length();
+        final int nickEnd = prefix.indexOf('!');
+        final int userEnd = prefix.indexOf('@', nickEnd + 1);
+        final int n = nickEnd == -1 ? (userEnd == -1 ? length : userEnd) : nickEnd;
+        final int u = nickEnd == -1 ? n : userEnd == -1 ? length : userEnd;
+        return nickMask.matches(prefix, 0, n)
+            && nameMask.matches(prefix, Math.min(n + 1, u), u)
+            && hostMask.matches(prefix, Math.min(u + 1, length), length);
+    }
+
+    public String getMask() {
+        return mask;
+    }
+
+    public CaseMapping getCaseMapping() {
+        return caseMapping;
+    }
+
+    Glob getNickMask() {
+        return nickMask;
+    }
+
+    Glob getHostMask() {
+        return hostMask;
+    }
+
+    public boolean equals(final Object obj) {
+        return obj instanceof Mask && mask.equals(((Mask) obj).mask) && caseMapping == ((Mask) obj).caseMapping;
+    }
+
+    public int hashCode() {
+        return mask.hashCode();
+    }
+
+    public String toString() {
+        return mask;
     }
 
     public static Pattern maskToPattern(String mask) {
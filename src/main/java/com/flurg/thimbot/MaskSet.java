@@ -0,0 +1,335 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of {@link Mask}s which can tell which of its members match a user, without testing each of them.
+ * <p>
+ * Masks are indexed by the literal part of their host: literal hosts by exact value, hosts like {@code *.example.com}
+ * in a trie of reversed suffixes, and hosts like {@code 10.0.*} in a trie of prefixes.  Masks whose host begins and
+ * ends with a wildcard are indexed by nick if it is literal, and are otherwise tested one by one.  Every candidate found
+ * in the index is checked against the full mask.
+ * <p>
+ * Lookups do not lock; changes rebuild the index and are expected to be infrequent.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class MaskSet {
+    private static final Mask[] NO_MASKS = new Mask[0];
+
+    private final CaseMapping caseMapping;
+    private final Set<Mask> masks = new LinkedHashSet<Mask>();
+    private volatile Index index;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param caseMapping the case mapping of the masks in this set
+     */
+    public MaskSet(final CaseMapping caseMapping) {
+        this.caseMapping = caseMapping;
+        index = new Index(caseMapping, NO_MASKS);
+    }
+
+    public CaseMapping getCaseMapping() {
+        return caseMapping;
+    }
+
+    /**
+     * Add a mask to this set.
+     *
+     * @param mask the mask, which is parsed with this set's case mapping
+     * @return {@code true} if the mask was added, {@code false} if it was already present
+     */
+    public boolean add(String mask) {
+        return add(new Mask(mask, caseMapping));
+    }
+
+    public boolean add(Mask mask) {
+        return addAll(Collections.singleton(mask));
+    }
+
+    public boolean addAll(Collection<Mask> masks) {
+        synchronized (this.masks) {
+            boolean changed = false;
+            for (Mask mask : masks) {
+                if (mask.getCaseMapping() != caseMapping) {
+                    mask = new Mask(mask.getMask(), caseMapping);
+                }
+                changed |= this.masks.add(mask);
+            }
+            if (changed) rebuild();
+            return changed;
+        }
+    }
+
+    public boolean remove(String mask) {
+        return remove(new Mask(mask, caseMapping));
+    }
+
+    public boolean remove(Mask mask) {
+        synchronized (masks) {
+            if (mask.getCaseMapping() != caseMapping) {
+                mask = new Mask(mask.getMask(), caseMapping);
+            }
+            if (masks.remove(mask)) {
+                rebuild();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public void clear() {
+        synchronized (masks) {
+            masks.clear();
+            rebuild();
+        }
+    }
+
+    public int size() {
+        return index.masks.length;
+    }
+
+    public List<Mask> getMasks() {
+        return Collections.unmodifiableList(Arrays.asList(index.masks));
+    }
+
+    private void rebuild() {
+        index = new Index(caseMapping, masks.toArray(NO_MASKS));
+    }
+
+    /**
+     * Get all the masks in this set which match the given user.
+     *
+     * @param nick the nick
+     * @param user the user name
+     * @param host the host name
+     * @return the matching masks, in no particular order
+     */
+    public List<Mask> getMatches(String nick, String user, String host) {
+        final List<Mask> list = new ArrayList<Mask>();
+        index.find(nick, user, host, list);
+        return list;
+    }
+
+    /**
+     * Get all the masks in this set which match the given user prefix.
+     *
+     * @param prefix the prefix, of the form {@code nick!user@host}
+     * @return the matching masks, in no particular order
+     */
+    public List<Mask> getMatches(String prefix) {
+        return getMatches(nickOf(prefix), userOf(prefix), hostOf(prefix));
+    }
+
+    /**
+     * Determine whether any mask in this set matches the given user.
+     *
+     * @param nick the nick
+     * @param user the user name
+     * @param host the host name
+     * @return {@code true} if some mask matches
+     */
+    public boolean matchesAny(String nick, String user, String host) {
+        return index.find(nick, user, host, null);
+    }
+
+    public boolean matchesAny(String prefix) {
+        return matchesAny(nickOf(prefix), userOf(prefix), hostOf(prefix));
+    }
+
+    private static String nickOf(String prefix) {
+        final int idx = prefix.indexOf('!');
+        return idx == -1 ? prefix : prefix.substring(0, idx);
+    }
+
+    private static String userOf(String prefix) {
+        final int idx = prefix.indexOf('!');
+        final int end = prefix.indexOf('@', idx + 1);
+        return idx == -1 ? "" : end == -1 ? prefix.substring(idx + 1) : prefix.substring(idx + 1, end);
+    }
+
+    private static String hostOf(String prefix) {
+        final int idx = prefix.indexOf('@', prefix.indexOf('!') + 1);
+        return idx == -1 ? "" : prefix.substring(idx + 1);
+    }
+
+    public String toString() {
+        return Arrays.toString(index.masks);
+    }
+
+    static final class Index {
+        final CaseMapping caseMapping;
+        final Mask[] masks;
+        final Map<String, Mask[]> byHost;
+        final Map<String, Mask[]> byNick;
+        final Node suffixes = new Node();
+        final Node prefixes = new Node();
+        final Mask[] wild;
+
+        Index(final CaseMapping caseMapping, final Mask[] masks) {
+            this.caseMapping = caseMapping;
+            this.masks = masks;
+            final Map<String, Mask[]> byHost = new HashMap<String, Mask[]>();
+            final Map<String, Mask[]> byNick = new HashMap<String, Mask[]>();
+            final List<Mask> wild = new ArrayList<Mask>();
+            for (Mask mask : masks) {
+                final Glob host = mask.getHostMask();
+                final Glob nick = mask.getNickMask();
+                if (host.isLiteral()) {
+                    put(byHost, host.getLiteralPrefix(), mask);
+                } else {
+                    final String prefix = host.getLiteralPrefix();
+                    final String suffix = host.getLiteralSuffix();
+                    if (suffix.length() > 0 && suffix.length() >= prefix.length()) {
+                        Node node = suffixes;
+                        for (int i = suffix.length() - 1; i >= 0; i --) {
+                            node = node.child(suffix.charAt(i));
+                        }
+                        node.add(mask);
+                    } else if (prefix.length() > 0) {
+                        Node node = prefixes;
+                        for (int i = 0; i < prefix.length(); i ++) {
+                            node = node.child(prefix.charAt(i));
+                        }
+                        node.add(mask);
+                    } else if (nick.isLiteral()) {
+                        put(byNick, nick.getLiteralPrefix(), mask);
+                    } else {
+                        wild.add(mask);
+                    }
+                }
+            }
+            this.byHost = byHost;
+            this.byNick = byNick;
+            this.wild = wild.toArray(NO_MASKS);
+        }
+
+        private static void put(Map<String, Mask[]> map, String key, Mask mask) {
+            final Mask[] old = map.get(key);
+            if (old == null) {
+                map.put(key, new Mask[] { mask });
+            } else {
+                final Mask[] array = Arrays.copyOf(old, old.length + 1);
+                array[old.length] = mask;
+                map.put(key, array);
+            }
+        }
+
+        /**
+         * Find the matching masks.
+         *
+         * @param list the list to add matches to, or {@code null} to stop at the first match
+         * @return {@code true} if any mask matched
+         */
+        boolean find(String nick, String user, String host, List<Mask> list) {
+            if (masks.length == 0) {
+                return false;
+            }
+            final CaseMapping caseMapping = this.caseMapping;
+            boolean found = false;
+            if (! byHost.isEmpty() && check(byHost.get(caseMapping.toLowerCase(host)), nick, user, host, list)) {
+                if (list == null) return true;
+                found = true;
+            }
+            if (! byNick.isEmpty() && check(byNick.get(caseMapping.toLowerCase(nick)), nick, user, host, list)) {
+                if (list == null) return true;
+                found = true;
+            }
+            Node node = suffixes;
+            for (int i = host.length() - 1; i >= 0 && node != null; i --) {
+                node = node.get(caseMapping.toLowerCase(host.charAt(i)));
+                if (node != null && check(node.masks, nick, user, host, list)) {
+                    if (list == null) return true;
+                    found = true;
+                }
+            }
+            node = prefixes;
+            for (int i = 0; i < host.length() && node != null; i ++) {
+                node = node.get(caseMapping.toLowerCase(host.charAt(i)));
+                if (node != null && check(node.masks, nick, user, host, list)) {
+                    if (list == null) return true;
+                    found = true;
+                }
+            }
+            return check(wild, nick, user, host, list) || found;
+        }
+
+        private static boolean check(Mask[] masks, String nick, String user, String host, List<Mask> list) {
+            if (masks == null) {
+                return false;
+            }
+            boolean found = false;
+            for (Mask mask : masks) {
+                if (mask.matches(nick, user, host)) {
+                    if (list == null) return true;
+                    list.add(mask);
+                    found = true;
+                }
+            }
+            return found;
+        }
+    }
+
+    static final class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        Mask[] masks;
+
+        Node get(char c) {
+            final char[] keys = this.keys;
+            for (int i = 0; i < keys.length; i ++) {
+                if (keys[i] == c) return children[i];
+            }
+            return null;
+        }
+
+        Node child(char c) {
+            Node node = get(c);
+            if (node == null) {
+                final int length = keys.length;
+                keys = Arrays.copyOf(keys, length + 1);
+                children = Arrays.copyOf(children, length + 1);
+                keys[length] = c;
+                children[length] = node = new Node();
+            }
+            return node;
+        }
+
+        void add(Mask mask) {
+            if (masks == null) {
+                masks = new Mask[] { mask };
+            } else {
+                masks = Arrays.copyOf(masks, masks.length + 1);
+                masks[masks.length - 1] = mask;
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.flurg.thimbot.event.Event;
+import com.flurg.thimbot.event.EventHandler;
+import com.flurg.thimbot.raw.IRCCommand;
+import com.flurg.thimbot.util.LatencyHistogram;
+
+/**
+ * Counters and latency histograms for one bot.  Recording does not allocate once a histogram for the command, event
+ * type or handler type in question exists, so metrics may be left on in production; they can also be turned off, in
+ * which case nothing is timed at all.
+ * <p>
+ * Dispatch times are kept per event type, measured from the start to the end of the chain.  Handler times are kept
+ * per handler type, and exclude the time spent in the handlers which follow in the chain.  Parse times are kept per
+ * command, and exclude the time spent dispatching the events which result.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class Metrics {
+    private final ThimBot bot;
+    private volatile boolean enabled = true;
+
+    private final LongAdder inboundLines = new LongAdder();
+    private final LongAdder inboundBytes = new LongAdder();
+    private final LongAdder outboundLines = new LongAdder();
+    private final LongAdder outboundBytes = new LongAdder();
+    private final LongAdder windowStalls = new LongAdder();
+    private final LatencyHistogram windowStallTime = new LatencyHistogram();
+    private final LatencyHistogram queueTime = new LatencyHistogram();
+    private final LatencyHistogram ackTime = new LatencyHistogram();
+    private final AtomicReferenceArray<LatencyHistogram> parseTimes = new AtomicReferenceArray<>(IRCCommand.values().length);
+    // for reporting; the class values are for recording
+    private final Map<String, LatencyHistogram> eventTimesByName = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> handlerTimesByName = new ConcurrentSkipListMap<>();
+    private final ClassValue<LatencyHistogram> eventTimes = new ClassValue<LatencyHistogram>() {
+        protected LatencyHistogram computeValue(final Class<?> type) {
+            // two loaders may define classes of the same name; they share a histogram
+            return eventTimesByName.computeIfAbsent(type.getName(), name -> new LatencyHistogram());
+        }
+    };
+    private final ClassValue<LatencyHistogram> handlerTimes = new ClassValue<LatencyHistogram>() {
+        protected LatencyHistogram computeValue(final Class<?> type) {
+            // two loaders may define classes of the same name; they share a histogram
+            return handlerTimesByName.computeIfAbsent(type.getName(), name -> new LatencyHistogram());
+        }
+    };
+
+    Metrics(final ThimBot bot) {
+        this.bot = bot;
+    }
+
+    /**
+     * Determine whether metrics are being recorded.
+     *
+     * @return {@code true} if metrics are recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // recording
+
+    public void recordInboundLine(final int bytes) {
+        inboundLines.increment();
+        inboundBytes.add(bytes);
+    }
+
+    public void recordOutboundLine(final int bytes) {
+        outboundLines.increment();
+        outboundBytes.add(bytes);
+    }
+
+    public void recordParseTime(final IRCCommand command, final long nanos) {
+        getParseTime(command).record(nanos);
+    }
+
+    public void recordDispatchTime(final Class<? extends Event> eventType, final long nanos) {
+        eventTimes.get(eventType).record(nanos);
+    }
+
+    public void recordHandlerTime(final Class<? extends EventHandler> handlerType, final long nanos) {
+        handlerTimes.get(handlerType).record(nanos);
+    }
+
+    public void recordQueueTime(final long nanos) {
+        queueTime.record(nanos);
+    }
+
+    public void recordWindowStall(final long nanos) {
+        windowStalls.increment();
+        windowStallTime.record(nanos);
+    }
+
+    public void recordAckTime(final long nanos) {
+        ackTime.record(nanos);
+    }
+
+    // reading
+
+    public long getInboundLines() {
+        return inboundLines.sum();
+    }
+
+    public long getInboundBytes() {
+        return inboundBytes.sum();
+    }
+
+    public long getOutboundLines() {
+        return outboundLines.sum();
+    }
+
+    public long getOutboundBytes() {
+        return outboundBytes.sum();
+    }
+
+    /**
+     * Get the time taken to parse lines of the given command, not counting the dispatch of the resulting events.
+     *
+     * @param command the command
+     * @return the histogram
+     */
+    public LatencyHistogram getParseTime(final IRCCommand command) {
+        final int ordinal = command.ordinal();
+        LatencyHistogram histogram = parseTimes.get(ordinal);
+        if (histogram == null) {
+            parseTimes.compareAndSet(ordinal, null, new LatencyHistogram());
+            histogram = parseTimes.get(ordinal);
+        }
+        return histogram;
+    }
+
+    /**
+     * Get the time taken to pass events of the given type through the handler chain.
+     *
+     * @param eventType the event type
+     * @return the histogram
+     */
+    public LatencyHistogram getDispatchTime(final Class<? extends Event> eventType) {
+        return eventTimes.get(eventType);
+    }
+
+    /**
+     * Get the time spent in handlers of the given type, not counting the handlers they pass events on to.
+     *
+     * @param handlerType the handler type
+     * @return the histogram
+     */
+    public LatencyHistogram getHandlerTime(final Class<? extends EventHandler> handlerType) {
+        return handlerTimes.get(handlerType);
+    }
+
+    /**
+     * Get the time from queueing a line to writing it to the transport.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getQueueTime() {
+        return queueTime;
+    }
+
+    /**
+     * Get the number of times writing stopped because the acknowledgement window was full.
+     *
+     * @return the number of window stalls
+     */
+    public long getWindowStalls() {
+        return windowStalls.sum();
+    }
+
+    /**
+     * Get the length of the times writing stopped because the acknowledgement window was full.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getWindowStallTime() {
+        return windowStallTime;
+    }
+
+    /**
+     * Get the round-trip time of flow control pings.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getAckTime() {
+        return ackTime;
+    }
+
+    /**
+     * Get the number of lines waiting to be sent at a priority.
+     *
+     * @param priority the priority
+     * @return the number of lines, or 0 if there is no connection
+     */
+    public long getQueueDepth(final Priority priority) {
+        return bot.getOutboundQueueDepth(priority);
+    }
+
+    public String toString() {
+        final StringBuilder b = new StringBuilder();
+        b.append("inbound: ").append(getInboundLines()).append(" lines, ").append(getInboundBytes()).append(" bytes\n");
+        b.append("outbound: ").append(getOutboundLines()).append(" lines, ").append(getOutboundBytes()).append(" bytes\n");
+        b.append("queue depth:");
+        for (Priority priority : Priority.values()) {
+            b.append(' ').append(priority).append('=').append(getQueueDepth(priority));
+        }
+        b.append(", flood control fill ").append(bot.getFloodControlFill()).append('\n');
+        b.append("queue time: ").append(queueTime).append('\n');
+        b.append("window stalls: ").append(windowStallTime).append('\n');
+        b.append("ack time: ").append(ackTime).append('\n');
+        final EventDispatcher eventDispatcher = bot.getEventDispatcher();
+        if (eventDispatcher != null) {
+            b.append("event dispatcher: ").append(eventDispatcher.getQueuedCount()).append(" queued, ").append(eventDispatcher.getDiscardedCount()).append(" discarded\n");
+        }
+        b.append("wire trace dropped: ").append(WireTrace.getDroppedCount()).append('\n');
+        final IRCCommand[] commands = IRCCommand.values();
+        for (int i = 0; i < commands.length; i ++) {
+            final LatencyHistogram histogram = parseTimes.get(i);
+            if (histogram != null) {
+                b.append("parse ").append(commands[i]).append(": ").append(histogram).append('\n');
+            }
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : eventTimesByName.entrySet()) {
+            b.append("dispatch ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : handlerTimesByName.entrySet()) {
+            b.append("handler ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.flurg.thimbot.raw.IRCCommand;
+
+/**
+ * The features and limits which a server announces in its {@code RPL_ISUPPORT} (005) replies.  Instances are
+ * immutable; each reply produces a new instance.  The commonly used values are decoded up front into arrays indexed by
+ * character or command, so that they may be consulted on hot paths in constant time.  Values which the server has not
+ * announced take their traditional defaults.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class ServerSupport {
+
+    /**
+     * The value returned by {@link #getMaxTargets(IRCCommand)} when there is no limit.
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private static final String DEFAULT_CHANTYPES = "#&!";
+    private static final String DEFAULT_PREFIX = "(ohv)@%+";
+    private static final String DEFAULT_CHANMODES = "beI,k,l,imnpst";
+    private static final int DEFAULT_MAXTARGETS = 4;
+    private static final int DEFAULT_NICKLEN = 9;
+    private static final int DEFAULT_LINELEN = 512;
+    private static final int DEFAULT_USERLEN = 10;
+    private static final int DEFAULT_HOSTLEN = 63;
+
+    private static final IRCCommand[] COMMANDS = IRCCommand.values();
+
+    /**
+     * The support values assumed before the server has announced any.
+     */
+    public static final ServerSupport DEFAULT = new ServerSupport(Collections.<String, String>emptyMap());
+
+    private final Map<String, String> tokens;
+    private final String channelTypes;
+    private final boolean[] channelTypeTable = new boolean[128];
+    private final String prefixModes;
+    private final String prefixSymbols;
+    private final char[] modeToSymbol = new char[128];
+    private final char[] symbolToMode = new char[128];
+    private final String statusMessageSymbols;
+    private final boolean[] statusMessageTable = new boolean[128];
+    private final char[] modeTypes = new char[128];
+    private final int maxTargets;
+    private final int[] targetLimits = new int[COMMANDS.length];
+    private final CaseMapping caseMapping;
+    private final int nickLength;
+    private final int lineLength;
+    private final int userLength;
+    private final int hostLength;
+
+    private ServerSupport(final Map<String, String> tokens) {
+        this.tokens = tokens;
+        channelTypes = getOrDefault("CHANTYPES", DEFAULT_CHANTYPES);
+        fill(channelTypeTable, channelTypes);
+        String prefix = getOrDefault("PREFIX", DEFAULT_PREFIX);
+        int close = prefix.indexOf(')');
+        if (! prefix.startsWith("(") || close == -1 || prefix.length() - close - 1 != close - 1) {
+            // malformed
+            prefix = DEFAULT_PREFIX;
+            close = prefix.indexOf(')');
+        }
+        prefixModes = prefix.substring(1, close);
+        prefixSymbols = prefix.substring(close + 1);
+        for (int i = 0; i < prefixModes.length(); i ++) {
+            final char mode = prefixModes.charAt(i);
+            final char symbol = prefixSymbols.charAt(i);
+            if (mode < 128 && symbol < 128) {
+                modeToSymbol[mode] = symbol;
+                symbolToMode[symbol] = mode;
+                modeTypes[mode] = 'P';
+            }
+        }
+        statusMessageSymbols = getOrDefault("STATUSMSG", prefixSymbols);
+        fill(statusMessageTable, statusMessageSymbols);
+        final String[] groups = getOrDefault("CHANMODES", DEFAULT_CHANMODES).split(",", -1);
+        for (int g = 0; g < groups.length && g < 4; g ++) {
+            final String group = groups[g];
+            for (int i = 0; i < group.length(); i ++) {
+                final char mode = group.charAt(i);
+                if (mode < 128) {
+                    modeTypes[mode] = (char) ('A' + g);
+                }
+            }
+        }
+        maxTargets = parseLimit(tokens.get("MAXTARGETS"), DEFAULT_MAXTARGETS);
+        Arrays.fill(targetLimits, -1);
+        final String targMax = tokens.get("TARGMAX");
+        if (targMax != null) {
+            for (String item : targMax.split(",")) {
+                final int colon = item.indexOf(':');
+                final String name = colon == -1 ? item : item.substring(0, colon);
+                final byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+                final IRCCommand command = IRCCommand.of(bytes, 0, bytes.length);
+                if (command != IRCCommand.UNKNOWN && command != IRCCommand.NUMERIC) {
+                    targetLimits[command.ordinal()] = parseLimit(colon == -1 ? "" : item.substring(colon + 1), maxTargets);
+                }
+            }
+        }
+        final CaseMapping caseMapping = CaseMapping.forName(getOrDefault("CASEMAPPING", ""));
+        this.caseMapping = caseMapping == null ? CaseMapping.RFC1459 : caseMapping;
+        nickLength = parseInt(tokens.get("NICKLEN"), DEFAULT_NICKLEN);
+        lineLength = parseInt(tokens.get("LINELEN"), DEFAULT_LINELEN);
+        userLength = parseInt(tokens.get("USERLEN"), DEFAULT_USERLEN);
+        hostLength = parseInt(tokens.get("HOSTLEN"), DEFAULT_HOSTLEN);
+    }
+
+    private String getOrDefault(final String token, final String defaultValue) {
+        final String value = tokens.get(token);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    private static void fill(final boolean[] table, final String chars) {
+        for (int i = 0; i < chars.length(); i ++) {
+            final char c = chars.charAt(i);
+            if (c < 128) {
+                table[c] = true;
+            }
+        }
+    }
+
+    // an empty value means "no limit"
+    private static int parseLimit(final String value, final int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        return value.isEmpty() ? UNLIMITED : parseInt(value, defaultValue);
+    }
+
+    private static int parseInt(final String value, final int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final int i = Integer.parseInt(value);
+            return i > 0 ? i : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get a new instance which includes the given {@code RPL_ISUPPORT} tokens.  Each token is of the form
+     * {@code NAME}, {@code NAME=value}, or {@code -NAME} to withdraw a previously announced token.
+     *
+     * @param tokens the tokens
+     * @return the new instance
+     */
+    public ServerSupport with(final Collection<String> tokens) {
+        final Map<String, String> map = new LinkedHashMap<>(this.tokens);
+        for (String token : tokens) {
+            if (token.isEmpty()) continue;
+            if (token.charAt(0) == '-') {
+                map.remove(token.substring(1));
+                continue;
+            }
+            final int eq = token.indexOf('=');
+            if (eq == -1) {
+                map.put(token, "");
+            } else {
+                map.put(token.substring(0, eq), unescape(token.substring(eq + 1)));
+            }
+        }
+        return new ServerSupport(Collections.unmodifiableMap(map));
+    }
+
+    // values may contain \xHH escapes
+    private static String unescape(final String value) {
+        if (value.indexOf('\\') == -1) {
+            return value;
+        }
+        final StringBuilder b = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i ++) {
+            final char c = value.charAt(i);
+            if (c == '\\' && i + 3 < value.length() && value.charAt(i + 1) == 'x') {
+                final int hi = Character.digit(value.charAt(i + 2), 16);
+                final int lo = Character.digit(value.charAt(i + 3), 16);
+                if (hi != -1 && lo != -1) {
+                    b.append((char) (hi << 4 | lo));
+                    i += 3;
+                    continue;
+                }
+            }
+            b.append(c);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Get all announced tokens and their (unescaped) values.  Tokens without a value map to {@code ""}.
+     *
+     * @return the tokens
+     */
+    public Map<String, String> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Get the value of an announced token.
+     *
+     * @param token the token name
+     * @return the value, {@code ""} if the token has no value, or {@code null} if it was not announced
+     */
+    public String get(final String token) {
+        return tokens.get(token);
+    }
+
+    /**
+     * Get the channel name prefixes ({@code CHANTYPES}).
+     *
+     * @return the channel types
+     */
+    public String getChannelTypes() {
+        return channelTypes;
+    }
+
+    /**
+     * Determine whether the given character begins a channel name.
+     *
+     * @param c the character
+     * @return {@code true} if it is a channel type
+     */
+    public boolean isChannelType(final char c) {
+        return c < 128 && channelTypeTable[c];
+    }
+
+    /**
+     * Determine whether the given message target is a channel, possibly preceded by a status message prefix such as
+     * {@code @}.
+     *
+     * @param name the target name
+     * @return {@code true} if the name is a channel
+     */
+    public boolean isChannel(final String name) {
+        final int length = name.length();
+        if (length < 2) {
+            return false;
+        }
+        final char zero = name.charAt(0);
+        if (isChannelType(zero)) {
+            return true;
+        }
+        return zero < 128 && statusMessageTable[zero] && isChannelType(name.charAt(1));
+    }
+
+    /**
+     * Get the channel membership modes which carry a nick prefix ({@code PREFIX}), highest rank first.
+     *
+     * @return the prefix modes
+     */
+    public String getPrefixModes() {
+        return prefixModes;
+    }
+
+    /**
+     * Get the nick prefix symbols ({@code PREFIX}), in the same order as {@link #getPrefixModes()}.
+     *
+     * @return the prefix symbols
+     */
+    public String getPrefixSymbols() {
+        return prefixSymbols;
+    }
+
+    /**
+     * Get the nick prefix symbol for a membership mode, e.g. {@code @} for {@code o}.
+     *
+     * @param mode the mode character
+     * @return the symbol, or {@code 0} if the mode is not a prefix mode
+     */
+    public char getPrefixSymbol(final char mode) {
+        return mode < 128 ? modeToSymbol[mode] : 0;
+    }
+
+    /**
+     * Get the membership mode for a nick prefix symbol, e.g. {@code o} for {@code @}.
+     *
+     * @param symbol the symbol
+     * @return the mode, or {@code 0} if the character is not a prefix symbol
+     */
+    public char getPrefixMode(final char symbol) {
+        return symbol < 128 ? symbolToMode[symbol] : 0;
+    }
+
+    /**
+     * Get the kind of a channel mode, which determines whether it takes a parameter.
+     *
+     * @param mode the mode character
+     * @return {@code 'A'} to {@code 'D'} for the {@code CHANMODES} groups (list modes; always a parameter; a parameter
+     *     only when set; never a parameter), {@code 'P'} for membership modes from {@code PREFIX} (always a
+     *     parameter), or {@code 0} if the mode is not known
+     */
+    public char getChannelModeType(final char mode) {
+        return mode < 128 ? modeTypes[mode] : 0;
+    }
+
+    /**
+     * Get the maximum number of targets which one line of the given command may have ({@code TARGMAX}, falling back
+     * to {@code MAXTARGETS}).
+     *
+     * @param command the command
+     * @return the maximum number of targets, or {@link #UNLIMITED}
+     */
+    public int getMaxTargets(final IRCCommand command) {
+        final int limit = targetLimits[command.ordinal()];
+        return limit == -1 ? maxTargets : limit;
+    }
+
+    /**
+     * Get the server's case mapping ({@code CASEMAPPING}).
+     *
+     * @return the case mapping
+     */
+    public CaseMapping getCaseMapping() {
+        return caseMapping;
+    }
+
+    /**
+     * Get the maximum nick length ({@code NICKLEN}).
+     *
+     * @return the maximum nick length
+     */
+    public int getNickLength() {
+        return nickLength;
+    }
+
+    /**
+     * Get the maximum length of a protocol line, in bytes, including the line terminator ({@code LINELEN}).
+     *
+     * @return the maximum line length
+     */
+    public int getLineLength() {
+        return lineLength;
+    }
+
+    /**
+     * Get the maximum user name length ({@code USERLEN}).
+     *
+     * @return the maximum user name length
+     */
+    public int getUserLength() {
+        return userLength;
+    }
+
+    /**
+     * Get the maximum host name length ({@code HOSTLEN}).
+     *
+     * @return the maximum host name length
+     */
+    public int getHostLength() {
+        return hostLength;
+    }
+
+    public String toString() {
+        return "ServerSupport " + tokens;
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The channels which the bot is in, their members, and what is known about those members.  The state is kept up to
+ * date by the connection's parser from {@code JOIN}, {@code PART}, {@code KICK}, {@code QUIT}, {@code NICK},
+ * {@code MODE}, {@code AWAY}, {@code ACCOUNT}, {@code TOPIC} and the {@code NAMES}, {@code WHO} and topic replies,
+ * before the corresponding events are dispatched.
+ * <p>
+ * Reading is lock-free.  Channels are published as immutable {@link ChannelState} snapshots which are replaced on each
+ * change; users are canonical {@link IRCUser} instances shared by every channel they are in, and are forgotten when
+ * they no longer share a channel with the bot.  Names are compared using the server's case mapping.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class StateTracker {
+
+    private final ThimBot bot;
+    private final ConcurrentHashMap<String, ChannelState> channels = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, IRCUser> users = new ConcurrentHashMap<>();
+
+    // parser thread only
+    private final Map<String, ChannelState.Builder> pendingNames = new HashMap<>();
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextId;
+
+    StateTracker(final ThimBot bot) {
+        this.bot = bot;
+    }
+
+    private String fold(final String name) {
+        return bot.getCaseMapping().toLowerCase(name);
+    }
+
+    /**
+     * Get a channel which the bot is in.
+     *
+     * @param name the channel name
+     * @return the current snapshot of the channel, or {@code null} if the bot is not in it
+     */
+    public ChannelState getChannel(final String name) {
+        return channels.get(fold(name));
+    }
+
+    /**
+     * Get all of the channels which the bot is in.
+     *
+     * @return the current snapshots of the channels
+     */
+    public Collection<ChannelState> getChannels() {
+        return Collections.unmodifiableCollection(new ArrayList<>(channels.values()));
+    }
+
+    /**
+     * Get a user who shares a channel with the bot.
+     *
+     * @param nick the nick
+     * @return the user, or {@code null} if no such user is visible
+     */
+    public IRCUser getUser(final String nick) {
+        return nick == null ? null : users.get(fold(nick));
+    }
+
+    /**
+     * Get the channels which the bot shares with a user.
+     *
+     * @param nick the nick
+     * @return the current snapshots of the channels
+     */
+    public List<ChannelState> getCommonChannels(final String nick) {
+        final IRCUser user = getUser(nick);
+        if (user == null) {
+            return Collections.emptyList();
+        }
+        final List<ChannelState> list = new ArrayList<>();
+        for (ChannelState state : channels.values()) {
+            if (state.indexOf(user) != -1) {
+                list.add(state);
+            }
+        }
+        return list;
+    }
+
+    // ---- updates, called from the parser thread ----
+
+    void reset() {
+        channels.clear();
+        users.clear();
+        pendingNames.clear();
+        freeCount = 0;
+        nextId = 0;
+    }
+
+    private IRCUser acquire(final String nick) {
+        final String key = fold(nick);
+        IRCUser user = users.get(key);
+        if (user == null) {
+            user = new IRCUser(freeCount > 0 ? freeIds[-- freeCount] : nextId ++, nick);
+            users.put(key, user);
+        }
+        return user;
+    }
+
+    private void addRef(final IRCUser user) {
+        user.channelCount ++;
+    }
+
+    // forget the user if it is no longer in any channel
+    private void release(final IRCUser user) {
+        if (user.channelCount == 0 && users.remove(fold(user.getNick()), user)) {
+            if (freeCount == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, freeCount << 1);
+            }
+            freeIds[freeCount ++] = user.getId();
+        }
+    }
+
+    private void removeRef(final IRCUser user) {
+        user.channelCount --;
+        release(user);
+    }
+
+    private void releaseAll(final ChannelState state) {
+        for (int i = 0; i < state.getMemberCount(); i ++) {
+            removeRef(state.getMember(i));
+        }
+    }
+
+    void join(final String channel, final String prefix, final String nick, final String account) {
+        final String key = fold(channel);
+        ChannelState state = channels.get(key);
+        if (bot.isBotNick(nick)) {
+            if (state != null) {
+                dropPendingNames(key);
+                releaseAll(state);
+            }
+            state = new ChannelState(this, channel);
+        } else if (state == null) {
+            return;
+        }
+        final IRCUser user = acquire(nick);
+        setUserHost(user, prefix);
+        if (account != null) {
+            user.setAccount(account);
+        }
+        if (state.indexOf(user) == -1) {
+            addRef(user);
+            state = state.withMember(user, 0L);
+        }
+        channels.put(key, state);
+    }
+
+    void part(final String channel, final String nick) {
+        final String key = fold(channel);
+        final ChannelState state = channels.get(key);
+        if (state == null) {
+            return;
+        }
+        if (bot.isBotNick(nick)) {
+            channels.remove(key);
+            dropPendingNames(key);
+            releaseAll(state);
+            return;
+        }
+        final IRCUser user = getUser(nick);
+        final int index = state.indexOf(user);
+        if (index != -1) {
+            channels.put(key, state.withoutMember(index));
+            removeRef(user);
+        }
+    }
+
+    void quit(final String nick) {
+        final IRCUser user = getUser(nick);
+        if (user != null) {
+            forget(user);
+        }
+    }
+
+    // remove the user from every channel and pending member list, which forgets the user
+    private void forget(final IRCUser user) {
+        for (Map.Entry<String, ChannelState> entry : channels.entrySet()) {
+            final ChannelState state = entry.getValue();
+            final int index = state.indexOf(user);
+            if (index != -1) {
+                entry.setValue(state.withoutMember(index));
+                removeRef(user);
+            }
+        }
+        for (ChannelState.Builder builder : pendingNames.values()) {
+            int n = 0;
+            for (int i = 0; i < builder.count; i ++) {
+                if (builder.members[i] == user) {
+                    removeRef(user);
+                } else {
+                    builder.members[n] = builder.members[i];
+                    builder.modes[n ++] = builder.modes[i];
+                }
+            }
+            Arrays.fill(builder.members, n, builder.count, null);
+            builder.count = n;
+        }
+    }
+
+    void nick(final String oldNick, final String newNick) {
+        final IRCUser user = users.remove(fold(oldNick));
+        if (user == null) {
+            return;
+        }
+        final String key = fold(newNick);
+        final IRCUser stale = users.get(key);
+        if (stale != null && stale != user) {
+            // the server says the nick is free, so we missed its last holder leaving
+            forget(stale);
+        }
+        user.setNick(newNick);
+        users.put(key, user);
+    }
+
+    void away(final String nick, final boolean away) {
+        final IRCUser user = getUser(nick);
+        if (user != null) {
+            user.setAway(away);
+        }
+    }
+
+    void account(final String nick, final String account) {
+        final IRCUser user = getUser(nick);
+        if (user != null) {
+            user.setAccount(account);
+        }
+    }
+
+    void topic(final String channel, final String topic) {
+        final String key = fold(channel);
+        final ChannelState state = channels.get(key);
+        if (state != null) {
+            channels.put(key, state.withTopic(topic));
+        }
+    }
+
+    /**
+     * Handle one {@code RPL_NAMREPLY}.  Replies are collected until {@code RPL_ENDOFNAMES}, at which point they replace
+     * the member list of the channel.
+     *
+     * @param channel the channel
+     * @param names the space-separated names, each with any membership prefixes and possibly a {@code user@host}
+     */
+    void names(final String channel, final String names) {
+        final String key = fold(channel);
+        if (! channels.containsKey(key)) {
+            return;
+        }
+        ChannelState.Builder builder = pendingNames.get(key);
+        if (builder == null) {
+            pendingNames.put(key, builder = new ChannelState.Builder());
+        }
+        final ServerSupport serverSupport = bot.getServerSupport();
+        final int length = names.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && names.charAt(i) == ' ') i ++;
+            long modes = 0L;
+            char mode;
+            while (i < length && (mode = serverSupport.getPrefixMode(names.charAt(i))) != 0) {
+                modes |= modeBits(mode);
+                i ++;
+            }
+            final int start = i;
+            while (i < length && names.charAt(i) != ' ') i ++;
+            if (i > start) {
+                final String name = names.substring(start, i);
+                final int bang = name.indexOf('!');
+                final IRCUser user = acquire(bang == -1 ? name : name.substring(0, bang));
+                if (bang != -1) {
+                    setUserHost(user, name);
+                }
+                // the pending entry holds a reference so that the user is not forgotten in the meantime
+                addRef(user);
+                builder.add(user, modes);
+            }
+        }
+    }
+
+    void endOfNames(final String channel) {
+        final String key = fold(channel);
+        final ChannelState.Builder builder = pendingNames.remove(key);
+        if (builder == null) {
+            return;
+        }
+        final ChannelState state = channels.get(key);
+        final int count = builder.count;
+        if (state == null) {
+            for (int i = 0; i < count; i ++) {
+                removeRef(builder.members[i]);
+            }
+            return;
+        }
+        // sort by id, dropping duplicates
+        final long[] order = new long[count];
+        for (int i = 0; i < count; i ++) {
+            order[i] = (long) builder.members[i].getId() << 32 | i;
+        }
+        Arrays.sort(order);
+        final IRCUser[] members = new IRCUser[count];
+        final long[] modes = new long[count];
+        int n = 0;
+        for (int i = 0; i < count; i ++) {
+            final int idx = (int) order[i];
+            final IRCUser user = builder.members[idx];
+            if (n > 0 && members[n - 1] == user) {
+                modes[n - 1] = builder.modes[idx];
+                removeRef(user);
+            } else {
+                members[n] = user;
+                modes[n ++] = builder.modes[idx];
+            }
+        }
+        channels.put(key, state.withMembers(n == count ? members : Arrays.copyOf(members, n), n == count ? modes : Arrays.copyOf(modes, n)));
+        releaseAll(state);
+    }
+
+    private void dropPendingNames(final String key) {
+        final ChannelState.Builder builder = pendingNames.remove(key);
+        if (builder != null) {
+            for (int i = 0; i < builder.count; i ++) {
+                removeRef(builder.members[i]);
+            }
+        }
+    }
+
+    void who(final String channel, final String userName, final String host, final String nick, final String flags) {
+        final IRCUser user = getUser(nick);
+        if (user == null) {
+            return;
+        }
+        user.setUserHost(userName, host);
+        final int length = flags.length();
+        if (length > 0) {
+            user.setAway(flags.charAt(0) == 'G');
+        }
+        final String key = fold(channel);
+        final ChannelState state = channels.get(key);
+        if (state == null) {
+            return;
+        }
+        final int index = state.indexOf(user);
+        if (index == -1) {
+            return;
+        }
+        final ServerSupport serverSupport = bot.getServerSupport();
+        long modes = 0L;
+        for (int i = 1; i < length; i ++) {
+            final char mode = serverSupport.getPrefixMode(flags.charAt(i));
+            if (mode != 0) {
+                modes |= modeBits(mode);
+            }
+        }
+        channels.put(key, state.withMemberModes(index, modes));
+    }
+
+    /**
+     * Apply a channel mode change.
+     *
+     * @param channel the channel
+     * @param args the mode string followed by its arguments
+     */
+    void mode(final String channel, final List<String> args) {
+        final String key = fold(channel);
+        ChannelState state = channels.get(key);
+        if (state == null || args.isEmpty()) {
+            return;
+        }
+        final ServerSupport serverSupport = bot.getServerSupport();
+        final String modeString = args.get(0);
+        int arg = 1;
+        boolean add = true;
+        long channelModes = state.getModes();
+        for (int i = 0; i < modeString.length(); i ++) {
+            final char mode = modeString.charAt(i);
+            if (mode == '+' || mode == '-') {
+                add = mode == '+';
+                continue;
+            }
+            switch (serverSupport.getChannelModeType(mode)) {
+                case 'P': {
+                    if (arg < args.size()) {
+                        final int index = state.indexOf(args.get(arg ++));
+                        if (index != -1) {
+                            final long bits = modeBits(mode);
+                            final long memberModes = state.getMemberModes(index);
+                            state = state.withMemberModes(index, add ? memberModes | bits : memberModes & ~bits);
+                        }
+                    }
+                    break;
+                }
+                case 'A':
+                case 'B': {
+                    // list or key modes; not tracked
+                    arg ++;
+                    break;
+                }
+                case 'C': {
+                    if (add) arg ++;
+                    channelModes = add ? channelModes | modeBits(mode) : channelModes & ~modeBits(mode);
+                    break;
+                }
+                default: {
+                    channelModes = add ? channelModes | modeBits(mode) : channelModes & ~modeBits(mode);
+                    break;
+                }
+            }
+        }
+        channels.put(key, state.withModes(channelModes));
+    }
+
+    private static long modeBits(final char mode) {
+        return mode >= '0' && mode <= '9' || mode >= 'A' && mode <= 'Z' || mode >= 'a' && mode <= 'z' ? ModeFlags.getBits(mode) : 0L;
+    }
+
+    private static void setUserHost(final IRCUser user, final String prefix) {
+        final int bang = prefix.indexOf('!');
+        final int at = prefix.indexOf('@', bang + 1);
+        if (bang != -1 && at != -1) {
+            final String userName = user.getUser();
+            final String host = user.getHost();
+            // avoid allocating when nothing has changed
+            if (userName == null || host == null || ! prefix.regionMatches(bang + 1, userName, 0, userName.length()) || at - bang - 1 != userName.length() || ! prefix.regionMatches(at + 1, host, 0, host.length()) || prefix.length() - at - 1 != host.length()) {
+                user.setUserHost(prefix.substring(bang + 1, at), prefix.substring(at + 1));
+            }
+        }
+    }
+}
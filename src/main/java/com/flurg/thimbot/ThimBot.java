@@ -36,6 +36,7 @@ import com.flurg.thimbot.event.DisconnectEvent;
 import com.flurg.thimbot.event.Event;
 import com.flurg.thimbot.event.EventHandler;
 import com.flurg.thimbot.event.EventHandlerContext;
+import com.flurg.thimbot.event.HandlerChain;
 import com.flurg.thimbot.event.IRCBase64;
 import com.flurg.thimbot.event.OutboundActionEvent;
 import com.flurg.thimbot.event.OutboundCTCPCommandEvent;
@@ -46,31 +47,40 @@ import com.flurg.thimbot.event.OutboundPingEvent;
 import com.flurg.thimbot.event.OutboundPongEvent;
 import com.flurg.thimbot.event.OutboundServerPongEvent;
 import com.flurg.thimbot.event.QuitRequestEvent;
-import com.flurg.thimbot.raw.AckEmittableByteArrayOutputStream;
 import com.flurg.thimbot.raw.ByteOutput;
+import com.flurg.thimbot.raw.ConnectionExecutors;
 import com.flurg.thimbot.raw.EmissionKey;
-import com.flurg.thimbot.raw.EmittableByteArrayOutputStream;
+import com.flurg.thimbot.raw.FloodControl;
+import com.flurg.thimbot.raw.IRCCommand;
 import com.flurg.thimbot.raw.LineOutputCallback;
 import com.flurg.thimbot.raw.LineProtocolConnection;
+import com.flurg.thimbot.raw.MessageSplitter;
+import com.flurg.thimbot.raw.SelectorLoopGroup;
 import com.flurg.thimbot.raw.StringEmitter;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -80,7 +90,9 @@ import java.util.prefs.PreferenceChangeListener;
 import java.util.prefs.Preferences;
 
 import com.flurg.thimbot.util.IRCStringBuilder;
+import com.flurg.thimbot.util.IRCStringUtil;
 import javax.net.SocketFactory;
+import javax.net.ssl.SSLSocketFactory;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -88,16 +100,32 @@ import javax.net.SocketFactory;
 public final class ThimBot {
 
     static final Logger IRC_LOGGER = Logger.getLogger("com.flurg.thimbot.irc");
+    private static final int NAMES_SIZE = 4096;
     final Object lock = new Object();
 
     private volatile Charset charset = StandardCharsets.UTF_8;
     private volatile SocketAddress address;
     private volatile SocketFactory socketFactory = SocketFactory.getDefault();
+    private volatile SelectorLoopGroup loopGroup;
+    private volatile Executor connectionExecutor;
+    private volatile EventDispatcher eventDispatcher;
+    private volatile int floodBurst;
+    private volatile long floodRefillNanos;
 
     private final CopyOnWriteArrayList<EventHandler> handlers = new CopyOnWriteArrayList<>();
-
-    private LineProtocolConnection connection;
-    private long eventSeq;
+    private volatile HandlerChain handlerChain;
+
+    private volatile LineProtocolConnection connection;
+    // guarded by lock
+    private int connectAttempts;
+    private volatile InternTable names;
+    private volatile ServerSupport serverSupport = ServerSupport.DEFAULT;
+    private final StateTracker stateTracker = new StateTracker(this);
+    private final Metrics metrics = new Metrics(this);
+    private final DeliveryTracker deliveries = new DeliveryTracker();
+    // whether the current connection has labeled-response, so that each message can be confirmed by label
+    private volatile boolean labeledResponse;
+    private final AtomicLong eventSeq = new AtomicLong();
     private final Preferences prefs;
     private String login = "thimbot";
     private String realName = "ThimBot";
@@ -249,6 +277,11 @@ public final class ThimBot {
         this.address = address;
         this.socketFactory = socketFactory;
         handlers.add(new DefaultHandler());
+        handlerChain = new HandlerChain(handlers);
+        desiredCapabilities.add("batch");
+        desiredCapabilities.add("message-tags");
+        desiredCapabilities.add("server-time");
+        desiredCapabilities.add("labeled-response");
     }
 
     public ThimBot(SocketAddress address, SocketFactory socketFactory) {
@@ -261,12 +294,45 @@ public final class ThimBot {
             if (connection != null) {
                 throw new IllegalStateException("Already connected");
             }
-            setBotNick(desiredNick);
+            // names are interned per connection, starting with our own
+            final InternTable names = new InternTable(NAMES_SIZE);
+            this.names = names;
+            serverSupport = ServerSupport.DEFAULT;
+            labeledResponse = false;
+            stateTracker.reset();
+            setBotNick(names.intern(desiredNick));
             final InetSocketAddress inetSocketAddress = (InetSocketAddress) address;
             final String hostName = inetSocketAddress.getHostName();
-            final Socket socket = socketFactory.createSocket(hostName, inetSocketAddress.getPort());
-            socket.setTcpNoDelay(true);
-            final LineProtocolConnection connection = new LineProtocolConnection(this, new IRCParser(), socket, 16384);
+            final SelectorLoopGroup loopGroup = this.loopGroup;
+            final SocketFactory socketFactory = this.socketFactory;
+            final int attempt = ++connectAttempts;
+            final Object token = FlightRecording.connectBegin();
+            boolean ok = false;
+            final LineProtocolConnection connection;
+            try {
+                if (loopGroup != null && ! (socketFactory instanceof SSLSocketFactory)) {
+                    final SocketChannel channel = SocketChannel.open();
+                    try {
+                        channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+                        channel.connect(new InetSocketAddress(hostName, inetSocketAddress.getPort()));
+                        connection = new LineProtocolConnection(this, new IRCParser(names), channel, loopGroup, 16384);
+                    } catch (IOException | RuntimeException e) {
+                        channel.close();
+                        throw e;
+                    }
+                } else {
+                    final Socket socket = socketFactory.createSocket(hostName, inetSocketAddress.getPort());
+                    socket.setTcpNoDelay(true);
+                    connection = new LineProtocolConnection(this, new IRCParser(names), socket, connectionExecutor, 16384);
+                }
+                ok = true;
+            } finally {
+                FlightRecording.connectEnd(token, hostName, inetSocketAddress.getPort(), attempt, ok);
+            }
+            final int floodBurst = this.floodBurst;
+            if (floodBurst > 0) {
+                connection.setFloodControl(new FloodControl(floodBurst, floodRefillNanos, TimeUnit.NANOSECONDS));
+            }
             connection.queueMessage(Priority.NORMAL, new LineOutputCallback() {
                 public void writeLine(final ThimBot context, final ByteOutput target, final long seq) throws IOException {
                     target.write(IRCStrings.NICK);
@@ -295,38 +361,151 @@ public final class ThimBot {
     }
 
     public void dispatch(final Event event) {
-        EventHandlerContext.dispatch(handlers, event);
+        EventHandlerContext.dispatch(handlerChain, event);
     }
 
-    public void queueMessage(final Priority priority, final LineOutputCallback callback) {
-        synchronized (lock) {
-            final LineProtocolConnection connection = this.connection;
-            if (connection != null) connection.queueMessage(priority, callback);
+    void dispatchInbound(final Event event) {
+        final EventDispatcher eventDispatcher = this.eventDispatcher;
+        if (eventDispatcher == null) {
+            dispatch(event);
+        } else {
+            eventDispatcher.dispatch(event);
         }
     }
 
+    public void queueMessage(final Priority priority, final LineOutputCallback callback) {
+        final LineProtocolConnection connection = this.connection;
+        if (connection != null) connection.queueMessage(priority, callback);
+    }
+
+    public void queueMessage(final Priority priority, final String target, final LineOutputCallback callback) {
+        final LineProtocolConnection connection = this.connection;
+        if (connection != null) connection.queueMessage(priority, target, callback);
+    }
+
     public void acknowledge(final long ackSeq) {
-        synchronized (lock) {
-            final LineProtocolConnection connection = this.connection;
-            if (connection != null) connection.acknowledge(ackSeq);
+        final LineProtocolConnection connection = this.connection;
+        if (connection != null) connection.acknowledge(ackSeq);
+        deliveries.acknowledge(ackSeq);
+    }
+
+    /**
+     * Handle a reply which carries a label.  Our labels are the sequence numbers of the lines they were sent on.
+     *
+     * @param label the label
+     * @param error the error text if the reply is an error, or {@code null} otherwise
+     */
+    void labeledResponse(final String label, final String error) {
+        final long seq;
+        try {
+            seq = Long.parseLong(label);
+        } catch (NumberFormatException e) {
+            return;
         }
+        deliveries.complete(seq, error);
+        acknowledge(seq);
+    }
+
+    /**
+     * Determine whether the current connection has {@code labeled-response}, so that tracked messages are confirmed
+     * or rejected individually by the server.
+     *
+     * @return {@code true} if replies to our messages are labeled
+     */
+    public boolean isLabeledResponse() {
+        return labeledResponse;
+    }
+
+    void setLabeledResponse(final boolean labeledResponse) {
+        this.labeledResponse = labeledResponse;
+    }
+
+    /**
+     * Set how long to wait for the server to confirm a tracked message before its future fails with a
+     * {@link java.util.concurrent.TimeoutException}.  The default is 60 seconds.
+     *
+     * @param timeout the timeout
+     * @param unit the timeout unit
+     */
+    public void setDeliveryTimeout(final long timeout, final TimeUnit unit) {
+        deliveries.setTimeout(timeout, unit);
+    }
+
+    /**
+     * Set the number of lines of tracked messages which may await confirmation at once.  Beyond that, the oldest line
+     * is given up on.  The default is 4096.
+     *
+     * @param capacity the capacity
+     */
+    public void setDeliveryCapacity(final int capacity) {
+        deliveries.setCapacity(capacity);
     }
 
     public void setWindowSize(final int size) {
-        synchronized (lock) {
-            final LineProtocolConnection connection = this.connection;
-            if (connection != null) connection.setWindowSize(size);
-        }
+        final LineProtocolConnection connection = this.connection;
+        if (connection != null) connection.setWindowSize(size);
     }
 
     public String getBotNick() {
         return currentNick;
     }
 
+    /**
+     * Determine whether the given nick is the bot's current nick, according to the server's case mapping.
+     *
+     * @param nick the nick
+     * @return {@code true} if it is the bot's nick
+     */
+    public boolean isBotNick(final String nick) {
+        final String currentNick = this.currentNick;
+        return nick == currentNick || serverSupport.getCaseMapping().equals(nick, currentNick);
+    }
+
+    /**
+     * Get the nick of a {@code nick!user@host} prefix.  Prefixes produced by the connection's parser yield a
+     * canonical nick instance without allocating.
+     *
+     * @param source the prefix
+     * @return the nick
+     */
+    public String nickOf(final String source) {
+        final InternTable names = this.names;
+        return names == null ? IRCStringUtil.nickOf(source) : names.nickOf(source);
+    }
+
+    /**
+     * Get the case mapping of the current connection, which decides which nicks and channel names are equal.
+     *
+     * @return the case mapping
+     */
+    public CaseMapping getCaseMapping() {
+        return serverSupport.getCaseMapping();
+    }
+
+    /**
+     * Get the features and limits announced by the server of the current connection.
+     *
+     * @return the server support
+     */
+    public ServerSupport getServerSupport() {
+        return serverSupport;
+    }
+
+    /**
+     * Get the tracker of the channels the bot is in and their members.
+     *
+     * @return the state tracker
+     */
+    public StateTracker getStateTracker() {
+        return stateTracker;
+    }
+
+    void addServerSupport(final List<String> tokens) {
+        serverSupport = serverSupport.with(tokens);
+    }
+
     public long getEventSequence() {
-        synchronized (lock) {
-            return eventSeq++;
-        }
+        return eventSeq.getAndIncrement();
     }
 
     void terminated(final LineProtocolConnection connection) {
@@ -334,7 +513,8 @@ public final class ThimBot {
             connection.detach();
             this.connection = null;
         }
-        dispatch(new DisconnectEvent(this));
+        deliveries.failAll();
+        dispatchInbound(new DisconnectEvent(this));
     }
 
     public void disconnect() throws IOException {
@@ -350,86 +530,171 @@ public final class ThimBot {
     }
 
     void sendRawMultiTarget(final Priority priority, final CmdType cmdType, final Collection<String> targets, final StringEmitter command, final StringEmitter message) throws IOException {
+        sendRawMultiTarget(priority, cmdType, targets, command, message, null);
+    }
+
+    void sendRawMultiTarget(final Priority priority, final CmdType cmdType, final Collection<String> targets, final StringEmitter command, final StringEmitter message, final CompletableFuture<Void> future) throws IOException {
         if (message.length() == 0) {
-            new Throwable("Empty message being emitted").printStackTrace();
+            if (future != null) {
+                future.completeExceptionally(new IllegalArgumentException("Empty message"));
+            } else {
+                new Throwable("Empty message being emitted").printStackTrace();
+            }
             return;
         }
         if (targets.size() == 0) {
-            new Throwable("No targets").printStackTrace();
+            if (future != null) {
+                future.completeExceptionally(new IllegalArgumentException("No targets"));
+            } else {
+                new Throwable("No targets").printStackTrace();
+            }
             return;
         }
-        // we will limit the cmd + target list to <= 256 characters, and the message to <= 256 characters (or whatever the server will accept).
-        // we limit recipients to 4 at a time
-        final Iterator<String> iterator = targets.iterator();
-        assert iterator.hasNext();
-
-        StringEmitter current;
-        EmittableByteArrayOutputStream baos = new AckEmittableByteArrayOutputStream(256, new EmissionKey(command, message));
-        if (cmdType == CmdType.CTCP_PRIVMSG) {
-            IRCStrings.PRIVMSG.emit((ByteArrayOutputStream) baos);
-        } else if (cmdType == CmdType.CTCP_NOTICE) {
-            IRCStrings.NOTICE.emit((ByteArrayOutputStream) baos);
-        } else if (cmdType == CmdType.SIMPLE) {
-            command.emit((ByteArrayOutputStream) baos);
-        } else {
-            throw new IllegalStateException();
-        }
-        baos.write(' ');
-        nickEmitter.emit((ByteArrayOutputStream) baos);
-        int c = 1;
-        int t = 0;
-        do {
-            current = new StringEmitter(iterator.next());
+        // we will limit the cmd + target list to half of the line length, leaving the rest for the message.
+        // we limit recipients to whatever the server allows per line, counting our own nick
+        final ServerSupport serverSupport = this.serverSupport;
+        final IRCCommand ircCommand = cmdType == CmdType.CTCP_NOTICE || command == IRCStrings.NOTICE ? IRCCommand.NOTICE : IRCCommand.PRIVMSG;
+        final int maxTargets = serverSupport.getMaxTargets(ircCommand);
+        final int lineLength = serverSupport.getLineLength();
+        final int targetsLength = lineLength >> 1;
+        final StringEmitter nick = nickEmitter;
+        final StringEmitter wireCommand = cmdType == CmdType.CTCP_PRIVMSG ? IRCStrings.PRIVMSG : cmdType == CmdType.CTCP_NOTICE ? IRCStrings.NOTICE : command;
+        final int prefixLength = wireCommand.length() + 1 + nick.length();
+        final StringEmitter[] group = new StringEmitter[Math.min(targets.size(), Math.max(1, maxTargets - 1))];
+        final List<StringEmitter[]> groups = new ArrayList<>();
+        final List<String> groupTargets = new ArrayList<>();
+        int longestGroup = 0;
+        int longestTarget = 0;
+        int size = prefixLength;
+        int c = 0;
+        for (String name : targets) {
+            final StringEmitter current = new StringEmitter(name);
             if (current.length() == 0) continue;
-            t ++;
-            if (baos.size() + current.length() >= 256 || c == 4) {
-                // flush
-                baos.write(' ');
-                baos.write(':');
-                if (cmdType != CmdType.SIMPLE) {
-                    baos.write(1);
-                    command.emit((ByteArrayOutputStream) baos);
-                    baos.write(' ');
-                    message.emit((ByteArrayOutputStream) baos);
-                    baos.write(1);
-                } else {
-                    message.emit((ByteArrayOutputStream) baos);
-                }
-                synchronized (lock) {
-                    getConnection().queueMessage(priority, baos);
-                }
-                baos = new EmittableByteArrayOutputStream(256);
-                if (cmdType == CmdType.CTCP_PRIVMSG) {
-                    IRCStrings.PRIVMSG.emit((ByteArrayOutputStream) baos);
-                } else if (cmdType == CmdType.CTCP_NOTICE) {
-                    IRCStrings.NOTICE.emit((ByteArrayOutputStream) baos);
-                } else if (cmdType == CmdType.SIMPLE) {
-                    command.emit((ByteArrayOutputStream) baos);
-                } else {
-                    throw new IllegalStateException();
+            if (c > 0 && (size + current.length() >= targetsLength || c == group.length)) {
+                groups.add(Arrays.copyOf(group, c));
+                longestGroup = Math.max(longestGroup, size);
+                size = prefixLength;
+                c = 0;
+            }
+            if (c == 0) {
+                // each line is scheduled under its first target
+                groupTargets.add(name);
+            }
+            group[c ++] = current;
+            size += 1 + current.length();
+            longestTarget = Math.max(longestTarget, current.length());
+        }
+        if (c == 0) {
+            if (future != null) future.completeExceptionally(new IllegalArgumentException("No targets"));
+            return;
+        }
+        groups.add(Arrays.copyOf(group, c));
+        longestGroup = Math.max(longestGroup, size);
+        // the message has to fit both in the line we send and in the line each recipient gets, which carries our
+        // full prefix instead of the target list
+        final int header = Math.max(longestGroup, 1 + getOwnPrefixLength() + 1 + wireCommand.length() + 1 + longestTarget) + 2;
+        final int ctcpLength = cmdType == CmdType.SIMPLE ? 0 : 2 + command.length() + 1;
+        // only text is split; other CTCP payloads would not mean the same thing in pieces
+        final StringEmitter[] pieces = cmdType == CmdType.SIMPLE || command == IRCStrings.ACTION ? MessageSplitter.split(message, lineLength - 2 - header - ctcpLength) : new StringEmitter[] { message };
+        final LineProtocolConnection connection;
+        try {
+            connection = getConnection();
+        } catch (IOException e) {
+            if (future != null) future.completeExceptionally(e);
+            throw e;
+        }
+        // tracked from now on, so that it fails with the connection even if it never gets to be written
+        final DeliveryTracker.Delivery delivery = future == null ? null : deliveries.track(future, groups.size() * pieces.length);
+        EmissionKey key = new EmissionKey(command, message);
+        for (int i = 0; i < groups.size(); i ++) {
+            final StringEmitter[] lineTargets = groups.get(i);
+            for (StringEmitter piece : pieces) {
+                if (! connection.queueMessage(priority, groupTargets.get(i), new MultiTargetLine(cmdType, command, nick, lineTargets, piece, key, delivery))) {
+                    if (delivery != null) delivery.fail(new IOException("Connection closed"));
+                    return;
                 }
-                baos.write(' ');
-                nickEmitter.emit((ByteArrayOutputStream) baos);
-                c = 1;
+                key = null;
             }
-            baos.write(',');
-            current.emit((ByteArrayOutputStream) baos);
-            c ++;
-        } while (iterator.hasNext());
-        if (t == 0) return;
-        baos.write(' ');
-        baos.write(':');
-        if (cmdType != CmdType.SIMPLE) {
-            baos.write(1);
-            command.emit((ByteArrayOutputStream) baos);
-            baos.write(' ');
-            message.emit((ByteArrayOutputStream) baos);
-            baos.write(1);
-        } else {
-            message.emit((ByteArrayOutputStream) baos);
         }
-        synchronized (lock) {
-            getConnection().queueMessage(priority, baos);
+    }
+
+    /**
+     * Get the length of our own {@code nick!user@host} prefix, as the server would send it to others.  Where we have
+     * not seen our own user and host yet, the longest the server allows is assumed.
+     */
+    private int getOwnPrefixLength() {
+        final ServerSupport serverSupport = this.serverSupport;
+        final StringEmitter nick = nickEmitter;
+        final IRCUser self = stateTracker.getUser(currentNick);
+        final String user = self == null ? null : self.getUser();
+        final String host = self == null ? null : self.getHost();
+        return nick.length() + 1
+            + (user == null ? serverSupport.getUserLength() : user.length())
+            + 1 + (host == null ? serverSupport.getHostLength() : host.length());
+    }
+
+    /**
+     * One line of a multi-target message.  The line is written straight into the connection's line buffer when its
+     * turn comes, rather than being assembled in a buffer of its own.
+     */
+    static final class MultiTargetLine implements LineOutputCallback {
+        private static final byte[] LABEL = "@label=".getBytes(StandardCharsets.US_ASCII);
+
+        private final CmdType cmdType;
+        private final StringEmitter command;
+        private final StringEmitter nick;
+        private final StringEmitter[] targets;
+        private final StringEmitter message;
+        private final EmissionKey key;
+        private final DeliveryTracker.Delivery delivery;
+
+        MultiTargetLine(final CmdType cmdType, final StringEmitter command, final StringEmitter nick, final StringEmitter[] targets, final StringEmitter message, final EmissionKey key, final DeliveryTracker.Delivery delivery) {
+            this.cmdType = cmdType;
+            this.command = command;
+            this.nick = nick;
+            this.targets = targets;
+            this.message = message;
+            this.key = key;
+            this.delivery = delivery;
+        }
+
+        public void writeLine(final ThimBot context, final ByteOutput target, final long seq) throws IOException {
+            final boolean labeled = context.labeledResponse;
+            if (labeled) {
+                // the reply will carry the label, which tells us exactly which line it is for
+                target.write(LABEL);
+                target.writeDecimal(seq);
+                target.write(' ');
+            } else if (key != null) {
+                context.registerOutboundMessage(key, seq);
+            }
+            if (delivery != null) {
+                context.deliveries.register(seq, delivery);
+            }
+            if (cmdType == CmdType.CTCP_PRIVMSG) {
+                target.write(IRCStrings.PRIVMSG);
+            } else if (cmdType == CmdType.CTCP_NOTICE) {
+                target.write(IRCStrings.NOTICE);
+            } else {
+                target.write(command);
+            }
+            target.write(' ');
+            target.write(nick);
+            for (StringEmitter emitter : targets) {
+                target.write(',');
+                target.write(emitter);
+            }
+            target.write(' ');
+            target.write(':');
+            if (cmdType != CmdType.SIMPLE) {
+                target.write(1);
+                target.write(command);
+                target.write(' ');
+                target.write(message);
+                target.write(1);
+            } else {
+                target.write(message);
+            }
         }
     }
 
@@ -451,6 +716,35 @@ public final class ThimBot {
         sendMessage(priority, Arrays.asList(targets), message);
     }
 
+    /**
+     * Send a message, and track its delivery.  The returned future completes once the server has confirmed every line
+     * the message was sent as.  It fails if the server rejects a line, if confirmation does not arrive in time, or if
+     * the connection is lost first.
+     * <p>
+     * This is only precise if the server supports {@code labeled-response} (see {@link #isLabeledResponse()}).
+     * Otherwise, a line is confirmed when the server acknowledges a later line, so the future only means that the
+     * server has processed the message; a rejected message still completes normally.
+     *
+     * @param priority the priority
+     * @param targets the targets
+     * @param message the message
+     * @return the delivery future
+     * @see #setDeliveryTimeout(long, TimeUnit)
+     */
+    public CompletableFuture<Void> sendMessageTracked(final Priority priority, final Collection<String> targets, final String message) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        dispatch(new OutboundMessageEvent(this, priority, new HashSet<>(targets), message, future));
+        return future;
+    }
+
+    public CompletableFuture<Void> sendMessageTracked(final Priority priority, final String target, final String message) {
+        return sendMessageTracked(priority, Collections.singleton(target), message);
+    }
+
+    public CompletableFuture<Void> sendMessageTracked(final String target, final String message) {
+        return sendMessageTracked(Priority.NORMAL, target, message);
+    }
+
     // Action
 
     public void sendAction(final Priority priority, final Collection<String> targets, final String message) throws IOException {
@@ -465,6 +759,29 @@ public final class ThimBot {
         sendAction(Priority.NORMAL, target, message);
     }
 
+    /**
+     * Send an action, and track its delivery.
+     *
+     * @param priority the priority
+     * @param targets the targets
+     * @param message the action text
+     * @return the delivery future
+     * @see #sendMessageTracked(Priority, Collection, String)
+     */
+    public CompletableFuture<Void> sendActionTracked(final Priority priority, final Collection<String> targets, final String message) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        dispatch(new OutboundActionEvent(this, priority, new HashSet<>(targets), message, future));
+        return future;
+    }
+
+    public CompletableFuture<Void> sendActionTracked(final Priority priority, final String target, final String message) {
+        return sendActionTracked(priority, Collections.singleton(target), message);
+    }
+
+    public CompletableFuture<Void> sendActionTracked(final String target, final String message) {
+        return sendActionTracked(Priority.NORMAL, target, message);
+    }
+
     // Notice
 
     public void sendNotice(final Priority priority, final String target, final String message) throws IOException {
@@ -475,6 +792,25 @@ public final class ThimBot {
         sendNotice(Priority.NORMAL, target, message);
     }
 
+    /**
+     * Send a notice, and track its delivery.
+     *
+     * @param priority the priority
+     * @param target the target
+     * @param message the notice text
+     * @return the delivery future
+     * @see #sendMessageTracked(Priority, Collection, String)
+     */
+    public CompletableFuture<Void> sendNoticeTracked(final Priority priority, final String target, final String message) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        dispatch(new OutboundNoticeEvent(this, priority, Collections.singleton(target), message, future));
+        return future;
+    }
+
+    public CompletableFuture<Void> sendNoticeTracked(final String target, final String message) {
+        return sendNoticeTracked(Priority.NORMAL, target, message);
+    }
+
     // CTCP command
 
     public void sendCTCPCommand(final Priority priority, final String target, final String command, final String argument) throws IOException {
@@ -665,6 +1001,113 @@ public final class ThimBot {
         return realName;
     }
 
+    /**
+     * Get the selector loop group used for new connections.
+     *
+     * @return the loop group, or {@code null} if each connection uses its own threads
+     */
+    public SelectorLoopGroup getSelectorLoopGroup() {
+        return loopGroup;
+    }
+
+    /**
+     * Set the selector loop group used for new connections.  When a group is set, plain (non-SSL) connections are
+     * serviced by the group's selector threads instead of a dedicated read and write thread, so many bots may share
+     * a fixed number of threads.  Takes effect on the next connect.
+     *
+     * @param loopGroup the loop group, or {@code null} to use dedicated threads
+     */
+    public void setSelectorLoopGroup(final SelectorLoopGroup loopGroup) {
+        this.loopGroup = loopGroup;
+    }
+
+    /**
+     * Get the executor which runs the read and write loops of blocking connections.
+     *
+     * @return the executor, or {@code null} if each connection starts its own platform threads
+     */
+    public Executor getConnectionExecutor() {
+        return connectionExecutor;
+    }
+
+    /**
+     * Set the executor which runs the read and write loops of blocking connections.  Each connection submits two
+     * long-running tasks.  Use {@link ConnectionExecutors#virtualThreadExecutor()} to run them on virtual threads
+     * where available.  Takes effect on the next connect.
+     *
+     * @param connectionExecutor the executor, or {@code null} to start new platform threads for each connection
+     */
+    public void setConnectionExecutor(final Executor connectionExecutor) {
+        this.connectionExecutor = connectionExecutor;
+    }
+
+    /**
+     * Get the dispatcher which runs handlers for inbound events.
+     *
+     * @return the dispatcher, or {@code null} if handlers run on the connection's reading thread
+     */
+    public EventDispatcher getEventDispatcher() {
+        return eventDispatcher;
+    }
+
+    /**
+     * Set the dispatcher which runs handlers for inbound events.  By default, handlers run on the connection's reading
+     * thread, so a slow handler delays everything after it.  A dispatcher may be shared between bots.
+     *
+     * @param eventDispatcher the dispatcher, or {@code null} to run handlers on the connection's reading thread
+     */
+    public void setEventDispatcher(final EventDispatcher eventDispatcher) {
+        this.eventDispatcher = eventDispatcher;
+    }
+
+    /**
+     * Set the outbound flood control used for new connections.  Up to {@code burst} lines may be sent back-to-back,
+     * after which one line is allowed per refill interval.  Flood control is off by default; a typical ircd allows a
+     * burst of about 5 lines and one line every two seconds after that.  Takes effect on the next connect.
+     *
+     * @param burst the burst size, or 0 to disable flood control
+     * @param refillInterval the time it takes to regain one line
+     * @param unit the unit of the refill interval
+     */
+    public void setFloodControl(final int burst, final long refillInterval, final TimeUnit unit) {
+        if (burst < 0) {
+            throw new IllegalArgumentException("burst must not be negative");
+        }
+        floodRefillNanos = unit.toNanos(refillInterval);
+        floodBurst = burst;
+    }
+
+    /**
+     * Get the fill level of the flood control bucket of the current connection.
+     *
+     * @return the fill level, between 0.0 (empty) and 1.0 (full); 1.0 if there is no connection or no flood control
+     */
+    public double getFloodControlFill() {
+        final LineProtocolConnection connection = this.connection;
+        final FloodControl floodControl = connection == null ? null : connection.getFloodControl();
+        return floodControl == null ? 1.0 : floodControl.getFill();
+    }
+
+    /**
+     * Get the number of lines waiting to be sent at a priority on the current connection.
+     *
+     * @param priority the priority
+     * @return the number of lines, or 0 if there is no connection
+     */
+    public long getOutboundQueueDepth(final Priority priority) {
+        final LineProtocolConnection connection = this.connection;
+        return connection == null ? 0L : connection.getQueueDepth(priority);
+    }
+
+    /**
+     * Get the metrics of this bot.
+     *
+     * @return the metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     public void setVersion(final String version) {
         this.version = version;
     }
@@ -677,11 +1120,18 @@ public final class ThimBot {
         if (eventHandler == null) {
             throw new IllegalArgumentException("eventHandler is null");
         }
-        handlers.add(eventHandler);
+        synchronized (handlers) {
+            handlers.add(eventHandler);
+            handlerChain = new HandlerChain(handlers);
+        }
     }
 
     public boolean removeEventHandler(final EventHandler eventHandler) {
-        return handlers.remove(eventHandler);
+        synchronized (handlers) {
+            final boolean removed = handlers.remove(eventHandler);
+            handlerChain = new HandlerChain(handlers);
+            return removed;
+        }
     }
 
     public Preferences getPreferences() {
@@ -689,9 +1139,12 @@ public final class ThimBot {
     }
 
     void setBotNick(final String nick) {
-        if (! nick.equals(currentNick)) {
+        if (nick != currentNick) {
+            if (! nick.equals(currentNick)) {
+                nickEmitter = new StringEmitter(nick);
+            }
+            // keep the canonical instance so that isBotNick usually succeeds on identity
             currentNick = nick;
-            nickEmitter = new StringEmitter(nick);
         }
     }
 }
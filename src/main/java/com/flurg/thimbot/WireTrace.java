@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.flurg.thimbot.raw.IRCCommand;
+
+/**
+ * A trace of the raw protocol lines and event dispatches of all bots.  Tracing is off by default, and costs a single
+ * volatile read per line while it is off.
+ * <p>
+ * When tracing is on, the I/O threads only copy each line into a bounded queue; a background thread formats the
+ * entries and logs them to {@link #WIRE_LOGGER} at {@code INFO}.  That logger is a child of the bot's IRC logger, so
+ * its records reach the same handlers, but they are published with logging {@linkplain Logging#off() suppressed} so
+ * that they are never relayed back to IRC.  If the queue is full, entries are dropped and counted rather than
+ * slowing down the connection.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class WireTrace {
+
+    /**
+     * The logger which receives trace entries.
+     */
+    public static final Logger WIRE_LOGGER = Logger.getLogger("com.flurg.thimbot.irc.wire");
+
+    private static final int CAPACITY = 4096;
+
+    private static volatile boolean enabled;
+    private static volatile boolean dispatchEnabled;
+    private static volatile int sampleRate = 1;
+    private static volatile Set<IRCCommand> commands;
+
+    private static final AtomicLong counter = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final ArrayBlockingQueue<Entry> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private static Thread drainThread;
+
+    private WireTrace() {
+    }
+
+    /**
+     * Determine whether line tracing is on.  Callers should check this before gathering anything to trace.
+     *
+     * @return {@code true} if tracing is on
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Determine whether event dispatches are traced as well as lines.
+     *
+     * @return {@code true} if dispatch tracing is on
+     */
+    public static boolean isDispatchEnabled() {
+        return dispatchEnabled;
+    }
+
+    /**
+     * Turn on line tracing.
+     *
+     * @param sampleRate trace one in every {@code sampleRate} lines; 1 traces every line
+     * @param commands the commands to trace, or none to trace all commands
+     */
+    public static synchronized void enable(int sampleRate, IRCCommand... commands) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("sampleRate must be at least 1");
+        }
+        WireTrace.sampleRate = sampleRate;
+        WireTrace.commands = commands.length == 0 ? null : EnumSet.copyOf(Arrays.asList(commands));
+        if (drainThread == null) {
+            final Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    drain();
+                }
+            }, "IRC Wire Trace");
+            thread.setDaemon(true);
+            thread.start();
+            drainThread = thread;
+        }
+        enabled = true;
+    }
+
+    /**
+     * Turn off line and dispatch tracing.  Entries which are already queued are still logged.
+     */
+    public static synchronized void disable() {
+        enabled = false;
+        dispatchEnabled = false;
+    }
+
+    /**
+     * Turn dispatch tracing on or off.  Dispatches are only traced while line tracing is on; they are not sampled
+     * or filtered.
+     *
+     * @param enabled {@code true} to trace dispatches
+     */
+    public static void setDispatchEnabled(boolean enabled) {
+        dispatchEnabled = enabled;
+    }
+
+    /**
+     * Get the number of entries which were dropped because the trace queue was full.
+     *
+     * @return the number of dropped entries
+     */
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Trace an inbound line.  The line is copied before this method returns.
+     *
+     * @param bytes the buffer
+     * @param offs the offset of the line
+     * @param len the length of the line, excluding the terminator
+     */
+    public static void inbound(byte[] bytes, int offs, int len) {
+        line(">>> ", bytes, offs, len);
+    }
+
+    /**
+     * Trace an outbound line.  The line is copied before this method returns.
+     *
+     * @param bytes the buffer
+     * @param offs the offset of the line
+     * @param len the length of the line, excluding the terminator
+     */
+    public static void outbound(byte[] bytes, int offs, int len) {
+        line("<<< ", bytes, offs, len);
+    }
+
+    /**
+     * Trace an event dispatch.  The event is formatted by the trace thread.
+     *
+     * @param event the event
+     */
+    public static void dispatch(Object event) {
+        if (enabled && dispatchEnabled) {
+            offer(new Entry("Dispatching ", null, event));
+        }
+    }
+
+    private static void line(final String label, final byte[] bytes, final int offs, final int len) {
+        if (! enabled) {
+            return;
+        }
+        final Set<IRCCommand> commands = WireTrace.commands;
+        if (commands != null && ! commands.contains(commandOf(bytes, offs, len))) {
+            return;
+        }
+        final int sampleRate = WireTrace.sampleRate;
+        if (sampleRate > 1 && counter.getAndIncrement() % sampleRate != 0) {
+            return;
+        }
+        offer(new Entry(label, Arrays.copyOfRange(bytes, offs, offs + len), null));
+    }
+
+    private static void offer(final Entry entry) {
+        if (! queue.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private static IRCCommand commandOf(final byte[] bytes, final int offs, final int len) {
+        final int end = offs + len;
+        int i = offs;
+        // skip tags and prefix
+        while (i < end && (bytes[i] == '@' || bytes[i] == ':')) {
+            while (i < end && bytes[i] != ' ') i++;
+            while (i < end && bytes[i] == ' ') i++;
+        }
+        int s = i;
+        while (i < end && bytes[i] != ' ') i++;
+        return IRCCommand.of(bytes, s, i - s);
+    }
+
+    static void drain() {
+        // trace records must never be relayed to IRC, or tracing would feed itself
+        Logging.off();
+        for (;;) {
+            final Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (WIRE_LOGGER.isLoggable(Level.INFO)) try {
+                WIRE_LOGGER.log(Level.INFO, entry.toString());
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+
+    static final class Entry {
+        final String label;
+        final byte[] line;
+        final Object event;
+
+        Entry(final String label, final byte[] line, final Object event) {
+            this.label = label;
+            this.line = line;
+            this.event = event;
+        }
+
+        public String toString() {
+            return label + (line == null ? String.valueOf(event) : new String(line, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -27,12 +27,16 @@ import com.flurg.thimbot.util.IRCStringUtil;
 public abstract class AbstractTextEvent extends Event implements TextEvent {
 
     private final String rawMessage;
-    private final String message;
+    // deformatted on first use
+    private String message;
 
     protected AbstractTextEvent(final ThimBot bot, final String rawMessage) {
-        super(bot);
+        this(bot, MessageTags.NONE, rawMessage);
+    }
+
+    protected AbstractTextEvent(final ThimBot bot, final MessageTags tags, final String rawMessage) {
+        super(bot, tags);
         this.rawMessage = rawMessage;
-        message = IRCStringUtil.deformat(rawMessage);
     }
 
     public String getRawText() {
@@ -40,6 +44,10 @@ public abstract class AbstractTextEvent extends Event implements TextEvent {
     }
 
     public String getText() {
+        String message = this.message;
+        if (message == null) {
+            this.message = message = IRCStringUtil.deformat(rawMessage);
+        }
         return message;
     }
 }
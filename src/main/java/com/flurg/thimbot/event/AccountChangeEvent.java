@@ -19,7 +19,6 @@
 package com.flurg.thimbot.event;
 
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -32,11 +31,15 @@ public final class AccountChangeEvent extends Event implements InboundEvent, Fro
     private final boolean fromMe;
 
     public AccountChangeEvent(final ThimBot bot, final String user, final String accountName) {
-        super(bot);
+        this(bot, MessageTags.NONE, user, accountName);
+    }
+
+    public AccountChangeEvent(final ThimBot bot, final MessageTags tags, final String user, final String accountName) {
+        super(bot, tags);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
+        nick = bot.nickOf(user);
         this.accountName = accountName;
-        fromMe = bot.getBotNick().equals(nick);
+        fromMe = bot.isBotNick(nick);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
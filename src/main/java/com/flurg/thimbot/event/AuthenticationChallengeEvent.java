@@ -30,7 +30,11 @@ public final class AuthenticationChallengeEvent extends Event implements Inbound
     private final byte[] bytes;
 
     public AuthenticationChallengeEvent(final ThimBot bot, final byte[] bytes) {
-        super(bot);
+        this(bot, MessageTags.NONE, bytes);
+    }
+
+    public AuthenticationChallengeEvent(final ThimBot bot, final MessageTags tags, final byte[] bytes) {
+        super(bot, tags);
         this.bytes = bytes;
     }
 
@@ -26,7 +26,11 @@ import com.flurg.thimbot.ThimBot;
 public final class AuthenticationFailedEvent extends AbstractTextEvent implements InboundEvent, TextEvent {
 
     public AuthenticationFailedEvent(final ThimBot bot, final String rawMessage) {
-        super(bot, rawMessage);
+        this(bot, MessageTags.NONE, rawMessage);
+    }
+
+    public AuthenticationFailedEvent(final ThimBot bot, final MessageTags tags, final String rawMessage) {
+        super(bot, tags, rawMessage);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
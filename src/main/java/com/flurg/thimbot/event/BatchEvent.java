@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.flurg.thimbot.ThimBot;
+
+/**
+ * An IRCv3 batch: a group of inbound events which the server framed with {@code BATCH +ref} and {@code BATCH -ref}.
+ * The batch as a whole is passed through the handler chain once.  Afterwards each member event is dispatched on its
+ * own, in the usual way, but only to the handlers which do not override {@code handleEvent(BatchEvent)}, so that
+ * handlers which do not know about batches still see every event while batch-aware handlers see each one only once.
+ * Nested batches appear as {@code BatchEvent} members of their enclosing batch; their members are dispatched
+ * individually along with those of the outermost batch.
+ * <p>
+ * A batch which grows very large, or which stays open while too many others are opened, is passed on early; in
+ * that case the same batch reference may be seen in more than one {@code BatchEvent}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class BatchEvent extends Event implements InboundEvent {
+
+    private final String reference;
+    private final String type;
+    private final List<String> parameters;
+    private final List<Event> events;
+
+    public BatchEvent(final ThimBot bot, final MessageTags tags, final String reference, final String type, final List<String> parameters, final List<Event> events) {
+        super(bot, tags);
+        this.reference = reference;
+        this.type = type;
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+        for (Event event : events) {
+            event.batchMember = true;
+        }
+    }
+
+    public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
+        handler.handleEvent(context, this);
+    }
+
+    /**
+     * Get the reference tag which the server used to identify this batch.
+     *
+     * @return the reference tag
+     */
+    public String getReference() {
+        return reference;
+    }
+
+    /**
+     * Get the batch type, for example {@code netsplit}, {@code netjoin} or {@code chathistory}.
+     *
+     * @return the batch type
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Get the additional parameters given after the batch type.
+     *
+     * @return the parameters (not {@code null})
+     */
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Get the member events of this batch, in the order they were received.
+     *
+     * @return the member events
+     */
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    protected void toStringAddendum(final StringBuilder b) {
+        b.append(" type ").append(type).append(" with ").append(events.size()).append(" events");
+    }
+}
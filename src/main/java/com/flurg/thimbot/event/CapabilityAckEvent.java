@@ -33,12 +33,20 @@ public final class CapabilityAckEvent extends Event implements InboundEvent {
     private final Set<String> capabilities;
 
     public CapabilityAckEvent(final ThimBot bot, final String... capabilities) {
-        super(bot);
+        this(bot, MessageTags.NONE, capabilities);
+    }
+
+    public CapabilityAckEvent(final ThimBot bot, final MessageTags tags, final String... capabilities) {
+        super(bot, tags);
         this.capabilities = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(capabilities)));
     }
 
     public CapabilityAckEvent(final ThimBot bot, final Collection<String> capabilities) {
-        super(bot);
+        this(bot, MessageTags.NONE, capabilities);
+    }
+
+    public CapabilityAckEvent(final ThimBot bot, final MessageTags tags, final Collection<String> capabilities) {
+        super(bot, tags);
         this.capabilities = Collections.unmodifiableSet(new HashSet<>(capabilities));
     }
 
@@ -33,7 +33,11 @@ public final class CapabilityListEvent extends Event implements InboundEvent {
     private final Map<String, Capability> capabilities;
 
     public CapabilityListEvent(final ThimBot bot, final String... capabilities) {
-        super(bot);
+        this(bot, MessageTags.NONE, capabilities);
+    }
+
+    public CapabilityListEvent(final ThimBot bot, final MessageTags tags, final String... capabilities) {
+        super(bot, tags);
         final HashMap<String, Capability> map = new HashMap<>();
         for (String capability : capabilities) {
             final Capability cap = Capability.fromString(capability);
@@ -45,7 +49,11 @@ public final class CapabilityListEvent extends Event implements InboundEvent {
     }
 
     public CapabilityListEvent(final ThimBot bot, final Collection<String> capabilities) {
-        super(bot);
+        this(bot, MessageTags.NONE, capabilities);
+    }
+
+    public CapabilityListEvent(final ThimBot bot, final MessageTags tags, final Collection<String> capabilities) {
+        super(bot, tags);
         final HashMap<String, Capability> map = new HashMap<>();
         for (String capability : capabilities) {
             final Capability cap = Capability.fromString(capability);
@@ -22,7 +22,6 @@ import java.io.IOException;
 
 import com.flurg.thimbot.Priority;
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -35,11 +34,15 @@ public final class ChannelActionEvent extends AbstractTextEvent implements Inbou
     private final boolean fromMe;
 
     public ChannelActionEvent(final ThimBot bot, final String user, final String channel, final String rawMessage) {
-        super(bot, rawMessage);
+        this(bot, MessageTags.NONE, user, channel, rawMessage);
+    }
+
+    public ChannelActionEvent(final ThimBot bot, final MessageTags tags, final String user, final String channel, final String rawMessage) {
+        super(bot, tags, rawMessage);
         this.channel = channel;
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
-        fromMe = getBot().getBotNick().equals(nick);
+        nick = bot.nickOf(user);
+        fromMe = bot.isBotNick(nick);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
@@ -19,7 +19,6 @@
 package com.flurg.thimbot.event;
 
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -33,13 +32,17 @@ public final class ChannelCTCPResponseEvent extends Event implements FromUserEve
     private final boolean fromMe;
 
     public ChannelCTCPResponseEvent(final ThimBot bot, final String user, final String channel, final String command, final String argument) {
-        super(bot);
+        this(bot, MessageTags.NONE, user, channel, command, argument);
+    }
+
+    public ChannelCTCPResponseEvent(final ThimBot bot, final MessageTags tags, final String user, final String channel, final String command, final String argument) {
+        super(bot, tags);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
+        nick = bot.nickOf(user);
         this.channel = channel;
         this.command = command;
         this.argument = argument;
-        fromMe = getBot().getBotNick().equals(nick);
+        fromMe = bot.isBotNick(nick);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
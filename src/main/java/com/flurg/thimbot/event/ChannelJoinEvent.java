@@ -19,7 +19,6 @@
 package com.flurg.thimbot.event;
 
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -32,11 +31,15 @@ public final class ChannelJoinEvent extends Event implements FromUserEvent, Chan
     private final boolean fromMe;
 
     public ChannelJoinEvent(final ThimBot bot, final String user, final String channel) {
-        super(bot);
+        this(bot, MessageTags.NONE, user, channel);
+    }
+
+    public ChannelJoinEvent(final ThimBot bot, final MessageTags tags, final String user, final String channel) {
+        super(bot, tags);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
+        nick = bot.nickOf(user);
         this.channel = channel;
-        fromMe = getBot().getBotNick().equals(nick);
+        fromMe = bot.isBotNick(nick);
     }
 
     public String getFromNick() {
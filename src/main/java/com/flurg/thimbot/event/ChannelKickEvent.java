@@ -34,18 +34,22 @@ public final class ChannelKickEvent extends Event implements FromUserEvent, Mult
     private final String channel;
     private final String target;
     private final String rawReason;
-    private final String reason;
+    // deformatted on first use
+    private String reason;
     private final boolean fromMe;
 
     public ChannelKickEvent(final ThimBot bot, final String user, final String channel, final String target, final String rawReason) {
-        super(bot);
+        this(bot, MessageTags.NONE, user, channel, target, rawReason);
+    }
+
+    public ChannelKickEvent(final ThimBot bot, final MessageTags tags, final String user, final String channel, final String target, final String rawReason) {
+        super(bot, tags);
         this.user = user;
         this.target = target;
-        nick = IRCStringUtil.nickOf(user);
+        nick = bot.nickOf(user);
         this.channel = channel;
         this.rawReason = rawReason;
-        reason = IRCStringUtil.deformat(rawReason);
-        fromMe = getBot().getBotNick().equals(nick);
+        fromMe = bot.isBotNick(nick);
     }
 
     public String getFromNick() {
@@ -69,6 +73,10 @@ public final class ChannelKickEvent extends Event implements FromUserEvent, Mult
     }
 
     public String getText() {
+        String reason = this.reason;
+        if (reason == null) {
+            this.reason = reason = IRCStringUtil.deformat(rawReason);
+        }
         return reason;
     }
 
@@ -81,6 +89,6 @@ public final class ChannelKickEvent extends Event implements FromUserEvent, Mult
     }
 
     public String toString() {
-        return super.toString() + " \"" + reason + "\"";
+        return super.toString() + " \"" + getText() + "\"";
     }
 }
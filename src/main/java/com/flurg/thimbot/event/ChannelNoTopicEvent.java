@@ -27,7 +27,11 @@ public final class ChannelNoTopicEvent extends Event implements ChannelEvent, In
     private final String channel;
 
     public ChannelNoTopicEvent(final ThimBot bot, final String channel) {
-        super(bot);
+        this(bot, MessageTags.NONE, channel);
+    }
+
+    public ChannelNoTopicEvent(final ThimBot bot, final MessageTags tags, final String channel) {
+        super(bot, tags);
         this.channel = channel;
     }
 
@@ -19,7 +19,6 @@
 package com.flurg.thimbot.event;
 
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -32,11 +31,15 @@ public final class ChannelNoticeEvent extends AbstractTextEvent implements Inbou
     private final boolean fromMe;
 
     public ChannelNoticeEvent(final ThimBot bot, final String user, final String channel, final String rawMessage) {
-        super(bot, rawMessage);
+        this(bot, MessageTags.NONE, user, channel, rawMessage);
+    }
+
+    public ChannelNoticeEvent(final ThimBot bot, final MessageTags tags, final String user, final String channel, final String rawMessage) {
+        super(bot, tags, rawMessage);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
+        nick = bot.nickOf(user);
         this.channel = channel;
-        fromMe = getBot().getBotNick().equals(nick);
+        fromMe = bot.isBotNick(nick);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
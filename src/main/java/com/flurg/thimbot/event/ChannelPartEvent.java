@@ -30,17 +30,21 @@ public final class ChannelPartEvent extends Event implements FromUserEvent, Chan
     private final String user;
     private final String channel;
     private final String rawReason;
-    private final String reason;
+    // deformatted on first use
+    private String reason;
     private final boolean fromMe;
 
     public ChannelPartEvent(final ThimBot bot, final String user, final String channel, final String rawReason) {
-        super(bot);
+        this(bot, MessageTags.NONE, user, channel, rawReason);
+    }
+
+    public ChannelPartEvent(final ThimBot bot, final MessageTags tags, final String user, final String channel, final String rawReason) {
+        super(bot, tags);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
+        nick = bot.nickOf(user);
         this.channel = channel;
         this.rawReason = rawReason;
-        reason = IRCStringUtil.deformat(rawReason);
-        fromMe = getBot().getBotNick().equals(nick);
+        fromMe = bot.isBotNick(nick);
     }
 
     public String getFromNick() {
@@ -64,6 +68,10 @@ public final class ChannelPartEvent extends Event implements FromUserEvent, Chan
     }
 
     public String getText() {
+        String reason = this.reason;
+        if (reason == null) {
+            this.reason = reason = IRCStringUtil.deformat(rawReason);
+        }
         return reason;
     }
 
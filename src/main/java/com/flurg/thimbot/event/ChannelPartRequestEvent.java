@@ -30,14 +30,14 @@ public final class ChannelPartRequestEvent extends Event implements OutboundEven
     private final Priority priority;
     private final String channel;
     private final String rawReason;
-    private final String reason;
+    // deformatted on first use
+    private String reason;
 
     public ChannelPartRequestEvent(final ThimBot bot, final Priority priority, final String channel, final String rawReason) {
         super(bot);
         this.priority = priority;
         this.channel = channel;
         this.rawReason = rawReason;
-        reason = IRCStringUtil.deformat(rawReason);
     }
 
     public String getChannel() {
@@ -49,6 +49,10 @@ public final class ChannelPartRequestEvent extends Event implements OutboundEven
     }
 
     public String getText() {
+        String reason = this.reason;
+        if (reason == null) {
+            this.reason = reason = IRCStringUtil.deformat(rawReason);
+        }
         return reason;
     }
 
@@ -29,14 +29,18 @@ public final class ChannelRedirectEvent extends Event implements ChannelEvent, I
     private final String from;
     private final String to;
     private final String rawReason;
-    private final String reason;
+    // deformatted on first use
+    private String reason;
 
     public ChannelRedirectEvent(final ThimBot bot, final String from, final String to, final String rawReason) {
-        super(bot);
+        this(bot, MessageTags.NONE, from, to, rawReason);
+    }
+
+    public ChannelRedirectEvent(final ThimBot bot, final MessageTags tags, final String from, final String to, final String rawReason) {
+        super(bot, tags);
         this.from = from;
         this.to = to;
         this.rawReason = rawReason;
-        reason = IRCStringUtil.deformat(rawReason);
     }
 
     public String getRawText() {
@@ -44,6 +48,10 @@ public final class ChannelRedirectEvent extends Event implements ChannelEvent, I
     }
 
     public String getText() {
+        String reason = this.reason;
+        if (reason == null) {
+            this.reason = reason = IRCStringUtil.deformat(rawReason);
+        }
         return reason;
     }
 
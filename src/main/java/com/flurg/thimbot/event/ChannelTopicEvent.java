@@ -27,7 +27,11 @@ public final class ChannelTopicEvent extends AbstractTextEvent implements Inboun
     private final String channel;
 
     public ChannelTopicEvent(final ThimBot bot, final String channel, final String topic) {
-        super(bot, topic);
+        this(bot, MessageTags.NONE, channel, topic);
+    }
+
+    public ChannelTopicEvent(final ThimBot bot, final MessageTags tags, final String channel, final String topic) {
+        super(bot, tags, topic);
         this.channel = channel;
     }
 
@@ -26,7 +26,11 @@ import com.flurg.thimbot.ThimBot;
 public final class ErrorEvent extends AbstractTextEvent implements InboundEvent, TextEvent {
 
     public ErrorEvent(final ThimBot bot, final String description) {
-        super(bot, description);
+        this(bot, MessageTags.NONE, description);
+    }
+
+    public ErrorEvent(final ThimBot bot, final MessageTags tags, final String description) {
+        super(bot, tags, description);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
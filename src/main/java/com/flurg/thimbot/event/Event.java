@@ -31,9 +31,17 @@ public abstract class Event implements CommonEvent {
 
     private final long seq;
     private final long clockTime;
+    private final MessageTags tags;
+    // set once the event has been gathered into a batch
+    volatile boolean batchMember;
 
     protected Event(final ThimBot bot) {
+        this(bot, MessageTags.NONE);
+    }
+
+    protected Event(final ThimBot bot, final MessageTags tags) {
         this.bot = bot;
+        this.tags = tags;
         clockTime = System.currentTimeMillis();
         seq = bot.getEventSequence();
     }
@@ -42,10 +50,35 @@ public abstract class Event implements CommonEvent {
         return seq;
     }
 
+    /**
+     * Get the time of this event.  If the server gave a {@code time} tag, that time is used; otherwise this is the
+     * local time at which the event was created.
+     *
+     * @return the time in milliseconds since the epoch
+     */
     public long getClockTime() {
+        final long serverTime = tags.getServerTime();
+        return serverTime == -1L ? clockTime : serverTime;
+    }
+
+    /**
+     * Get the local time at which this event was created.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getLocalClockTime() {
         return clockTime;
     }
 
+    /**
+     * Get the message tags of the line which produced this event.
+     *
+     * @return the tags (not {@code null})
+     */
+    public MessageTags getTags() {
+        return tags;
+    }
+
     public ThimBot getBot() {
         return bot;
     }
@@ -47,6 +47,10 @@ public abstract class EventHandler {
         handleEvent(context, (Event) event);
     }
 
+    public void handleEvent(final EventHandlerContext context, final BatchEvent event) throws Exception {
+        handleEvent(context, (Event) event);
+    }
+
     public void handleEvent(final EventHandlerContext context, final OutboundAwayRequestEvent event) throws Exception {
         handleEvent(context, (Event) event);
     }
@@ -19,22 +19,35 @@
 package com.flurg.thimbot.event;
 
 import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
+
+import com.flurg.thimbot.FlightRecording;
+import com.flurg.thimbot.Metrics;
+import com.flurg.thimbot.ThimBot;
+import com.flurg.thimbot.WireTrace;
 
 /**
- * The context for event handlers.
+ * The context for event handlers.  Each thread keeps one context which is reused for every top-level dispatch on that
+ * thread; it is reset rather than reallocated between dispatches.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class EventHandlerContext {
-    private final List<EventHandler> chain;
-    private final ListIterator<EventHandler> iterator;
-    private final Map<HandlerKey<?>, Object> contextMap = new HashMap<>();
-    private final Deque<Event> pending = new ArrayDeque<>();
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private HandlerChain chain;
+    private int index;
+    // context values, indexed by key; slots at or above valuesHigh are always null
+    private Object[] values = NO_VALUES;
+    private int valuesHigh;
+    private final ArrayDeque<Event> pending = new ArrayDeque<>();
+    // only used in the thread's own context: the context which is currently dispatching on this thread, if any
+    private EventHandlerContext current;
+    // the metrics of the event being timed, or null if it is not being timed
+    private Metrics metrics;
+    // the time spent in the handlers after the current one
+    private long childNanos;
 
     /**
      * Construct a new instance.
@@ -42,8 +55,16 @@ public final class EventHandlerContext {
      * @param chain the chain to pass events through
      */
     public EventHandlerContext(final List<EventHandler> chain) {
+        this(new HandlerChain(chain));
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param chain the chain to pass events through
+     */
+    public EventHandlerContext(final HandlerChain chain) {
         this.chain = chain;
-        iterator = chain.listIterator();
     }
 
     /**
@@ -53,22 +74,57 @@ public final class EventHandlerContext {
      * @param event the event
      */
     public void next(Event event) {
-        if (iterator.hasNext()) try {
-            event.dispatch(this, iterator.next());
+        final int index = this.index;
+        // skip straight to the next handler which actually handles this type of event
+        final int target = chain.getTable(event)[index];
+        final EventHandler[] handlers = chain.handlers;
+        if (target >= handlers.length) {
+            return;
+        }
+        final Metrics metrics = this.metrics;
+        if (metrics != null) {
+            timedNext(metrics, event, handlers[target], index, target);
+            return;
+        }
+        final Object token = FlightRecording.dispatchBegin();
+        try {
+            this.index = target + 1;
+            event.dispatch(this, handlers[target]);
         } catch (Throwable e) {
             e.printStackTrace();
         } finally {
-            iterator.previous();
+            this.index = index;
+            FlightRecording.dispatchEnd(token, event, handlers[target]);
+        }
+    }
+
+    private void timedNext(final Metrics metrics, final Event event, final EventHandler handler, final int index, final int target) {
+        final long outerChildNanos = childNanos;
+        childNanos = 0L;
+        final Object token = FlightRecording.dispatchBegin();
+        final long start = System.nanoTime();
+        try {
+            this.index = target + 1;
+            event.dispatch(this, handler);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            this.index = index;
+            FlightRecording.dispatchEnd(token, event, handler);
+            final long elapsed = System.nanoTime() - start;
+            metrics.recordHandlerTime(handler.getClass(), elapsed - childNanos);
+            childNanos = outerChildNanos + elapsed;
         }
     }
 
     @SuppressWarnings("unchecked")
     public <T> T getContextValue(HandlerKey<T> key) {
-        Object value = contextMap.get(key);
+        final int index = key.index;
+        Object value = index < valuesHigh ? values[index] : null;
         if (value == null) {
             value = key.initialValue();
             if (value != null) {
-                contextMap.put(key, value);
+                store(index, value);
             }
         }
         return (T) value;
@@ -76,10 +132,34 @@ public final class EventHandlerContext {
 
     @SuppressWarnings("unchecked")
     public <T> T putContextValue(HandlerKey<T> key, T value) {
-        return (T) contextMap.put(key, value);
+        final int index = key.index;
+        final Object old = index < valuesHigh ? values[index] : null;
+        store(index, value);
+        return (T) old;
+    }
+
+    private void store(final int index, final Object value) {
+        Object[] values = this.values;
+        if (index >= values.length) {
+            this.values = values = Arrays.copyOf(values, Math.max(index + 1, values.length << 1));
+        }
+        values[index] = value;
+        if (index >= valuesHigh) {
+            valuesHigh = index + 1;
+        }
     }
 
-    private static final ThreadLocal<EventHandlerContext> C = new ThreadLocal<>();
+    private void reset() {
+        Arrays.fill(values, 0, valuesHigh, null);
+        valuesHigh = 0;
+        pending.clear();
+    }
+
+    private static final ThreadLocal<EventHandlerContext> LOCAL = new ThreadLocal<EventHandlerContext>() {
+        protected EventHandlerContext initialValue() {
+            return new EventHandlerContext((HandlerChain) null);
+        }
+    };
 
     /**
      * Re-dispatch the given event to the start of the chain.
@@ -87,28 +167,65 @@ public final class EventHandlerContext {
      * @param event the event
      */
     public void redispatch(Event event) {
-        System.out.printf("Dispatching %s%n", event);
         if (event == null) return;
-        EventHandlerContext current = C.get();
+        if (WireTrace.isEnabled()) {
+            WireTrace.dispatch(event);
+        }
+        final EventHandlerContext local = LOCAL.get();
+        final EventHandlerContext current = local.current;
         if (current != null) {
             current.pending.add(event);
         } else {
-            C.set(this);
-            try {
-                do {
+            run(local, event);
+        }
+    }
+
+    private void run(final EventHandlerContext local, Event event) {
+        local.current = this;
+        try {
+            do {
+                final ThimBot bot = event.getBot();
+                final Metrics metrics = bot == null ? null : bot.getMetrics();
+                if (metrics != null && metrics.isEnabled()) {
+                    this.metrics = metrics;
+                    childNanos = 0L;
+                    final long start = System.nanoTime();
+                    try {
+                        next(event);
+                    } finally {
+                        this.metrics = null;
+                        metrics.recordDispatchTime(event.getClass(), System.nanoTime() - start);
+                    }
+                } else {
                     next(event);
-                } while ((event = pending.pollFirst()) != null);
-            } finally {
-                C.remove();
-            }
+                }
+            } while ((event = pending.pollFirst()) != null);
+        } finally {
+            local.current = null;
+            reset();
         }
     }
 
     public static void dispatch(final List<EventHandler> chain, final Event event) {
-        EventHandlerContext context = C.get();
-        if (context == null) {
-            context = new EventHandlerContext(chain);
+        dispatch(new HandlerChain(chain), event);
+    }
+
+    public static void dispatch(final HandlerChain chain, final Event event) {
+        if (event == null) return;
+        if (WireTrace.isEnabled()) {
+            WireTrace.dispatch(event);
+        }
+        final EventHandlerContext local = LOCAL.get();
+        final EventHandlerContext current = local.current;
+        if (current != null) {
+            current.pending.add(event);
+        } else {
+            local.chain = chain;
+            try {
+                local.run(local, event);
+            } finally {
+                local.chain = null;
+            }
         }
-        context.redispatch(event);
     }
 }
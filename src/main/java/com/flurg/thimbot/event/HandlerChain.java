@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.event;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of a handler chain, along with a dispatch table which lets each event skip the handlers that
+ * do not override the {@code handleEvent} overload for its type.  Such handlers would only pass the event along
+ * to the next handler, so skipping them does not change behavior.
+ * <p>
+ * Events which were delivered as part of a {@link BatchEvent} have tables of their own, which also skip the handlers
+ * that override {@code handleEvent(BatchEvent)}, since those have already seen the event as part of its batch.
+ * <p>
+ * The handler classes are examined by reflection once, when the chain is built; the table for each event class is
+ * computed the first time an event of that class is dispatched.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class HandlerChain {
+
+    /**
+     * For each handler class, the event parameter types of the {@code handleEvent} overloads it overrides.
+     */
+    private static final ClassValue<Set<Class<?>>> OVERRIDDEN = new ClassValue<Set<Class<?>>>() {
+        protected Set<Class<?>> computeValue(final Class<?> type) {
+            final Set<Class<?>> set = new HashSet<>();
+            try {
+                for (Class<?> c = type; c != null && c != EventHandler.class; c = c.getSuperclass()) {
+                    for (Method method : c.getDeclaredMethods()) {
+                        final Class<?>[] parameterTypes = method.getParameterTypes();
+                        if (method.getName().equals("handleEvent") && parameterTypes.length == 2 && parameterTypes[0] == EventHandlerContext.class) {
+                            set.add(parameterTypes[1]);
+                        }
+                    }
+                }
+            } catch (SecurityException e) {
+                // can't tell, so assume the handler wants everything
+                set.add(Event.class);
+            }
+            return set;
+        }
+    };
+
+    /**
+     * For each event class, the parameter type of the {@code handleEvent} overload which its {@code dispatch} method
+     * calls, i.e. the most specific one which accepts it.
+     */
+    private static final ClassValue<Class<?>> OVERLOAD = new ClassValue<Class<?>>() {
+        protected Class<?> computeValue(final Class<?> type) {
+            Class<?> best = Event.class;
+            for (Method method : EventHandler.class.getMethods()) {
+                final Class<?>[] parameterTypes = method.getParameterTypes();
+                if (method.getName().equals("handleEvent") && parameterTypes.length == 2 && parameterTypes[1].isAssignableFrom(type) && best.isAssignableFrom(parameterTypes[1])) {
+                    best = parameterTypes[1];
+                }
+            }
+            return best;
+        }
+    };
+
+    private static final EventHandler[] NO_HANDLERS = new EventHandler[0];
+
+    final EventHandler[] handlers;
+    private final ConcurrentHashMap<Class<?>, int[]> tables = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, int[]> memberTables = new ConcurrentHashMap<>();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param handlers the handlers, in dispatch order
+     */
+    public HandlerChain(final Collection<EventHandler> handlers) {
+        this.handlers = handlers.toArray(NO_HANDLERS);
+        for (EventHandler handler : this.handlers) {
+            OVERRIDDEN.get(handler.getClass());
+        }
+    }
+
+    /**
+     * Get the number of handlers in the chain.
+     *
+     * @return the number of handlers
+     */
+    public int size() {
+        return handlers.length;
+    }
+
+    /**
+     * Get the dispatch table for an event class.  Element {@code i} holds the index of the first handler at or after
+     * position {@code i} which handles the event class, or the chain length if there is none.
+     *
+     * @param eventClass the event class
+     * @return the table, of length {@code size() + 1}
+     */
+    int[] getTable(final Class<?> eventClass) {
+        return getTable(eventClass, false);
+    }
+
+    /**
+     * Get the dispatch table for an event.
+     *
+     * @param event the event
+     * @return the table, of length {@code size() + 1}
+     */
+    int[] getTable(final Event event) {
+        return getTable(event.getClass(), event.batchMember);
+    }
+
+    private int[] getTable(final Class<?> eventClass, final boolean batchMember) {
+        final ConcurrentHashMap<Class<?>, int[]> tables = batchMember ? memberTables : this.tables;
+        int[] table = tables.get(eventClass);
+        if (table == null) {
+            table = computeTable(eventClass, batchMember);
+            final int[] appearing = tables.putIfAbsent(eventClass, table);
+            if (appearing != null) {
+                table = appearing;
+            }
+        }
+        return table;
+    }
+
+    private int[] computeTable(final Class<?> eventClass, final boolean batchMember) {
+        final Class<?> overload = OVERLOAD.get(eventClass);
+        final EventHandler[] handlers = this.handlers;
+        final int length = handlers.length;
+        final int[] table = new int[length + 1];
+        table[length] = length;
+        for (int i = length - 1; i >= 0; i --) {
+            final Set<Class<?>> overridden = OVERRIDDEN.get(handlers[i].getClass());
+            final boolean handles = overridden.contains(overload) || overridden.contains(Event.class);
+            table[i] = handles && ! (batchMember && overridden.contains(BatchEvent.class)) ? i : table[i + 1];
+        }
+        return table;
+    }
+}
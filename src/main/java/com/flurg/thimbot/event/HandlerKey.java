@@ -18,11 +18,20 @@
 
 package com.flurg.thimbot.event;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
+ * A key for a value which is shared by the handlers of one dispatch.  Each key is given its own slot index when it is
+ * created, so keys should be created once and kept in constants rather than created per event.
+ *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public class HandlerKey<T> {
 
+    private static final AtomicInteger keySequence = new AtomicInteger();
+
+    final int index = keySequence.getAndIncrement();
+
     public T initialValue() {
         return null;
     }
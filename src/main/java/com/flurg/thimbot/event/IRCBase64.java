@@ -45,9 +45,9 @@ public final class IRCBase64 {
     public static void encode(byte[] original, int offset, int len, ByteOutput target) throws IOException {
         final byte[] alphabet = IRCBase64.alphabet;
         int count = 0;
-        byte s;
+        int s;
         while (count < len) {
-            s = original[offset + count++];
+            s = original[offset + count++] & 0xff;
             // first the top 6 bits of the first byte
             target.write(alphabet[s >>> 2]);
             if (count == len) {
@@ -58,7 +58,7 @@ public final class IRCBase64 {
                 return;
             }
             // bottom 2 bits + top 4 bits of second byte
-            target.write(alphabet[(s << 4 | (s = original[offset + count++]) >>> 4) & 0x3f]);
+            target.write(alphabet[(s << 4 | (s = original[offset + count++] & 0xff) >>> 4) & 0x3f]);
             if (count == len) {
                 // bottom 4 bits + 2 zero bits
                 target.write(alphabet[s << 2 & 0x3f]);
@@ -66,7 +66,7 @@ public final class IRCBase64 {
                 return;
             }
             // bottom 4 bits + top 2 bits of third byte
-            target.write(alphabet[(s << 2 | (s = original[offset + count++]) >>> 6) & 0x3f]);
+            target.write(alphabet[(s << 2 | (s = original[offset + count++] & 0xff) >>> 6) & 0x3f]);
             // bottom 6 bits of third byte
             target.write(alphabet[s & 0x3f]);
         }
@@ -124,7 +124,7 @@ public final class IRCBase64 {
                 }
                 return count;
             }
-            target.write((byte) (t2 << 4 | t1 >>> 4));
+            target.write((byte) (t2 << 4 | t1 >>> 2));
 
             // bottom 6 bits of the third byte - or = if it's the end
             t2 = decodeByte(encoded[offset + count++]);
@@ -140,7 +140,7 @@ public final class IRCBase64 {
     }
 
     public static int decode(String encoded, int offset, int len, ByteOutput target) throws IllegalArgumentException, IOException {
-        byte[] bytes = encoded.substring(offset, len).getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = encoded.substring(offset, offset + len).getBytes(StandardCharsets.UTF_8);
         return decode(bytes, 0, bytes.length, target);
     }
 
@@ -22,4 +22,11 @@ package com.flurg.thimbot.event;
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public interface InboundEvent extends CommonEvent {
+
+    /**
+     * Get the IRCv3 message tags of the line which produced this event.
+     *
+     * @return the tags, or {@link MessageTags#NONE} if there were none
+     */
+    MessageTags getTags();
 }
@@ -26,7 +26,11 @@ import com.flurg.thimbot.ThimBot;
 public final class MOTDEndEvent extends Event implements InboundEvent {
 
     public MOTDEndEvent(final ThimBot bot) {
-        super(bot);
+        this(bot, MessageTags.NONE);
+    }
+
+    public MOTDEndEvent(final ThimBot bot, final MessageTags tags) {
+        super(bot, tags);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
@@ -26,7 +26,11 @@ import com.flurg.thimbot.ThimBot;
 public final class MOTDLineEvent extends AbstractTextEvent implements InboundEvent, TextEvent {
 
     public MOTDLineEvent(final ThimBot bot, final String rawLine) {
-        super(bot, rawLine);
+        this(bot, MessageTags.NONE, rawLine);
+    }
+
+    public MOTDLineEvent(final ThimBot bot, final MessageTags tags, final String rawLine) {
+        super(bot, tags, rawLine);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
@@ -0,0 +1,258 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.event;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The IRCv3 message tags of an inbound line.  The tag section is kept in its escaped wire form and is only searched
+ * and unescaped when a tag is actually requested, so events whose tags are never examined pay for a single string
+ * copy at most.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class MessageTags {
+
+    /**
+     * The empty tag set.
+     */
+    public static final MessageTags NONE = new MessageTags("");
+
+    private static final long TIME_UNKNOWN = Long.MIN_VALUE;
+
+    private final String raw;
+    private volatile long serverTime = TIME_UNKNOWN;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param raw the escaped tag section, without the leading {@code @}
+     */
+    public MessageTags(final String raw) {
+        this.raw = raw;
+    }
+
+    /**
+     * Create a tag set from a slice of a line buffer.
+     *
+     * @param buf the buffer
+     * @param offs the offset of the tag section, not including the leading {@code @}
+     * @param len the length of the tag section
+     * @return the tag set
+     */
+    public static MessageTags of(final byte[] buf, final int offs, final int len) {
+        return len == 0 ? NONE : new MessageTags(new String(buf, offs, len, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Determine whether there are no tags.
+     *
+     * @return {@code true} if there are no tags
+     */
+    public boolean isEmpty() {
+        return raw.isEmpty();
+    }
+
+    /**
+     * Determine whether the given tag is present, with or without a value.
+     *
+     * @param key the tag key, including any vendor prefix or client-only {@code +} marker
+     * @return {@code true} if the tag is present
+     */
+    public boolean contains(final String key) {
+        return find(key) != -1;
+    }
+
+    /**
+     * Get the unescaped value of a tag.
+     *
+     * @param key the tag key, including any vendor prefix or client-only {@code +} marker
+     * @return the value, {@code ""} if the tag is present without a value, or {@code null} if it is absent
+     */
+    public String get(final String key) {
+        final int idx = find(key);
+        if (idx == -1) {
+            return null;
+        }
+        final String raw = this.raw;
+        int end = raw.indexOf(';', idx);
+        if (end == -1) end = raw.length();
+        int s = idx + key.length();
+        if (s == end) {
+            return "";
+        }
+        // skip the '='
+        return unescape(raw, s + 1, end);
+    }
+
+    /**
+     * Get the message ID ({@code msgid} tag).
+     *
+     * @return the message ID, or {@code null} if none was given
+     */
+    public String getMessageId() {
+        return get("msgid");
+    }
+
+    /**
+     * Get the account name of the sender ({@code account} tag).
+     *
+     * @return the account name, or {@code null} if none was given
+     */
+    public String getAccount() {
+        return get("account");
+    }
+
+    /**
+     * Get the label of the command this message responds to ({@code label} tag, from {@code labeled-response}).
+     *
+     * @return the label, or {@code null} if the message is not a labeled response
+     */
+    public String getLabel() {
+        return get("label");
+    }
+
+    /**
+     * Get the reference tag of the batch this message belongs to ({@code batch} tag).
+     *
+     * @return the batch reference, or {@code null} if the message is not part of a batch
+     */
+    public String getBatch() {
+        return get("batch");
+    }
+
+    /**
+     * Get the server time of the message ({@code time} tag) in milliseconds since the epoch.
+     *
+     * @return the server time, or -1 if none was given or it could not be parsed
+     */
+    public long getServerTime() {
+        long serverTime = this.serverTime;
+        if (serverTime == TIME_UNKNOWN) {
+            final String value = get("time");
+            serverTime = -1L;
+            if (value != null) try {
+                serverTime = Instant.parse(value).toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+            }
+            this.serverTime = serverTime;
+        }
+        return serverTime;
+    }
+
+    /**
+     * Decode all of the tags into a map, in the order they were given.  Later duplicates replace earlier ones.
+     *
+     * @return the tag map
+     */
+    public Map<String, String> toMap() {
+        final String raw = this.raw;
+        if (raw.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        int s = 0;
+        final int length = raw.length();
+        while (s < length) {
+            int end = raw.indexOf(';', s);
+            if (end == -1) end = length;
+            final int eq = raw.indexOf('=', s);
+            if (eq == -1 || eq > end) {
+                if (end > s) map.put(raw.substring(s, end), "");
+            } else if (eq > s) {
+                map.put(raw.substring(s, eq), unescape(raw, eq + 1, end));
+            }
+            s = end + 1;
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Get the tag section in its escaped wire form.
+     *
+     * @return the raw tags
+     */
+    public String getRaw() {
+        return raw;
+    }
+
+    public String toString() {
+        return raw;
+    }
+
+    private int find(final String key) {
+        final String raw = this.raw;
+        final int keyLen = key.length();
+        final int length = raw.length();
+        // as with toMap(), the last occurrence of a duplicated key wins
+        int found = -1;
+        int s = 0;
+        while (s < length) {
+            if (raw.startsWith(key, s)) {
+                final int e = s + keyLen;
+                if (e == length) {
+                    return s;
+                }
+                final char c = raw.charAt(e);
+                if (c == '=' || c == ';') {
+                    found = s;
+                }
+            }
+            s = raw.indexOf(';', s);
+            if (s == -1) {
+                break;
+            }
+            s++;
+        }
+        return found;
+    }
+
+    private static String unescape(final String raw, final int start, final int end) {
+        int i = raw.indexOf('\\', start);
+        if (i == -1 || i >= end) {
+            return raw.substring(start, end);
+        }
+        final StringBuilder b = new StringBuilder(end - start);
+        b.append(raw, start, i);
+        while (i < end) {
+            char c = raw.charAt(i++);
+            if (c == '\\') {
+                if (i == end) {
+                    // a trailing lone backslash is dropped
+                    break;
+                }
+                c = raw.charAt(i++);
+                switch (c) {
+                    case ':': c = ';'; break;
+                    case 's': c = ' '; break;
+                    case 'r': c = '\r'; break;
+                    case 'n': c = '\n'; break;
+                    // '\\' and unknown escapes yield the character itself
+                }
+            }
+            b.append(c);
+        }
+        return b.toString();
+    }
+}
@@ -20,6 +20,7 @@ package com.flurg.thimbot.event;
 
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.flurg.thimbot.Priority;
 import com.flurg.thimbot.ThimBot;
@@ -31,11 +32,26 @@ public final class OutboundActionEvent extends AbstractTextEvent implements Outb
 
     private final Set<String> targets;
     private final Priority priority;
+    private final CompletableFuture<Void> delivery;
 
     public OutboundActionEvent(final ThimBot bot, final Priority priority, final Set<String> targets, final String rawMessage) {
+        this(bot, priority, targets, rawMessage, null);
+    }
+
+    /**
+     * Construct a new instance whose delivery is tracked.
+     *
+     * @param bot the bot
+     * @param priority the priority
+     * @param targets the targets
+     * @param rawMessage the message
+     * @param delivery the future to complete when the server confirms delivery, or {@code null} to not track it
+     */
+    public OutboundActionEvent(final ThimBot bot, final Priority priority, final Set<String> targets, final String rawMessage, final CompletableFuture<Void> delivery) {
         super(bot, rawMessage);
         this.priority = priority;
         this.targets = targets;
+        this.delivery = delivery;
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
@@ -70,4 +86,13 @@ public final class OutboundActionEvent extends AbstractTextEvent implements Outb
     public Priority getPriority() {
         return priority;
     }
+
+    /**
+     * Get the future which completes when the server confirms delivery.
+     *
+     * @return the future, or {@code null} if delivery is not tracked
+     */
+    public CompletableFuture<Void> getDelivery() {
+        return delivery;
+    }
 }
@@ -19,6 +19,7 @@
 package com.flurg.thimbot.event;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.flurg.thimbot.Priority;
 import com.flurg.thimbot.ThimBot;
@@ -30,11 +31,26 @@ public final class OutboundNoticeEvent extends AbstractTextEvent implements Outb
 
     private final Priority priority;
     private final Set<String> targets;
+    private final CompletableFuture<Void> delivery;
 
     public OutboundNoticeEvent(final ThimBot bot, final Priority priority, final Set<String> targets, final String rawMessage) {
+        this(bot, priority, targets, rawMessage, null);
+    }
+
+    /**
+     * Construct a new instance whose delivery is tracked.
+     *
+     * @param bot the bot
+     * @param priority the priority
+     * @param targets the targets
+     * @param rawMessage the message
+     * @param delivery the future to complete when the server confirms delivery, or {@code null} to not track it
+     */
+    public OutboundNoticeEvent(final ThimBot bot, final Priority priority, final Set<String> targets, final String rawMessage, final CompletableFuture<Void> delivery) {
         super(bot, rawMessage);
         this.priority = priority;
         this.targets = targets;
+        this.delivery = delivery;
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
@@ -48,4 +64,13 @@ public final class OutboundNoticeEvent extends AbstractTextEvent implements Outb
     public Priority getPriority() {
         return priority;
     }
+
+    /**
+     * Get the future which completes when the server confirms delivery.
+     *
+     * @return the future, or {@code null} if delivery is not tracked
+     */
+    public CompletableFuture<Void> getDelivery() {
+        return delivery;
+    }
 }
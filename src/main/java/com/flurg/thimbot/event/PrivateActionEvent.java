@@ -22,7 +22,6 @@ import java.io.IOException;
 
 import com.flurg.thimbot.Priority;
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -34,10 +33,14 @@ public final class PrivateActionEvent extends AbstractTextEvent implements Inbou
     private final boolean fromMe;
 
     public PrivateActionEvent(final ThimBot bot, final String user, final String rawMessage) {
-        super(bot, rawMessage);
+        this(bot, MessageTags.NONE, user, rawMessage);
+    }
+
+    public PrivateActionEvent(final ThimBot bot, final MessageTags tags, final String user, final String rawMessage) {
+        super(bot, tags, rawMessage);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
-        fromMe = bot.getBotNick().equals(nick);
+        nick = bot.nickOf(user);
+        fromMe = bot.isBotNick(nick);
     }
 
     public String getFromNick() {
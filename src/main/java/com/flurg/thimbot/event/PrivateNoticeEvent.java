@@ -19,7 +19,6 @@
 package com.flurg.thimbot.event;
 
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -31,10 +30,14 @@ public final class PrivateNoticeEvent extends AbstractTextEvent implements Inbou
     private final boolean fromMe;
 
     public PrivateNoticeEvent(final ThimBot bot, final String user, final String rawMessage) {
-        super(bot, rawMessage);
+        this(bot, MessageTags.NONE, user, rawMessage);
+    }
+
+    public PrivateNoticeEvent(final ThimBot bot, final MessageTags tags, final String user, final String rawMessage) {
+        super(bot, tags, rawMessage);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
-        fromMe = getBot().getBotNick().equals(nick);
+        nick = bot.nickOf(user);
+        fromMe = bot.isBotNick(nick);
     }
 
     public String getFromNick() {
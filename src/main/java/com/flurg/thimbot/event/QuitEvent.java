@@ -19,7 +19,6 @@
 package com.flurg.thimbot.event;
 
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -31,10 +30,14 @@ public final class QuitEvent extends AbstractTextEvent implements FromUserEvent,
     private final boolean fromMe;
 
     public QuitEvent(final ThimBot bot, final String user, final String rawReason) {
-        super(bot, rawReason);
+        this(bot, MessageTags.NONE, user, rawReason);
+    }
+
+    public QuitEvent(final ThimBot bot, final MessageTags tags, final String user, final String rawReason) {
+        super(bot, tags, rawReason);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
-        fromMe = getBot().getBotNick().equals(nick);
+        nick = bot.nickOf(user);
+        fromMe = bot.isBotNick(nick);
     }
 
     public String getFromNick() {
@@ -29,16 +29,20 @@ public final class QuitRequestEvent extends Event implements OutboundEvent {
 
     private final Priority priority;
     private final String rawReason;
-    private final String reason;
+    // deformatted on first use
+    private String reason;
 
     public QuitRequestEvent(final ThimBot bot, final Priority priority, final String rawReason) {
         super(bot);
         this.priority = priority;
         this.rawReason = rawReason;
-        reason = rawReason == null ? null : IRCStringUtil.deformat(rawReason);
     }
 
     public String getReason() {
+        String reason = this.reason;
+        if (reason == null && rawReason != null) {
+            this.reason = reason = IRCStringUtil.deformat(rawReason);
+        }
         return reason;
     }
 
@@ -51,7 +55,7 @@ public final class QuitRequestEvent extends Event implements OutboundEvent {
     }
 
     public String toString() {
-        return super.toString() + " \"" + reason + "\"";
+        return super.toString() + " \"" + getReason() + "\"";
     }
 
     public Priority getPriority() {
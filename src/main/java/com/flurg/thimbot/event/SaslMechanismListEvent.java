@@ -31,7 +31,11 @@ public final class SaslMechanismListEvent extends Event implements InboundEvent
     private final List<String> mechanisms;
 
     public SaslMechanismListEvent(final ThimBot bot, final String... mechanisms) {
-        super(bot);
+        this(bot, MessageTags.NONE, mechanisms);
+    }
+
+    public SaslMechanismListEvent(final ThimBot bot, final MessageTags tags, final String... mechanisms) {
+        super(bot, tags);
         this.mechanisms = Collections.unmodifiableList(Arrays.asList(mechanisms));
     }
 
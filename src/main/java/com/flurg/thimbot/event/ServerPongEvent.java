@@ -27,7 +27,11 @@ public final class ServerPongEvent extends Event implements InboundEvent {
     private final String payload;
 
     public ServerPongEvent(final ThimBot bot, final String payload) {
-        super(bot);
+        this(bot, MessageTags.NONE, payload);
+    }
+
+    public ServerPongEvent(final ThimBot bot, final MessageTags tags, final String payload) {
+        super(bot, tags);
         this.payload = payload;
     }
 
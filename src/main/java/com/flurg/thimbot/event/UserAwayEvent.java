@@ -19,7 +19,6 @@
 package com.flurg.thimbot.event;
 
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -32,11 +31,15 @@ public final class UserAwayEvent extends Event implements InboundEvent, FromUser
     private final boolean fromMe;
 
     public UserAwayEvent(final ThimBot bot, final String user, final String awayMessage) {
-        super(bot);
+        this(bot, MessageTags.NONE, user, awayMessage);
+    }
+
+    public UserAwayEvent(final ThimBot bot, final MessageTags tags, final String user, final String awayMessage) {
+        super(bot, tags);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
+        nick = bot.nickOf(user);
         this.awayMessage = awayMessage;
-        fromMe = getBot().getBotNick().equals(nick);
+        fromMe = bot.isBotNick(nick);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
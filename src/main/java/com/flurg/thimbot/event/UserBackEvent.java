@@ -19,7 +19,6 @@
 package com.flurg.thimbot.event;
 
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -31,10 +30,14 @@ public final class UserBackEvent extends Event implements InboundEvent, FromUser
     private final boolean fromMe;
 
     public UserBackEvent(final ThimBot bot, final String user) {
-        super(bot);
+        this(bot, MessageTags.NONE, user);
+    }
+
+    public UserBackEvent(final ThimBot bot, final MessageTags tags, final String user) {
+        super(bot, tags);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
-        fromMe = getBot().getBotNick().equals(nick);
+        nick = bot.nickOf(user);
+        fromMe = bot.isBotNick(nick);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
@@ -19,7 +19,6 @@
 package com.flurg.thimbot.event;
 
 import com.flurg.thimbot.ThimBot;
-import com.flurg.thimbot.util.IRCStringUtil;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -31,11 +30,15 @@ public final class UserPongEvent extends Event implements FromUserEvent, Inbound
     private final boolean fromMe;
 
     public UserPongEvent(final ThimBot bot, final String user, final String payload) {
-        super(bot);
+        this(bot, MessageTags.NONE, user, payload);
+    }
+
+    public UserPongEvent(final ThimBot bot, final MessageTags tags, final String user, final String payload) {
+        super(bot, tags);
         this.user = user;
-        nick = IRCStringUtil.nickOf(user);
+        nick = bot.nickOf(user);
         this.payload = payload;
-        fromMe = getBot().getBotNick().equals(nick);
+        fromMe = bot.isBotNick(nick);
     }
 
     public void dispatch(final EventHandlerContext context, final EventHandler handler) throws Exception {
@@ -40,4 +40,12 @@ public interface ByteOutput {
     void write(byte[] b) throws IOException;
 
     void write(byte[] b, int offs, int len) throws IOException;
+
+    /**
+     * Write the decimal digits of a non-negative number.
+     *
+     * @param value the value
+     * @throws IOException if an I/O error occurs
+     */
+    void writeDecimal(long value) throws IOException;
 }
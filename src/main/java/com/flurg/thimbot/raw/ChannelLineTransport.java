@@ -0,0 +1,215 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import static com.flurg.thimbot.raw.SelectorLoop.IRC_LOGGER;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * A transport over a non-blocking socket channel, driven by a shared {@link SelectorLoop}.  All I/O and all
+ * listener callbacks happen on the loop thread.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class ChannelLineTransport extends LineTransport {
+
+    private static final int MAX_GATHER = 16;
+
+    private final SocketChannel channel;
+    private final SelectorLoop loop;
+    private final byte[] readBytes;
+    private final ByteBuffer readBuffer;
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final Runnable writeTask = new Runnable() {
+        public void run() {
+            wakeupPending.set(false);
+            handleWritable();
+        }
+    };
+
+    // these are only accessed from the loop thread
+    private SelectionKey key;
+    private final LineBuffer[] lineBuffers = new LineBuffer[MAX_GATHER];
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[MAX_GATHER];
+    private int writeOffs;
+    private int writeCount;
+    private long lastPing;
+    private boolean closed;
+    // maintained by the loop's timer set
+    long deadline;
+    long timerSeq;
+    boolean timerSet;
+
+    ChannelLineTransport(final LineProtocolConnection connection, final SocketChannel channel, final SelectorLoop loop) {
+        super(connection);
+        this.channel = channel;
+        this.loop = loop;
+        readBytes = new byte[connection.bufSize];
+        readBuffer = ByteBuffer.wrap(readBytes);
+    }
+
+    void start() {
+        loop.execute(new Runnable() {
+            public void run() {
+                try {
+                    key = loop.register(channel, ChannelLineTransport.this);
+                } catch (IOException e) {
+                    IRC_LOGGER.log(Level.WARNING, "Register exception: " + e);
+                    close();
+                    return;
+                }
+                lastPing = System.nanoTime();
+                handleWritable();
+            }
+        });
+    }
+
+    void wakeup() {
+        if (! wakeupPending.getAndSet(true)) {
+            loop.execute(writeTask);
+        }
+    }
+
+    SocketAddress getPeerAddress() {
+        return channel.socket().getRemoteSocketAddress();
+    }
+
+    void handleReadable() {
+        final LineProtocolConnection connection = this.connection;
+        final ByteBuffer readBuffer = this.readBuffer;
+        final byte[] bytes = readBytes;
+        int res;
+        try {
+            res = channel.read(readBuffer);
+        } catch (IOException e) {
+            IRC_LOGGER.log(Level.WARNING, "Read exception: " + e);
+            connection.signalShutdown();
+            return;
+        }
+        int lim = readBuffer.position();
+        final int pos = connection.handleLines(bytes, 0, lim);
+        if (pos > 0) {
+            System.arraycopy(bytes, pos, bytes, 0, lim - pos);
+            lim -= pos;
+            readBuffer.position(lim);
+        }
+        if (res == -1) {
+            if (lim > 0) {
+                connection.handleLine(bytes, 0, lim);
+                readBuffer.clear();
+            }
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            connection.signalShutdown();
+        }
+    }
+
+    void handleWritable() {
+        if (closed || key == null) return;
+        final LineProtocolConnection connection = this.connection;
+        final ByteBuffer[] writeBuffers = this.writeBuffers;
+        try {
+            for (;;) {
+                if (writeCount > 0) {
+                    channel.write(writeBuffers, writeOffs, writeCount);
+                    while (writeCount > 0 && ! writeBuffers[writeOffs].hasRemaining()) {
+                        writeBuffers[writeOffs ++] = null;
+                        writeCount --;
+                    }
+                    if (writeCount > 0) {
+                        setWriteInterest(true);
+                        return;
+                    }
+                    writeOffs = 0;
+                }
+                if (connection.shutdown) {
+                    close();
+                    return;
+                }
+                // gather every line which is ready into a single write
+                while (writeCount < MAX_GATHER) {
+                    final long now = System.nanoTime();
+                    if (now - lastPing > LineProtocolConnection.PING_TIME || connection.windowExhausted()) {
+                        final LineBuffer lineBuffer = lineBuffer(writeCount);
+                        connection.pingLine(lineBuffer);
+                        writeBuffers[writeCount ++] = lineBuffer.toByteBuffer();
+                        lastPing = now;
+                        continue;
+                    }
+                    final boolean windowClosed = connection.windowClosed();
+                    final long floodDelay = windowClosed ? 0L : connection.floodDelay(now);
+                    final LineOutputCallback callback = windowClosed || floodDelay > 0L ? null : connection.pollCallback();
+                    if (callback == null) {
+                        final long pingDeadline = lastPing + LineProtocolConnection.PING_TIME + 1L;
+                        loop.setDeadline(this, floodDelay > 0L && now + floodDelay - pingDeadline < 0L ? now + floodDelay : pingDeadline);
+                        break;
+                    }
+                    final LineBuffer lineBuffer = lineBuffer(writeCount);
+                    if (connection.writeLine(callback, lineBuffer)) {
+                        writeBuffers[writeCount ++] = lineBuffer.toByteBuffer();
+                    }
+                }
+                if (writeCount == 0) {
+                    // wait for a message, an acknowledgement, the flood control bucket, or the next ping
+                    setWriteInterest(false);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            IRC_LOGGER.log(Level.WARNING, "Write exception: " + e);
+            close();
+        }
+    }
+
+    private LineBuffer lineBuffer(final int index) {
+        LineBuffer lineBuffer = lineBuffers[index];
+        if (lineBuffer == null) {
+            lineBuffers[index] = lineBuffer = new LineBuffer();
+        }
+        return lineBuffer;
+    }
+
+    private void setWriteInterest(final boolean enabled) {
+        final SelectionKey key = this.key;
+        if (key.isValid()) {
+            final int ops = key.interestOps();
+            key.interestOps(enabled ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    void close() {
+        if (closed) return;
+        closed = true;
+        connection.shutdown = true;
+        loop.cancelDeadline(this);
+        if (key != null) {
+            key.cancel();
+        }
+        LineProtocolConnection.safeClose(channel);
+        connection.terminated();
+    }
+}
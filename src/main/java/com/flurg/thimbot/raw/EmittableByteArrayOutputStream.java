@@ -81,6 +81,21 @@ public class EmittableByteArrayOutputStream extends ByteArrayOutputStream implem
         this.count = count + len;
     }
 
+    public void writeDecimal(long value) {
+        int digits = 1;
+        for (long v = value; v >= 10L; v /= 10L) {
+            digits ++;
+        }
+        final int count = this.count;
+        ensureCapacity(count + digits);
+        final byte[] buf = this.buf;
+        for (int i = count + digits - 1; i >= count; i --) {
+            buf[i] = (byte) ('0' + value % 10L);
+            value /= 10L;
+        }
+        this.count = count + digits;
+    }
+
     public void writeTo(final OutputStream out) throws IOException {
         out.write(buf, 0, count);
     }
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket which limits the rate of outbound lines, so that the server does not disconnect us for flooding.
+ * The bucket holds up to {@code burst} lines and regains one line every refill interval.
+ * <p>
+ * The bucket is only updated by the writing side of the transport; the fill level may be read from any thread.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class FloodControl {
+
+    private final int burst;
+    private final long refillNanos;
+    private final long capacity;
+
+    // credit is measured in nanoseconds of refill time; one line costs refillNanos
+    private volatile long credit;
+    private volatile long lastRefill;
+
+    /**
+     * Construct a new instance.  The bucket starts out full.
+     *
+     * @param burst the number of lines which may be sent back-to-back
+     * @param refillInterval the time it takes to regain one line
+     * @param unit the unit of the refill interval
+     */
+    public FloodControl(final int burst, final long refillInterval, final TimeUnit unit) {
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+        if (refillInterval < 0) {
+            throw new IllegalArgumentException("refillInterval must not be negative");
+        }
+        this.burst = burst;
+        refillNanos = unit.toNanos(refillInterval);
+        capacity = refillNanos * burst;
+        credit = capacity;
+        lastRefill = System.nanoTime();
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public long getRefillInterval(TimeUnit unit) {
+        return unit.convert(refillNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the fill level of the bucket.
+     *
+     * @return the fill level, between 0.0 (empty) and 1.0 (full)
+     */
+    public double getFill() {
+        final long capacity = this.capacity;
+        if (capacity == 0L) {
+            return 1.0;
+        }
+        final long credit = Math.min(capacity, this.credit + System.nanoTime() - lastRefill);
+        return credit <= 0L ? 0.0 : (double) credit / (double) capacity;
+    }
+
+    /**
+     * Get the time until another line may be sent.  Only called from the writing side of the transport.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return 0 if a line may be sent now, otherwise the number of nanoseconds to wait
+     */
+    long delay(final long now) {
+        final long credit = refill(now);
+        return credit >= refillNanos ? 0L : refillNanos - credit;
+    }
+
+    /**
+     * Take one line out of the bucket.  The bucket may go into debt, so that lines which must not be delayed (such
+     * as flow control pings) are still accounted for.  Only called from the writing side of the transport.
+     *
+     * @param now the current {@link System#nanoTime()}
+     */
+    void consume(final long now) {
+        credit = refill(now) - refillNanos;
+    }
+
+    private long refill(final long now) {
+        final long elapsed = now - lastRefill;
+        long credit = this.credit;
+        if (elapsed > 0L) {
+            lastRefill = now;
+            credit = Math.min(capacity, credit + elapsed);
+            this.credit = credit;
+        }
+        return credit;
+    }
+}
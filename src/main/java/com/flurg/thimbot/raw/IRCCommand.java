@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The commands understood by the IRC parser.  Three-digit numeric replies are all reported as {@link #NUMERIC}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public enum IRCCommand {
+    ACCOUNT,
+    AUTHENTICATE,
+    AWAY,
+    BATCH,
+    CAP,
+    ERROR,
+    INVITE,
+    JOIN,
+    KICK,
+    MODE,
+    NICK,
+    NOTICE,
+    PART,
+    PING,
+    PONG,
+    PRIVMSG,
+    QUIT,
+    TOPIC,
+    WALLOPS,
+
+    NUMERIC,
+    UNKNOWN,
+    ;
+
+    private static final int TABLE_SIZE = 64;
+    private static final IRCCommand[] TABLE = new IRCCommand[TABLE_SIZE];
+
+    private final byte[] bytes = name().getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (IRCCommand command : values()) {
+            if (command == NUMERIC || command == UNKNOWN) continue;
+            final byte[] bytes = command.bytes;
+            int idx = hash(bytes, 0, bytes.length) & TABLE_SIZE - 1;
+            while (TABLE[idx] != null) {
+                idx = idx + 1 & TABLE_SIZE - 1;
+            }
+            TABLE[idx] = command;
+        }
+    }
+
+    private static int hash(final byte[] b, final int offs, final int len) {
+        int h = len;
+        for (int i = 0; i < len; i ++) {
+            h = h * 31 + (b[offs + i] & 0xdf);
+        }
+        return h ^ h >>> 7;
+    }
+
+    /**
+     * Get the command for the given command bytes, ignoring case.  Does not allocate.
+     *
+     * @param b the buffer
+     * @param offs the offset of the command
+     * @param len the length of the command
+     * @return the command, {@link #NUMERIC} for a three-digit numeric, or {@link #UNKNOWN}
+     */
+    public static IRCCommand of(final byte[] b, final int offs, final int len) {
+        if (len == 3 && isDigit(b[offs]) && isDigit(b[offs + 1]) && isDigit(b[offs + 2])) {
+            return NUMERIC;
+        }
+        int idx = hash(b, offs, len) & TABLE_SIZE - 1;
+        IRCCommand command;
+        while ((command = TABLE[idx]) != null) {
+            if (command.matches(b, offs, len)) {
+                return command;
+            }
+            idx = idx + 1 & TABLE_SIZE - 1;
+        }
+        return UNKNOWN;
+    }
+
+    private boolean matches(final byte[] b, final int offs, final int len) {
+        final byte[] bytes = this.bytes;
+        if (bytes.length != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i ++) {
+            if ((b[offs + i] & 0xdf) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isDigit(final byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import com.flurg.thimbot.util.Arrays2;
+
+/**
+ * A reusable view of one IRC protocol line.  The prefix, command and parameters are recorded as offsets into the
+ * original line buffer, so parsing does not allocate; strings are only created when a caller asks for them.
+ * <p>
+ * Since the buffer belongs to the connection, the contents of an instance are only valid until the line handler
+ * returns.  Instances are not thread-safe.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class IRCMessage {
+
+    /**
+     * The maximum number of parameters per RFC 1459.  Any further parameters are folded into the last one.
+     */
+    public static final int MAX_PARAMS = 15;
+
+    private byte[] buf;
+    private int tagsOffs, tagsLen;
+    private int prefixOffs, prefixLen;
+    private int commandOffs, commandLen;
+    private IRCCommand command;
+    private int numeric;
+    private int paramCount;
+    private final int[] paramOffs = new int[MAX_PARAMS];
+    private final int[] paramLens = new int[MAX_PARAMS];
+
+    /**
+     * Construct a new instance.
+     */
+    public IRCMessage() {
+    }
+
+    /**
+     * Parse a line into this instance, replacing its previous contents.
+     *
+     * @param buf the buffer
+     * @param offs the offset of the line
+     * @param len the length of the line, excluding the line terminator
+     * @return {@code true} if a command was found, {@code false} if the line is empty or malformed
+     */
+    public boolean parse(final byte[] buf, final int offs, final int len) {
+        this.buf = buf;
+        tagsOffs = tagsLen = 0;
+        prefixOffs = prefixLen = 0;
+        commandOffs = commandLen = 0;
+        command = IRCCommand.UNKNOWN;
+        numeric = -1;
+        paramCount = 0;
+        final int end = offs + len;
+        int i = skipSpaces(buf, offs, end);
+        if (i < end && buf[i] == '@') {
+            // IRCv3 message tags; they are only split up when someone asks for them
+            final int s = ++i;
+            i = scanToSpace(buf, i, end);
+            tagsOffs = s;
+            tagsLen = i - s;
+            i = skipSpaces(buf, i, end);
+        }
+        if (i < end && buf[i] == ':') {
+            final int s = ++i;
+            i = scanToSpace(buf, i, end);
+            prefixOffs = s;
+            prefixLen = i - s;
+            i = skipSpaces(buf, i, end);
+        }
+        if (i == end) {
+            return false;
+        }
+        int s = i;
+        i = scanToSpace(buf, i, end);
+        commandOffs = s;
+        commandLen = i - s;
+        command = IRCCommand.of(buf, s, commandLen);
+        if (command == IRCCommand.NUMERIC) {
+            numeric = (buf[s] - '0') * 100 + (buf[s + 1] - '0') * 10 + buf[s + 2] - '0';
+        }
+        final int[] paramOffs = this.paramOffs;
+        final int[] paramLens = this.paramLens;
+        int cnt = 0;
+        for (;;) {
+            i = skipSpaces(buf, i, end);
+            if (i == end) {
+                break;
+            }
+            if (buf[i] == ':' || cnt == MAX_PARAMS - 1) {
+                // trailing parameter
+                if (buf[i] == ':') i++;
+                paramOffs[cnt] = i;
+                paramLens[cnt++] = end - i;
+                break;
+            }
+            s = i;
+            i = scanToSpace(buf, i, end);
+            paramOffs[cnt] = s;
+            paramLens[cnt++] = i - s;
+        }
+        paramCount = cnt;
+        return true;
+    }
+
+    private static int skipSpaces(final byte[] buf, int i, final int end) {
+        while (i < end && buf[i] == ' ') i++;
+        return i;
+    }
+
+    private static int scanToSpace(final byte[] buf, int i, final int end) {
+        while (i < end && buf[i] != ' ') i++;
+        return i;
+    }
+
+    /**
+     * Get the buffer which holds the line.
+     *
+     * @return the buffer
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * Get the command.
+     *
+     * @return the command
+     */
+    public IRCCommand getCommand() {
+        return command;
+    }
+
+    /**
+     * Get the numeric reply code.
+     *
+     * @return the numeric value, or -1 if the command is not {@link IRCCommand#NUMERIC}
+     */
+    public int getNumeric() {
+        return numeric;
+    }
+
+    /**
+     * Determine whether the line carries IRCv3 message tags.
+     *
+     * @return {@code true} if there are tags
+     */
+    public boolean hasTags() {
+        return tagsLen > 0;
+    }
+
+    /**
+     * Get the offset of the tag section, not including the leading {@code @}.
+     *
+     * @return the offset
+     */
+    public int getTagsOffset() {
+        return tagsOffs;
+    }
+
+    /**
+     * Get the length of the tag section.
+     *
+     * @return the length, or 0 if there are no tags
+     */
+    public int getTagsLength() {
+        return tagsLen;
+    }
+
+    public int getCommandOffset() {
+        return commandOffs;
+    }
+
+    public int getCommandLength() {
+        return commandLen;
+    }
+
+    public boolean hasPrefix() {
+        return prefixLen > 0;
+    }
+
+    public int getPrefixOffset() {
+        return prefixOffs;
+    }
+
+    public int getPrefixLength() {
+        return prefixLen;
+    }
+
+    /**
+     * Determine whether the prefix is a full user prefix of the form {@code nick!user@host}, rather than a server
+     * name or a bare nick.
+     *
+     * @return {@code true} if the prefix identifies a user
+     */
+    public boolean hasUserPrefix() {
+        final int len = prefixLen;
+        if (len == 0) {
+            return false;
+        }
+        final byte[] buf = this.buf;
+        final int offs = prefixOffs;
+        switch (buf[offs]) {
+            case '#':
+            case '!':
+            case '&':
+            case '*':
+                return false;
+        }
+        final int end = offs + len;
+        int i = offs;
+        while (i < end && buf[i] != '!') i++;
+        while (i < end && buf[i] != '@') i++;
+        return i < end;
+    }
+
+    /**
+     * Get the prefix as a string.
+     *
+     * @return the prefix, or {@code ""} if there is none
+     */
+    public String getPrefix() {
+        return prefixLen == 0 ? "" : new String(buf, prefixOffs, prefixLen, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Get the number of parameters, including the trailing parameter if any.
+     *
+     * @return the number of parameters
+     */
+    public int getParamCount() {
+        return paramCount;
+    }
+
+    public int getParamOffset(int index) {
+        checkParam(index);
+        return paramOffs[index];
+    }
+
+    public int getParamLength(int index) {
+        checkParam(index);
+        return paramLens[index];
+    }
+
+    /**
+     * Get a parameter as a string.
+     *
+     * @param index the parameter index
+     * @param charset the character set to decode with
+     * @return the parameter value
+     */
+    public String getParam(int index, Charset charset) {
+        checkParam(index);
+        final int len = paramLens[index];
+        return len == 0 ? "" : new String(buf, paramOffs[index], len, charset);
+    }
+
+    /**
+     * Get a parameter as an ISO-8859-1 string, which is appropriate for names and tokens.
+     *
+     * @param index the parameter index
+     * @return the parameter value
+     */
+    public String getParam(int index) {
+        return getParam(index, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Get the last parameter, if any.
+     *
+     * @param charset the character set to decode with
+     * @return the last parameter, or {@code ""} if there are no parameters
+     */
+    public String getLastParam(Charset charset) {
+        return paramCount == 0 ? "" : getParam(paramCount - 1, charset);
+    }
+
+    /**
+     * Determine whether a parameter is exactly equal to the given bytes.
+     *
+     * @param index the parameter index
+     * @param bytes the bytes to compare
+     * @return {@code true} if they are equal
+     */
+    public boolean paramEquals(int index, byte[] bytes) {
+        return index < paramCount && Arrays2.equals(buf, paramOffs[index], paramLens[index], bytes);
+    }
+
+    private void checkParam(final int index) {
+        if (index < 0 || index >= paramCount) {
+            throw new IndexOutOfBoundsException("No parameter " + index);
+        }
+    }
+
+    public String toString() {
+        return buf == null ? "(empty)" : new String(buf, commandOffs, commandLen, StandardCharsets.ISO_8859_1) + " (" + paramCount + " params)";
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.flurg.thimbot.WireTrace;
+
+/**
+ * A reusable buffer which receives one outbound line.  Each writer keeps its own buffers and refills them for every
+ * line, so the send path does not allocate once the buffers have grown to the largest line size.
+ * <p>
+ * Carriage returns and line feeds are replaced with spaces as they are copied in, so that a line can never be split
+ * by its content; the caller's arrays are never modified.  Instances are not thread-safe.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class LineBuffer implements ByteOutput {
+
+    private byte[] buf = new byte[512];
+    private int count;
+    private ByteBuffer view;
+
+    LineBuffer() {
+    }
+
+    private void ensureCapacity(final int minCapacity) {
+        if (minCapacity - buf.length > 0) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, minCapacity));
+        }
+    }
+
+    public void write(final Emittable emitter) throws IOException {
+        emitter.emit(this);
+    }
+
+    public void write(final StringEmitter emitter) throws IOException {
+        emitter.emit(this);
+    }
+
+    public void write(final String string, final Charset charset) {
+        final int length = string.length();
+        if (charset == StandardCharsets.UTF_8 || charset == StandardCharsets.US_ASCII || charset == StandardCharsets.ISO_8859_1) {
+            // fast path for the common case of a pure ASCII string, which is identical in each of these
+            final int count = this.count;
+            ensureCapacity(count + length);
+            final byte[] buf = this.buf;
+            int i = 0;
+            char c;
+            while (i < length && (c = string.charAt(i)) < 0x80) {
+                buf[count + i++] = c == '\n' || c == '\r' ? (byte) ' ' : (byte) c;
+            }
+            if (i == length) {
+                this.count = count + length;
+                return;
+            }
+        }
+        write(string.getBytes(charset));
+    }
+
+    public void write(final String string) {
+        write(string, StandardCharsets.US_ASCII);
+    }
+
+    public void write(final int b) {
+        final int count = this.count;
+        ensureCapacity(count + 1);
+        buf[count] = (byte) (b == 10 || b == 13 ? 32 : b);
+        this.count = count + 1;
+    }
+
+    public void write(final byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    public void write(final byte[] b, final int offs, final int len) {
+        if (offs < 0 || len < 0 || offs > b.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        final int count = this.count;
+        ensureCapacity(count + len);
+        final byte[] buf = this.buf;
+        System.arraycopy(b, offs, buf, count, len);
+        final int end = count + len;
+        for (int i = count; i < end; i ++) {
+            if (buf[i] == 10 || buf[i] == 13) {
+                buf[i] = 32;
+            }
+        }
+        this.count = end;
+    }
+
+    /**
+     * Append the decimal digits of a non-negative number without allocating.
+     *
+     * @param value the value
+     */
+    public void writeDecimal(long value) {
+        int digits = 1;
+        for (long v = value; v >= 10L; v /= 10L) {
+            digits ++;
+        }
+        final int count = this.count;
+        ensureCapacity(count + digits);
+        final byte[] buf = this.buf;
+        for (int i = count + digits - 1; i >= count; i --) {
+            buf[i] = (byte) ('0' + value % 10L);
+            value /= 10L;
+        }
+        this.count = count + digits;
+    }
+
+    void writeTo(final OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    void reset() {
+        count = 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    boolean isWritten() {
+        return count > 0;
+    }
+
+    /**
+     * Append the line terminator, bypassing sanitization.
+     */
+    void terminate() {
+        final int count = this.count;
+        ensureCapacity(count + 2);
+        buf[count] = 13;
+        buf[count + 1] = 10;
+        this.count = count + 2;
+    }
+
+    /**
+     * Get a buffer view of the content, for writing to a channel.  The view is reused until the buffer grows.
+     *
+     * @return the view, positioned at the start of the content
+     */
+    ByteBuffer toByteBuffer() {
+        ByteBuffer view = this.view;
+        if (view == null || view.array() != buf) {
+            this.view = view = ByteBuffer.wrap(buf);
+        }
+        view.clear();
+        view.limit(count);
+        return view;
+    }
+
+    void trace() {
+        WireTrace.outbound(buf, 0, count);
+    }
+}
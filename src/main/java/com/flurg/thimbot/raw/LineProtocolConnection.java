@@ -18,21 +18,23 @@
 
 package com.flurg.thimbot.raw;
 
+import com.flurg.thimbot.FlightRecording;
+import com.flurg.thimbot.Metrics;
 import com.flurg.thimbot.Priority;
 import com.flurg.thimbot.ThimBot;
+import com.flurg.thimbot.WireTrace;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -40,279 +42,425 @@ import java.util.ArrayDeque;
 public final class LineProtocolConnection {
 
     static final Charset UTF_8 = Charset.forName("utf-8");
-    private static final long PING_TIME = 24000000000L;
+    static final long PING_TIME = 24000000000L;
+    private static final byte[] PING_Q = "PING Q".getBytes(StandardCharsets.US_ASCII);
+    // the number of outstanding flow control pings whose round trip can be timed
+    private static final int PING_SLOTS = 8;
 
     final ThimBot context;
+    final Metrics metrics;
     final LineListener lineListener;
-    final Socket socket;
     final int bufSize;
+    final LineTransport transport;
 
-    boolean shutdown;
-    int windowSize = 8;
-    long seq, ack;
-
-    final Object lock = new Object();
-    final ArrayDeque<LineOutputCallback> lowQueue = new ArrayDeque<>();
-    final ArrayDeque<LineOutputCallback> medQueue = new ArrayDeque<>();
-    final ArrayDeque<LineOutputCallback> highQueue = new ArrayDeque<>();
-
-    private final Thread readThread = new Thread(new Runnable() {
-
-        public void run() {
-            try {
-                final InputStream inputStream = socket.getInputStream();
-                final byte[] bytes = new byte[bufSize];
-                final LineListener listener = lineListener;
-                int res;
-                int lim = 0, pos = 0;
-                for (;;) {
-                    res = inputStream.read(bytes, lim, bufSize - lim);
-
-                    if (res > 0) {
-                        lim += res;
-                    }
-
-                    for (int i = pos; i < lim; i ++) {
-                        if (bytes[i] == 13 && i < lim - 1 && bytes[i + 1] == 10) {
-                            System.out.printf(">>> %s%n", new String(bytes, pos, i - pos, StandardCharsets.US_ASCII));
-                            listener.handleLine(context, LineProtocolConnection.this, bytes, pos, i - pos);
-                            pos = i + 2;
-                        }
-                    }
-
-                    if (pos > 0) {
-                        System.arraycopy(bytes, pos, bytes, 0, lim - pos);
-                        lim -= pos;
-                        pos = 0;
-                    }
-
-                    if (res == -1) {
-                        if (lim > 0) {
-                            System.out.printf(">>> %s%n", new String(bytes, 0, lim, StandardCharsets.US_ASCII));
-                            listener.handleLine(context, LineProtocolConnection.this, bytes, 0, lim);
-                        }
-                        signalShutdown();
-                        return;
-                    }
-                }
-            } catch (IOException e) {
-                System.out.printf("Read exception: %s%n", e);
-                signalShutdown();
-            }
-        }
-    }, "IRC Read Thread");
-
-    private final Thread writeThread = new Thread(new Runnable() {
-        public void run() {
-            try {
-                final OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), 16384);
-                final Object lock = LineProtocolConnection.this.lock;
-                LineOutputCallback callback;
-                boolean shutdown = false;
-                long lastPing = System.nanoTime();
-                long now;
-
-                for (;;) {
-                    synchronized (lock) {
-                        if (LineProtocolConnection.this.shutdown) return;
-                        if ((now = System.nanoTime()) - lastPing > PING_TIME || seq - ack == (long)windowSize) {
-                            outputStream.write('P');
-                            outputStream.write('I');
-                            outputStream.write('N');
-                            outputStream.write('G');
-                            outputStream.write(' ');
-                            outputStream.write('Q');
-                            outputStream.write(Long.toString(seq++).getBytes(StandardCharsets.US_ASCII));
-                            outputStream.write(13);
-                            outputStream.write(10);
-                            outputStream.flush();
-                            lastPing = now;
-                        }
-                        while (seq - ack > (long)windowSize) try {
-                            lock.wait();
-                            if (LineProtocolConnection.this.shutdown) return;
-                        } catch (InterruptedException e) {
-                        }
-                        do {
-                            shutdown = LineProtocolConnection.this.shutdown;
-                            callback = highQueue.poll();
-                            if (callback == null) {
-                                callback = medQueue.poll();
-                                if (callback == null) {
-                                    callback = lowQueue.poll();
-                                    if (callback == null) {
-                                        if (shutdown) {
-                                            return;
-                                        }
-                                        try {
-                                            lock.wait(PING_TIME / 1000000L + 50L, (int) (PING_TIME % 1000000L));
-                                            if (LineProtocolConnection.this.shutdown) return;
-                                        } catch (InterruptedException e) {
-                                        }
-                                        continue;
-                                    }
-                                }
-                            }
-                        } while (callback == null);
-                    }
-                    if (callback != null) try {
-                        final ByteArrayOutput byteOutput = new ByteArrayOutput();
-                        callback.writeLine(context, byteOutput, seq);
-                        if (byteOutput.isWritten()) {
-                            System.out.printf("<<< %s%n", byteOutput.toString("UTF-8"));
-                            byteOutput.writeTo(outputStream);
-                            outputStream.write(13);
-                            outputStream.write(10);
-                            outputStream.flush();
-                            seq++;
-                        }
-                    } catch (IOException e) {
-                        System.out.printf("Write exception: %s%n", e);
-                        return;
-                    }
-                }
-            } catch (IOException e) {
-                System.out.printf("Write exception: %s%n", e);
-                return;
-            } finally {
-                safeClose(socket);
-                final LineListener listener = lineListener;
-                try {
-                    listener.terminated(context, LineProtocolConnection.this);
-                } catch (Throwable ignored) {}
-            }
-        }
-    }, "IRC Write Thread");
+    private static final AtomicLongFieldUpdater<LineProtocolConnection> ackUpdater = AtomicLongFieldUpdater.newUpdater(LineProtocolConnection.class, "ack");
+
+    volatile boolean shutdown;
+    volatile int windowSize = 8;
+    volatile long ack;
+    // only accessed by the writing side of the transport
+    long seq;
+    private long polledStamp;
+    private Priority polledPriority;
+    private long stallStart;
+    private Object stallToken;
+    private int pingCount;
+    // pairs of (sequence, send time) of recent pings; written by the writing side, claimed by whoever acknowledges
+    private final AtomicLongArray pings = new AtomicLongArray(PING_SLOTS << 1);
+
+    volatile FloodControl floodControl;
+
+    final OutboundQueue lowQueue = new OutboundQueue();
+    final OutboundQueue medQueue = new OutboundQueue();
+    final OutboundQueue highQueue = new OutboundQueue();
 
     public LineProtocolConnection(final ThimBot context, final LineListener lineListener, final Socket socket, final int bufSize) {
+        this(context, lineListener, socket, null, bufSize);
+    }
+
+    /**
+     * Construct a new instance over a blocking socket whose read and write loops are run by the given executor.
+     *
+     * @param context the bot
+     * @param lineListener the line listener
+     * @param socket the connected socket
+     * @param executor the executor which runs the read and write loops, or {@code null} to start a new platform
+     *      thread for each
+     * @param bufSize the size of the read buffer, which limits the maximum line length
+     * @see ConnectionExecutors
+     */
+    public LineProtocolConnection(final ThimBot context, final LineListener lineListener, final Socket socket, final Executor executor, final int bufSize) {
         this.context = context;
+        metrics = context.getMetrics();
         this.lineListener = lineListener;
-        this.socket = socket;
         this.bufSize = bufSize;
+        initPings();
+        transport = new StreamLineTransport(this, socket, executor);
+    }
+
+    /**
+     * Construct a new instance which is driven by a selector loop from the given group rather than by dedicated
+     * threads.  The channel must already be connected; it will be configured for non-blocking I/O.
+     *
+     * @param context the bot
+     * @param lineListener the line listener
+     * @param channel the connected socket channel
+     * @param loopGroup the loop group which will service the channel
+     * @param bufSize the size of the read buffer, which limits the maximum line length
+     * @throws IOException if the channel could not be configured
+     */
+    public LineProtocolConnection(final ThimBot context, final LineListener lineListener, final SocketChannel channel, final SelectorLoopGroup loopGroup, final int bufSize) throws IOException {
+        this.context = context;
+        metrics = context.getMetrics();
+        this.lineListener = lineListener;
+        this.bufSize = bufSize;
+        initPings();
+        channel.configureBlocking(false);
+        transport = new ChannelLineTransport(this, channel, loopGroup.next());
+    }
+
+    private void initPings() {
+        for (int i = 0; i < PING_SLOTS; i ++) {
+            pings.lazySet(i << 1, -1L);
+        }
     }
 
     public void start() {
-        readThread.start();
-        writeThread.start();
+        transport.start();
     }
 
-    private void enqueue(ArrayDeque<LineOutputCallback> queue, LineOutputCallback callback) {
-        synchronized (lock) {
-            if (shutdown) {
-                return;
-            }
-            queue.add(callback);
-            if (queue.size() == 1) {
-                lock.notify();
+    /**
+     * Deliver each complete line found in the given buffer region to the line listener.
+     *
+     * @param bytes the buffer
+     * @param pos the position of the first unconsumed byte
+     * @param lim the limit of the valid data
+     * @return the position of the first byte which was not consumed
+     */
+    int handleLines(final byte[] bytes, int pos, final int lim) {
+        for (int i = pos; i < lim; i ++) {
+            if (bytes[i] == 13 && i < lim - 1 && bytes[i + 1] == 10) {
+                handleLine(bytes, pos, i - pos);
+                pos = i + 2;
             }
         }
+        if (pos == 0 && lim == bufSize) {
+            // line is too long to fit in the buffer; pass on what we have rather than stalling
+            handleLine(bytes, 0, lim);
+            return lim;
+        }
+        return pos;
     }
 
-    public void queueMessage(Priority priority, LineOutputCallback callback) {
-        if (priority == Priority.HIGH) {
-            enqueue(highQueue, callback);
-        } else if (priority == Priority.NORMAL) {
-            enqueue(medQueue, callback);
-        } else if (priority == Priority.LOW) {
-            enqueue(lowQueue, callback);
-        } else {
-            throw new IllegalArgumentException("Invalid priority value");
+    void handleLine(final byte[] bytes, final int offs, final int len) {
+        if (WireTrace.isEnabled()) {
+            WireTrace.inbound(bytes, offs, len);
+        }
+        if (metrics.isEnabled()) {
+            metrics.recordInboundLine(len);
         }
+        lineListener.handleLine(context, this, bytes, offs, len);
     }
 
-    public void setWindowSize(int size) {
-        synchronized (lock) {
-            windowSize = size;
-            lock.notify();
+    /**
+     * Get the next queued callback in priority order.  Only called from the writing side of the transport.
+     *
+     * @return the callback, or {@code null} if none are queued
+     */
+    LineOutputCallback pollCallback() {
+        LineOutputCallback callback = highQueue.poll();
+        if (callback != null) {
+            polledStamp = highQueue.polledStamp();
+            polledPriority = Priority.HIGH;
+            return callback;
+        }
+        callback = medQueue.poll();
+        if (callback != null) {
+            polledStamp = medQueue.polledStamp();
+            polledPriority = Priority.NORMAL;
+            return callback;
         }
+        callback = lowQueue.poll();
+        if (callback != null) {
+            polledStamp = lowQueue.polledStamp();
+            polledPriority = Priority.LOW;
+        }
+        return callback;
     }
 
-    public void acknowledge(long ackSeq) {
-        synchronized (lock) {
-            if (ack < ackSeq) {
-                ack = ackSeq;
-                lock.notify();
+    /**
+     * Run the given callback to produce the next outbound line, including its terminator.  Only called from the
+     * writing side of the transport.
+     *
+     * @param callback the callback
+     * @param lineBuffer the buffer to fill
+     * @return {@code true} if a line was produced, or {@code false} if the callback wrote nothing
+     * @throws IOException if the callback failed
+     */
+    boolean writeLine(final LineOutputCallback callback, final LineBuffer lineBuffer) throws IOException {
+        lineBuffer.reset();
+        callback.writeLine(context, lineBuffer, seq);
+        if (lineBuffer.isWritten()) {
+            if (WireTrace.isEnabled()) {
+                lineBuffer.trace();
+            }
+            consumeFlood();
+            seq++;
+            lineBuffer.terminate();
+            final long stamp = polledStamp;
+            final long queueNanos = stamp == 0L ? -1L : System.nanoTime() - stamp;
+            if (metrics.isEnabled()) {
+                metrics.recordOutboundLine(lineBuffer.size());
+                if (queueNanos >= 0L) {
+                    metrics.recordQueueTime(queueNanos);
+                }
             }
+            FlightRecording.messageWritten(polledPriority, queueNanos);
+            return true;
         }
+        return false;
     }
 
-    public void terminate() {
-        synchronized (lock) {
-            shutdown = true;
-            lock.notify();
+    /**
+     * Determine whether any callbacks are queued.  Only called from the writing side of the transport.
+     *
+     * @return {@code true} if a callback is queued
+     */
+    boolean hasQueued() {
+        return ! (highQueue.isEmpty() && medQueue.isEmpty() && lowQueue.isEmpty());
+    }
+
+    /**
+     * Determine whether the window is exhausted, meaning that a ping must be sent to solicit an acknowledgement.
+     *
+     * @return {@code true} if a ping is due for flow control
+     */
+    boolean windowExhausted() {
+        return seq - ack == (long) windowSize;
+    }
+
+    /**
+     * Determine whether the window is closed, meaning that no further lines may be sent until an acknowledgement
+     * arrives.
+     *
+     * @return {@code true} if writing must wait
+     */
+    boolean windowClosed() {
+        final boolean closed = seq - ack > (long) windowSize;
+        if (closed) {
+            if (stallStart == 0L) {
+                // the stall is timed if either metrics or the flight recorder want it
+                stallToken = FlightRecording.windowStallBegin();
+                if (stallToken != null || metrics.isEnabled()) {
+                    stallStart = System.nanoTime() | 1L;
+                }
+            }
+        } else if (stallStart != 0L) {
+            if (metrics.isEnabled()) {
+                metrics.recordWindowStall(System.nanoTime() - stallStart);
+            }
+            FlightRecording.windowStallEnd(stallToken, windowSize);
+            stallStart = 0L;
+            stallToken = null;
         }
+        return closed;
     }
 
-    public void detach() {
-        synchronized (lock) {
+    /**
+     * Get the time until flood control allows another line to be sent.  Only called from the writing side of the
+     * transport.
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return 0 if a line may be sent now, otherwise the number of nanoseconds to wait
+     */
+    long floodDelay(final long now) {
+        final FloodControl floodControl = this.floodControl;
+        return floodControl == null ? 0L : floodControl.delay(now);
+    }
 
+    private void consumeFlood() {
+        final FloodControl floodControl = this.floodControl;
+        if (floodControl != null) {
+            floodControl.consume(System.nanoTime());
         }
     }
 
-    public boolean isTerminated() {
-        synchronized (lock) {
-            return shutdown;
+    /**
+     * Produce a flow control ping line, including its terminator.  Only called from the writing side of the
+     * transport.
+     *
+     * @param lineBuffer the buffer to fill
+     */
+    void pingLine(final LineBuffer lineBuffer) {
+        // flow control pings are never delayed, but they still count against the bucket
+        consumeFlood();
+        lineBuffer.reset();
+        lineBuffer.write(PING_Q, 0, PING_Q.length);
+        if (metrics.isEnabled()) {
+            final int slot = (pingCount++ & PING_SLOTS - 1) << 1;
+            pings.lazySet(slot + 1, System.nanoTime());
+            pings.set(slot, seq);
+        }
+        lineBuffer.writeDecimal(seq++);
+        lineBuffer.terminate();
+        if (metrics.isEnabled()) {
+            metrics.recordOutboundLine(lineBuffer.size());
         }
     }
 
-    static void safeClose(final Closeable closeable) {
-        if (closeable != null) try {
-            closeable.close();
+    void terminated() {
+        try {
+            lineListener.terminated(context, this);
         } catch (Throwable ignored) {}
     }
 
-    void signalShutdown() {
-        synchronized (lock) {
-            shutdown = true;
-            lock.notify();
+    private boolean enqueue(OutboundQueue queue, Priority priority, String target, LineOutputCallback callback) {
+        if (shutdown) {
+            return false;
         }
+        FlightRecording.messageQueued(priority, target);
+        // a stamp of 0 means the line is not timed
+        queue.offer(target, callback, metrics.isEnabled() || FlightRecording.isMessageWrittenEnabled() ? System.nanoTime() | 1L : 0L);
+        transport.wakeup();
+        return true;
     }
 
-    public String getServerName() {
-        SocketAddress address = socket.getRemoteSocketAddress();
-        if (address instanceof InetSocketAddress) {
-            return ((InetSocketAddress) address).getHostString();
+    public boolean queueMessage(Priority priority, LineOutputCallback callback) {
+        return queueMessage(priority, null, callback);
+    }
+
+    /**
+     * Queue a line which is addressed to the given target.  Within each priority, targets take turns according to
+     * their weight, so that a busy target does not hold up the others.
+     *
+     * @param priority the priority
+     * @param target the target channel or nick, or {@code null} if the line has no particular target
+     * @param callback the callback which writes the line
+     * @return {@code true} if the line was queued, or {@code false} if the connection is shutting down
+     */
+    public boolean queueMessage(Priority priority, String target, LineOutputCallback callback) {
+        target = foldTarget(target);
+        if (priority == Priority.HIGH) {
+            return enqueue(highQueue, priority, target, callback);
+        } else if (priority == Priority.NORMAL) {
+            return enqueue(medQueue, priority, target, callback);
+        } else if (priority == Priority.LOW) {
+            return enqueue(lowQueue, priority, target, callback);
         } else {
-            return "server";
+            throw new IllegalArgumentException("Invalid priority value");
         }
     }
 
-    static final class ByteArrayOutput extends ByteArrayOutputStream implements ByteOutput {
+    private String foldTarget(String target) {
+        // #Foo and #foo are the same target
+        return target == null ? null : context.getCaseMapping().toLowerCase(target);
+    }
 
-        ByteArrayOutput() {
-        }
+    /**
+     * Set the number of lines a target may send in one turn, relative to other targets.  The default is 1.
+     *
+     * @param target the target channel or nick
+     * @param weight the weight
+     */
+    public void setTargetWeight(String target, int weight) {
+        target = foldTarget(target);
+        highQueue.setWeight(target, weight);
+        medQueue.setWeight(target, weight);
+        lowQueue.setWeight(target, weight);
+    }
 
-        public void write(final Emittable emitter) throws IOException {
-            emitter.emit((ByteArrayOutputStream) this);
-        }
+    /**
+     * Get the flood control in effect for this connection.
+     *
+     * @return the flood control, or {@code null} if outbound lines are not rate limited
+     */
+    public FloodControl getFloodControl() {
+        return floodControl;
+    }
 
-        public void write(final StringEmitter emitter) throws IOException {
-            emitter.emit((ByteArrayOutputStream) this);
-        }
+    /**
+     * Set the flood control for this connection.
+     *
+     * @param floodControl the flood control, or {@code null} to disable rate limiting
+     */
+    public void setFloodControl(FloodControl floodControl) {
+        this.floodControl = floodControl;
+        transport.wakeup();
+    }
 
-        public void write(final String string, final Charset charset) throws IOException {
-            write(string.getBytes(charset));
-        }
+    public void setWindowSize(int size) {
+        windowSize = size;
+        transport.wakeup();
+    }
 
-        public void write(final String string) throws IOException {
-            write(string.getBytes(StandardCharsets.US_ASCII));
+    public void acknowledge(long ackSeq) {
+        long oldVal;
+        do {
+            oldVal = ack;
+            if (oldVal >= ackSeq) {
+                return;
+            }
+        } while (! ackUpdater.compareAndSet(this, oldVal, ackSeq));
+        final AtomicLongArray pings = this.pings;
+        for (int i = 0; i < PING_SLOTS << 1; i += 2) {
+            if (pings.get(i) == ackSeq) {
+                final long sent = pings.get(i + 1);
+                if (pings.compareAndSet(i, ackSeq, -1L)) {
+                    metrics.recordAckTime(System.nanoTime() - sent);
+                }
+                break;
+            }
         }
+        transport.wakeup();
+    }
 
-        public void write(final int b) {
-            super.write(b == 10 || b == 13 ? 32 : b);
+    /**
+     * Get the number of lines waiting to be sent at a priority.
+     *
+     * @param priority the priority
+     * @return the number of lines
+     */
+    public long getQueueDepth(Priority priority) {
+        if (priority == Priority.HIGH) {
+            return highQueue.size();
+        } else if (priority == Priority.NORMAL) {
+            return medQueue.size();
+        } else if (priority == Priority.LOW) {
+            return lowQueue.size();
+        } else {
+            throw new IllegalArgumentException("Invalid priority value");
         }
+    }
 
-        public void write(final byte[] b, final int offs, final int len) {
-            for (int i = 0; i < len; i ++) {
-                if (b[i] == 10 || b[i] == 13) {
-                    b[i] = 32;
-                }
-            }
-            super.write(b, offs, len);
-        }
+    public void terminate() {
+        shutdown = true;
+        transport.wakeup();
+    }
 
-        boolean isWritten() {
-            return count > 0;
+    public void detach() {
+    }
+
+    public boolean isTerminated() {
+        return shutdown;
+    }
+
+    static void safeClose(final Closeable closeable) {
+        if (closeable != null) try {
+            closeable.close();
+        } catch (Throwable ignored) {}
+    }
+
+    void signalShutdown() {
+        shutdown = true;
+        transport.wakeup();
+    }
+
+    public String getServerName() {
+        SocketAddress address = transport.getPeerAddress();
+        if (address instanceof InetSocketAddress) {
+            return ((InetSocketAddress) address).getHostString();
+        } else {
+            return "server";
         }
     }
 }
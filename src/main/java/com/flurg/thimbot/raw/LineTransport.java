@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.net.SocketAddress;
+
+/**
+ * The I/O strategy behind a {@link LineProtocolConnection}.  A transport moves bytes between the peer and the
+ * connection; line splitting, queueing and flow control remain in the connection itself.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+abstract class LineTransport {
+
+    final LineProtocolConnection connection;
+
+    LineTransport(final LineProtocolConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Begin reading from and writing to the peer.
+     */
+    abstract void start();
+
+    /**
+     * Indicate that the outbound state of the connection has changed (a message was queued, an acknowledgement
+     * arrived, or shutdown was requested).  May be called from any thread, and must not block.
+     */
+    abstract void wakeup();
+
+    /**
+     * Get the address of the peer, if known.
+     *
+     * @return the peer address, or {@code null} if it is not known
+     */
+    abstract SocketAddress getPeerAddress();
+}
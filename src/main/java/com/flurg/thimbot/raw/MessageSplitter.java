@@ -0,0 +1,248 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an encoded message into pieces which each fit in a byte budget.  Pieces end at a space where one is near
+ * enough to the end, and otherwise at a character boundary; a UTF-8 sequence or a formatting code is never cut in two.
+ * The formatting in effect at the end of a piece is written again at the start of the next, so that each line of a
+ * split message looks the way the whole message would have.
+ * <p>
+ * The message is encoded once; pieces are copied out of the encoded bytes.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class MessageSplitter {
+
+    private static final byte BOLD = 0x02;
+    private static final byte COLOR = 0x03;
+    private static final byte HEX_COLOR = 0x04;
+    private static final byte RESET = 0x0f;
+    private static final byte MONOSPACE = 0x11;
+    private static final byte REVERSE = 0x16;
+    private static final byte ITALIC = 0x1d;
+    private static final byte STRIKETHROUGH = 0x1e;
+    private static final byte UNDERLINE = 0x1f;
+
+    private static final byte[] TOGGLES = { BOLD, MONOSPACE, REVERSE, ITALIC, STRIKETHROUGH, UNDERLINE };
+
+    // the smallest piece worth writing formatting in front of
+    private static final int MIN_PIECE = 16;
+
+    private MessageSplitter() {
+    }
+
+    /**
+     * Split a message.
+     *
+     * @param message the message
+     * @param budget the most bytes any piece may have
+     * @return the pieces, which is just the message itself if it fits
+     */
+    public static StringEmitter[] split(StringEmitter message, int budget) {
+        final byte[] bytes = message.bytes;
+        final int length = bytes.length;
+        if (length <= budget) {
+            return new StringEmitter[] { message };
+        }
+        final List<StringEmitter> pieces = new ArrayList<StringEmitter>();
+        final State state = new State();
+        int pos = 0;
+        while (pos < length) {
+            int restoreLength = state.restoreLength();
+            if (budget - restoreLength < MIN_PIECE) {
+                restoreLength = 0;
+            }
+            final int limit = budget - restoreLength;
+            int end, next;
+            if (length - pos <= limit) {
+                end = next = length;
+            } else {
+                int lastSpace = -1;
+                int lastBoundary = pos;
+                int p = pos;
+                for (;;) {
+                    final int unitEnd = unitEnd(bytes, p, length);
+                    if (unitEnd - pos > limit) break;
+                    if (bytes[p] == ' ' && p > pos) lastSpace = p;
+                    lastBoundary = p = unitEnd;
+                }
+                if (lastSpace != -1 && lastSpace - pos >= limit >> 1) {
+                    // drop the space we break at
+                    end = lastSpace;
+                    next = lastSpace + 1;
+                } else if (lastBoundary > pos) {
+                    end = next = lastBoundary;
+                } else {
+                    // a single unit bigger than the budget; there is nothing better to do than send it whole
+                    end = next = unitEnd(bytes, pos, length);
+                }
+            }
+            final byte[] piece = new byte[restoreLength + end - pos];
+            if (restoreLength > 0) {
+                state.restore(bytes, piece);
+            }
+            System.arraycopy(bytes, pos, piece, restoreLength, end - pos);
+            pieces.add(new StringEmitter(piece));
+            state.apply(bytes, pos, next);
+            pos = next;
+        }
+        return pieces.toArray(new StringEmitter[pieces.size()]);
+    }
+
+    /**
+     * Find the end of the unit which starts at {@code p}: a whole UTF-8 sequence, a whole color code, or one byte.
+     */
+    static int unitEnd(final byte[] bytes, int p, final int length) {
+        final int b = bytes[p ++] & 0xff;
+        if (b == COLOR) {
+            p = digits(bytes, p, length, 2, false);
+            if (p < length - 1 && bytes[p] == ',' && isDigit(bytes[p + 1], false) && bytes[p - 1] != COLOR) {
+                p = digits(bytes, p + 1, length, 2, false);
+            }
+        } else if (b == HEX_COLOR) {
+            final int q = digits(bytes, p, length, 6, true);
+            if (q - p == 6) {
+                p = q;
+                if (p < length - 6 && bytes[p] == ',' && digits(bytes, p + 1, length, 6, true) - p == 7) {
+                    p += 7;
+                }
+            }
+        } else if (b >= 0xc0) {
+            // lead byte; take its continuation bytes, however many there are
+            while (p < length && (bytes[p] & 0xc0) == 0x80) p ++;
+        }
+        return p;
+    }
+
+    private static int digits(final byte[] bytes, int p, final int length, final int max, final boolean hex) {
+        final int end = Math.min(length, p + max);
+        while (p < end && isDigit(bytes[p], hex)) p ++;
+        return p;
+    }
+
+    private static boolean isDigit(final byte b, final boolean hex) {
+        return b >= '0' && b <= '9' || hex && (b >= 'a' && b <= 'f' || b >= 'A' && b <= 'F');
+    }
+
+    /**
+     * The formatting in effect at some point of a message.
+     */
+    static final class State {
+        // bits of TOGGLES which are on
+        int toggles;
+        // the color code digits in effect, as offsets into the message, or -1
+        int fgStart = -1, fgLength;
+        int bgStart = -1, bgLength;
+        int hexStart = -1, hexLength;
+
+        void apply(final byte[] bytes, int p, final int end) {
+            while (p < end) {
+                final byte b = bytes[p];
+                final int unitEnd = unitEnd(bytes, p, end);
+                switch (b) {
+                    case BOLD: case MONOSPACE: case REVERSE: case ITALIC: case STRIKETHROUGH: case UNDERLINE: {
+                        for (int i = 0; i < TOGGLES.length; i ++) {
+                            if (TOGGLES[i] == b) toggles ^= 1 << i;
+                        }
+                        break;
+                    }
+                    case RESET: {
+                        toggles = 0;
+                        fgStart = bgStart = hexStart = -1;
+                        break;
+                    }
+                    case COLOR: {
+                        if (unitEnd == p + 1) {
+                            fgStart = bgStart = -1;
+                        } else {
+                            final int comma = indexOf(bytes, p + 1, unitEnd, (byte) ',');
+                            fgStart = p + 1;
+                            fgLength = (comma == -1 ? unitEnd : comma) - fgStart;
+                            if (comma != -1) {
+                                bgStart = comma + 1;
+                                bgLength = unitEnd - bgStart;
+                            }
+                        }
+                        break;
+                    }
+                    case HEX_COLOR: {
+                        if (unitEnd == p + 1) {
+                            hexStart = -1;
+                        } else {
+                            hexStart = p + 1;
+                            hexLength = unitEnd - hexStart;
+                        }
+                        break;
+                    }
+                }
+                p = unitEnd;
+            }
+        }
+
+        int restoreLength() {
+            int length = Integer.bitCount(toggles);
+            if (fgStart != -1) {
+                length += 3;
+                if (bgStart != -1) length += 3;
+            }
+            if (hexStart != -1) {
+                length += 1 + hexLength;
+            }
+            return length;
+        }
+
+        void restore(final byte[] message, final byte[] target) {
+            int p = 0;
+            if (fgStart != -1) {
+                target[p ++] = COLOR;
+                p = colorDigits(message, fgStart, fgLength, target, p);
+                if (bgStart != -1) {
+                    target[p ++] = ',';
+                    p = colorDigits(message, bgStart, bgLength, target, p);
+                }
+            }
+            if (hexStart != -1) {
+                target[p ++] = HEX_COLOR;
+                System.arraycopy(message, hexStart, target, p, hexLength);
+                p += hexLength;
+            }
+            for (int i = 0; i < TOGGLES.length; i ++) {
+                if ((toggles & 1 << i) != 0) target[p ++] = TOGGLES[i];
+            }
+        }
+
+        // always two digits, so that a digit at the start of the text is not taken as part of the code
+        private static int colorDigits(final byte[] message, final int start, final int length, final byte[] target, int p) {
+            target[p ++] = length == 2 ? message[start] : (byte) '0';
+            target[p ++] = message[start + length - 1];
+            return p;
+        }
+
+        private static int indexOf(final byte[] bytes, int p, final int end, final byte b) {
+            for (; p < end; p ++) {
+                if (bytes[p] == b) return p;
+            }
+            return -1;
+        }
+    }
+}
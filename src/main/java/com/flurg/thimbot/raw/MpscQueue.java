@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded, lock-free, multi-producer single-consumer linked queue.  Producers contend only on a single atomic
+ * swap of the tail and never wait for each other or for the consumer.  Only one thread at a time may call
+ * {@link #poll()}.
+ *
+ * @param <E> the element type
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class MpscQueue<E> {
+
+    private final AtomicReference<Node<E>> tail;
+
+    // consumer only
+    private Node<E> head;
+    private long polledStamp;
+
+    MpscQueue() {
+        final Node<E> stub = new Node<>(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * Add an element to the queue.  May be called from any thread.
+     *
+     * @param element the element (must not be {@code null})
+     */
+    void offer(final E element) {
+        offer(element, 0L);
+    }
+
+    /**
+     * Add an element to the queue along with a stamp, which is returned by {@link #polledStamp()} when the element is
+     * polled.  May be called from any thread.
+     *
+     * @param element the element (must not be {@code null})
+     * @param stamp the stamp
+     */
+    void offer(final E element, final long stamp) {
+        final Node<E> node = new Node<>(element);
+        node.stamp = stamp;
+        final Node<E> prev = tail.getAndSet(node);
+        Node.nextUpdater.lazySet(prev, node);
+    }
+
+    /**
+     * Remove the next element from the queue.  Must only be called by the consumer.
+     *
+     * @return the next element, or {@code null} if the queue is empty
+     */
+    E poll() {
+        final Node<E> head = this.head;
+        Node<E> next = head.next;
+        if (next == null) {
+            if (head == tail.get()) {
+                return null;
+            }
+            // a producer has swapped the tail but not yet linked its node; it will do so momentarily
+            while ((next = head.next) == null) {
+                Thread.yield();
+            }
+        }
+        this.head = next;
+        polledStamp = next.stamp;
+        final E element = next.element;
+        next.element = null;
+        return element;
+    }
+
+    /**
+     * Get the stamp of the element most recently returned by {@link #poll()}.  Must only be called by the consumer.
+     *
+     * @return the stamp
+     */
+    long polledStamp() {
+        return polledStamp;
+    }
+
+    /**
+     * Determine whether the queue is empty.  Must only be called by the consumer.
+     *
+     * @return {@code true} if there are no elements
+     */
+    boolean isEmpty() {
+        return head == tail.get();
+    }
+
+    static final class Node<E> {
+        @SuppressWarnings("rawtypes")
+        static final AtomicReferenceFieldUpdater<Node, Node> nextUpdater = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+        E element;
+        long stamp;
+        volatile Node<E> next;
+
+        Node(final E element) {
+            this.element = element;
+        }
+    }
+}
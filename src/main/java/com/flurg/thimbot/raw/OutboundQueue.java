@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The outbound queue for one priority level.  Lines are queued per target, and the targets which have lines waiting
+ * are served in weighted round-robin order, so that a busy target cannot starve the others.  Lines for any one target
+ * are always sent in the order they were queued.
+ * <p>
+ * Lines with no target, such as {@code QUIT} or {@code CAP END}, concern the whole connection, so they keep their
+ * place in line: they go into an ordered lane, and are sent only after every targeted line queued before them.
+ * While the ordered lane has lines waiting, lines queued after them join it too, so nothing overtakes them either;
+ * round-robin service resumes once the lane has drained.
+ * <p>
+ * Any thread may queue lines; only the writing side of the transport may take them.  The entry for a target is
+ * dropped once it has nothing left to send; only the weights which have been set are kept for the life of the
+ * connection.  Target names must already be case-folded by the caller.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class OutboundQueue {
+
+    private static final String NO_TARGET = "";
+
+    private final ConcurrentHashMap<String, TargetQueue> targets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> weights = new ConcurrentHashMap<>();
+    private final MpscQueue<TargetQueue> ready = new MpscQueue<>();
+    // lines which must be sent in the order they were queued, and how many of them are waiting
+    private final MpscQueue<LineOutputCallback> ordered = new MpscQueue<>();
+    private final AtomicInteger orderedCount = new AtomicInteger();
+    // the number of targeted lines which have been queued, or are being queued, but not yet taken
+    private final AtomicLong targetedCount = new AtomicLong();
+    private final LongAdder offered = new LongAdder();
+    // written by the consumer only
+    private volatile long polled;
+
+    // consumer only
+    private TargetQueue current;
+    private int quantum;
+    private long polledStamp;
+
+    OutboundQueue() {
+    }
+
+    /**
+     * Get the queue for a target and hold it so that it cannot be dropped until {@link TargetQueue#release()} is
+     * called.
+     */
+    private TargetQueue acquireTargetQueue(final String target) {
+        final String key = target == null ? NO_TARGET : target;
+        for (;;) {
+            TargetQueue targetQueue = targets.get(key);
+            if (targetQueue == null) {
+                targetQueue = targets.computeIfAbsent(key, this::newTargetQueue);
+            }
+            if (targetQueue.acquire()) {
+                return targetQueue;
+            }
+            // it was just dropped; make sure it is gone and try again
+            targets.remove(key, targetQueue);
+        }
+    }
+
+    private TargetQueue newTargetQueue(final String key) {
+        final Integer weight = weights.get(key);
+        return new TargetQueue(key, weight == null ? 1 : weight.intValue());
+    }
+
+    /**
+     * Queue a line.
+     *
+     * @param target the target, or {@code null} for none
+     * @param callback the callback which writes the line
+     * @param stamp a stamp for the line, returned by {@link #polledStamp()} when it is taken
+     */
+    void offer(final String target, final LineOutputCallback callback, final long stamp) {
+        if (target == null || orderedCount.get() > 0) {
+            orderedCount.incrementAndGet();
+            offered.increment();
+            ordered.offer(callback, stamp);
+            return;
+        }
+        targetedCount.incrementAndGet();
+        final TargetQueue targetQueue = acquireTargetQueue(target);
+        try {
+            offered.increment();
+            targetQueue.queue.offer(callback, stamp);
+            if (targetQueue.scheduled.compareAndSet(false, true)) {
+                ready.offer(targetQueue);
+            }
+        } finally {
+            targetQueue.release();
+        }
+    }
+
+    void setWeight(final String target, final int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be at least 1");
+        }
+        final String key = target == null ? NO_TARGET : target;
+        // a queue created from here on picks up the new weight; an existing one is updated unless it is being dropped
+        weights.put(key, Integer.valueOf(weight));
+        final TargetQueue targetQueue = targets.get(key);
+        if (targetQueue != null && targetQueue.acquire()) {
+            try {
+                targetQueue.weight = weight;
+            } finally {
+                targetQueue.release();
+            }
+        }
+    }
+
+    LineOutputCallback poll() {
+        if (orderedCount.get() > 0 && targetedCount.get() == 0L) {
+            // every targeted line queued before the ordered lane filled has been sent
+            final LineOutputCallback callback = ordered.poll();
+            if (callback != null) {
+                polledStamp = ordered.polledStamp();
+                polled = polled + 1;
+                orderedCount.decrementAndGet();
+            }
+            // otherwise, the line is still being added
+            return callback;
+        }
+        for (;;) {
+            TargetQueue targetQueue = current;
+            if (targetQueue == null) {
+                targetQueue = ready.poll();
+                if (targetQueue == null) {
+                    return null;
+                }
+                current = targetQueue;
+                // a dropped queue is emptied in one turn, so that its lines go out ahead of any for its replacement
+                quantum = targetQueue.isRetired() ? Integer.MAX_VALUE : targetQueue.weight;
+            }
+            final LineOutputCallback callback = targetQueue.queue.poll();
+            if (callback == null) {
+                current = null;
+                deschedule(targetQueue);
+                continue;
+            }
+            polledStamp = targetQueue.queue.polledStamp();
+            polled = polled + 1;
+            targetedCount.decrementAndGet();
+            if (--quantum == 0) {
+                // this target has had its turn
+                current = null;
+                if (targetQueue.queue.isEmpty()) {
+                    deschedule(targetQueue);
+                } else {
+                    ready.offer(targetQueue);
+                }
+            }
+            return callback;
+        }
+    }
+
+    private void deschedule(final TargetQueue targetQueue) {
+        targetQueue.scheduled.set(false);
+        // a producer may have added a line after we found the queue empty but before it could see the flag cleared
+        if (! targetQueue.queue.isEmpty()) {
+            if (targetQueue.scheduled.compareAndSet(false, true)) {
+                ready.offer(targetQueue);
+            }
+            return;
+        }
+        // drop the idle queue, unless a producer holds it; a line which arrived just before is still sent, because
+        // the producer that queued it also scheduled the queue
+        if (targetQueue.retire()) {
+            targets.remove(targetQueue.target, targetQueue);
+        }
+    }
+
+    long polledStamp() {
+        return polledStamp;
+    }
+
+    /**
+     * Get the number of lines waiting in this queue.  May be called from any thread; the result is approximate while
+     * lines are being queued or taken.
+     *
+     * @return the number of lines
+     */
+    long size() {
+        return Math.max(0L, offered.sum() - polled);
+    }
+
+    boolean isEmpty() {
+        return current == null && ready.isEmpty() && orderedCount.get() == 0;
+    }
+
+    static final class TargetQueue {
+        final String target;
+        final MpscQueue<LineOutputCallback> queue = new MpscQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        // the number of producers holding this queue, or -1 once it has been dropped
+        final AtomicInteger holders = new AtomicInteger();
+        volatile int weight;
+
+        TargetQueue(final String target, final int weight) {
+            this.target = target;
+            this.weight = weight;
+        }
+
+        boolean acquire() {
+            int cnt;
+            do {
+                cnt = holders.get();
+                if (cnt < 0) {
+                    return false;
+                }
+            } while (! holders.compareAndSet(cnt, cnt + 1));
+            return true;
+        }
+
+        void release() {
+            holders.decrementAndGet();
+        }
+
+        boolean retire() {
+            return holders.compareAndSet(0, -1);
+        }
+
+        boolean isRetired() {
+            return holders.get() < 0;
+        }
+    }
+}
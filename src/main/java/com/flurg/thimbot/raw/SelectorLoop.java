@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single selector thread which services any number of channel transports.  Each transport has at most one timer,
+ * kept in deadline order so that finding the next one to fire does not depend on the number of connections.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class SelectorLoop implements Runnable {
+    // the same logger as the bot's own
+    static final Logger IRC_LOGGER = Logger.getLogger("com.flurg.thimbot.irc");
+
+    private static final int MAX_SELECT_FAILURES = 10;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean shutdown;
+
+    // loop thread only
+    private final TreeSet<ChannelLineTransport> timers = new TreeSet<>(BY_DEADLINE);
+    private long timerSeq;
+
+    private static final Comparator<ChannelLineTransport> BY_DEADLINE = new Comparator<ChannelLineTransport>() {
+        public int compare(final ChannelLineTransport o1, final ChannelLineTransport o2) {
+            // nanoTime values must be compared by difference
+            final long diff = o1.deadline - o2.deadline;
+            return diff < 0L ? -1 : diff > 0L ? 1 : Long.compare(o1.timerSeq, o2.timerSeq);
+        }
+    };
+
+    SelectorLoop(final String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean isInLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run a task on the loop thread.  Tasks run in submission order before the next select.
+     *
+     * @param task the task
+     */
+    void execute(final Runnable task) {
+        tasks.add(task);
+        if (! isInLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Register a channel with this loop.  Must be called from the loop thread.
+     *
+     * @param channel the channel
+     * @param transport the transport to notify of readiness
+     * @return the selection key
+     * @throws ClosedChannelException if the channel is closed
+     */
+    SelectionKey register(final SocketChannel channel, final ChannelLineTransport transport) throws ClosedChannelException {
+        assert isInLoop();
+        transport.timerSeq = timerSeq ++;
+        return channel.register(selector, SelectionKey.OP_READ, transport);
+    }
+
+    /**
+     * Set the time at which a transport's {@link ChannelLineTransport#handleWritable() handleWritable} method should
+     * next be called, replacing any earlier timer.  Must be called from the loop thread.
+     *
+     * @param transport the transport
+     * @param deadline the deadline, in {@link System#nanoTime()} terms
+     */
+    void setDeadline(final ChannelLineTransport transport, final long deadline) {
+        assert isInLoop();
+        if (transport.timerSet) {
+            if (transport.deadline == deadline) return;
+            timers.remove(transport);
+        }
+        transport.deadline = deadline;
+        transport.timerSet = true;
+        timers.add(transport);
+    }
+
+    /**
+     * Cancel a transport's timer, if it has one.  Must be called from the loop thread.
+     *
+     * @param transport the transport
+     */
+    void cancelDeadline(final ChannelLineTransport transport) {
+        assert isInLoop();
+        if (transport.timerSet) {
+            timers.remove(transport);
+            transport.timerSet = false;
+        }
+    }
+
+    void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Close the selector of a loop which was never started.
+     */
+    void closeUnstarted() {
+        assert ! thread.isAlive();
+        LineProtocolConnection.safeClose(selector);
+    }
+
+    public void run() {
+        final Selector selector = this.selector;
+        final Set<SelectionKey> selectedKeys = selector.selectedKeys();
+        Runnable task;
+        int selectFailures = 0;
+        for (;;) {
+            while ((task = tasks.poll()) != null) try {
+                task.run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+            if (shutdown) {
+                for (SelectionKey key : selector.keys()) {
+                    ((ChannelLineTransport) key.attachment()).close();
+                }
+                LineProtocolConnection.safeClose(selector);
+                return;
+            }
+            // fire any expired timers and find the next one; a transport sets a new timer from handleWritable
+            final long now = System.nanoTime();
+            long wait = Long.MAX_VALUE;
+            while (! timers.isEmpty()) {
+                final ChannelLineTransport timed = timers.first();
+                final long remaining = timed.deadline - now;
+                if (remaining > 0L) {
+                    wait = remaining;
+                    break;
+                }
+                timers.pollFirst();
+                timed.timerSet = false;
+                try {
+                    timed.handleWritable();
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+                if (timed.timerSet && timed.deadline - now <= 0L) {
+                    // don't spin on a timer which is already due; pick it up on the next pass
+                    wait = 0L;
+                    break;
+                }
+            }
+            try {
+                if (wait == 0L || ! tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (wait == Long.MAX_VALUE) {
+                    selector.select();
+                } else {
+                    selector.select(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(wait)));
+                }
+            } catch (IOException e) {
+                // a selector which fails once tends to keep failing; back off, and give up if it does not recover
+                if (++ selectFailures >= MAX_SELECT_FAILURES) {
+                    IRC_LOGGER.log(Level.SEVERE, "Select failed " + selectFailures + " times in a row, closing all connections on "
+                        + thread.getName(), e);
+                    shutdown = true;
+                } else {
+                    IRC_LOGGER.log(Level.WARNING, "Select exception: " + e);
+                    try {
+                        Thread.sleep(10L << selectFailures);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                continue;
+            }
+            selectFailures = 0;
+            final Iterator<SelectionKey> iterator = selectedKeys.iterator();
+            while (iterator.hasNext()) {
+                final SelectionKey key = iterator.next();
+                iterator.remove();
+                final ChannelLineTransport transport = (ChannelLineTransport) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        transport.handleReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        transport.handleWritable();
+                    }
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed group of selector threads which can drive any number of {@link LineProtocolConnection} instances, across
+ * any number of bots.  The number of threads does not depend on the number of connections.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class SelectorLoopGroup implements Closeable {
+
+    private final SelectorLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Construct a new instance with one loop per available processor.
+     *
+     * @throws IOException if a selector could not be opened
+     */
+    public SelectorLoopGroup() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param loopCount the number of selector threads to start
+     * @throws IOException if a selector could not be opened
+     */
+    public SelectorLoopGroup(final int loopCount) throws IOException {
+        if (loopCount < 1) {
+            throw new IllegalArgumentException("loopCount must be at least 1");
+        }
+        final SelectorLoop[] loops = new SelectorLoop[loopCount];
+        try {
+            for (int i = 0; i < loopCount; i ++) {
+                loops[i] = new SelectorLoop("IRC Selector Thread " + (i + 1));
+            }
+        } catch (IOException e) {
+            for (SelectorLoop loop : loops) {
+                if (loop != null) loop.closeUnstarted();
+            }
+            throw e;
+        }
+        for (SelectorLoop loop : loops) {
+            loop.start();
+        }
+        this.loops = loops;
+    }
+
+    SelectorLoop next() {
+        final SelectorLoop[] loops = this.loops;
+        return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    /**
+     * Get the number of selector threads in this group.
+     *
+     * @return the number of selector threads
+     */
+    public int getLoopCount() {
+        return loops.length;
+    }
+
+    /**
+     * Stop all selector threads, terminating any connections still registered with them.
+     */
+    public void close() {
+        for (SelectorLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
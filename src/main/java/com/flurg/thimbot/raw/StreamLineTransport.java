@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A transport over a blocking socket, which uses one task for reading and one for writing.  Each task occupies its
+ * thread for the life of the connection, so the executor must be able to run both at once.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+final class StreamLineTransport extends LineTransport {
+
+    private final Socket socket;
+    private final Executor executor;
+
+    private final Runnable readTask = new Runnable() {
+
+        public void run() {
+            final LineProtocolConnection connection = StreamLineTransport.this.connection;
+            try {
+                final InputStream inputStream = socket.getInputStream();
+                final int bufSize = connection.bufSize;
+                final byte[] bytes = new byte[bufSize];
+                int res;
+                int lim = 0, pos;
+                for (;;) {
+                    res = inputStream.read(bytes, lim, bufSize - lim);
+
+                    if (res > 0) {
+                        lim += res;
+                    }
+
+                    pos = connection.handleLines(bytes, 0, lim);
+
+                    if (pos > 0) {
+                        System.arraycopy(bytes, pos, bytes, 0, lim - pos);
+                        lim -= pos;
+                    }
+
+                    if (res == -1) {
+                        if (lim > 0) {
+                            connection.handleLine(bytes, 0, lim);
+                        }
+                        connection.signalShutdown();
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                System.out.printf("Read exception: %s%n", e);
+                connection.signalShutdown();
+            }
+        }
+    };
+
+    private volatile Thread writer;
+    private volatile boolean waiting;
+
+    private final Runnable writeTask = new Runnable() {
+        public void run() {
+            final LineProtocolConnection connection = StreamLineTransport.this.connection;
+            writer = Thread.currentThread();
+            try {
+                final OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream(), 16384);
+                final LineBuffer lineBuffer = new LineBuffer();
+                LineOutputCallback callback;
+                long lastPing = System.nanoTime();
+                long now;
+
+                // lines are only flushed once no further line is ready, so a burst goes out in as few writes as possible
+                for (;;) {
+                    if (connection.shutdown) {
+                        outputStream.flush();
+                        return;
+                    }
+                    if ((now = System.nanoTime()) - lastPing > LineProtocolConnection.PING_TIME || connection.windowExhausted()) {
+                        connection.pingLine(lineBuffer);
+                        lineBuffer.writeTo(outputStream);
+                        lastPing = now;
+                    }
+                    final boolean windowClosed = connection.windowClosed();
+                    final long floodDelay = windowClosed ? 0L : connection.floodDelay(now);
+                    callback = windowClosed || floodDelay > 0L ? null : connection.pollCallback();
+                    if (callback == null) {
+                        // wait for a message, an acknowledgement, the flood control bucket, or the next ping
+                        final long pingDelay = lastPing + LineProtocolConnection.PING_TIME + 1L - now;
+                        outputStream.flush();
+                        await(floodDelay > 0L ? Math.min(floodDelay, pingDelay) : pingDelay, floodDelay > 0L);
+                        continue;
+                    }
+                    try {
+                        if (connection.writeLine(callback, lineBuffer)) {
+                            lineBuffer.writeTo(outputStream);
+                        }
+                    } catch (IOException e) {
+                        System.out.printf("Write exception: %s%n", e);
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                System.out.printf("Write exception: %s%n", e);
+                return;
+            } finally {
+                LineProtocolConnection.safeClose(socket);
+                connection.terminated();
+            }
+        }
+    };
+
+    StreamLineTransport(final LineProtocolConnection connection, final Socket socket, final Executor executor) {
+        super(connection);
+        this.socket = socket;
+        this.executor = executor;
+    }
+
+    void start() {
+        final Executor executor = this.executor;
+        if (executor == null) {
+            new Thread(readTask, "IRC Read Thread").start();
+            new Thread(writeTask, "IRC Write Thread").start();
+        } else {
+            executor.execute(readTask);
+            executor.execute(writeTask);
+        }
+    }
+
+    void wakeup() {
+        if (waiting) {
+            final Thread writer = this.writer;
+            if (writer != null) {
+                LockSupport.unpark(writer);
+            }
+        }
+    }
+
+    private void await(final long nanos, final boolean throttled) {
+        final LineProtocolConnection connection = this.connection;
+        waiting = true;
+        try {
+            // check again now that producers can see that we are waiting, so that a wakeup cannot be lost
+            if (! connection.shutdown && (throttled || connection.windowClosed() || ! connection.hasQueued())) {
+                LockSupport.parkNanos(this, nanos);
+            }
+        } finally {
+            waiting = false;
+        }
+    }
+
+    SocketAddress getPeerAddress() {
+        return socket.getRemoteSocketAddress();
+    }
+}
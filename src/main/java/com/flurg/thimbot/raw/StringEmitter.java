@@ -28,16 +28,20 @@ import java.util.Arrays;
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class StringEmitter implements Emittable {
-    private final byte[] bytes;
+    final byte[] bytes;
     private final int hashCode;
 
     public StringEmitter(String original, Charset charset) {
         bytes = original.getBytes(charset);
+        hashCode = hashCode(bytes);
+    }
+
+    private static int hashCode(byte[] bytes) {
         int hc = 0;
         for (byte b : bytes) {
             hc = ((hc << 4) + hc) + (b & 0xff);
         }
-        hashCode = hc;
+        return hc;
     }
 
     public StringEmitter(String original, String charset) {
@@ -48,6 +52,11 @@ public final class StringEmitter implements Emittable {
         this(original, StandardCharsets.UTF_8);
     }
 
+    StringEmitter(byte[] bytes) {
+        this.bytes = bytes;
+        hashCode = hashCode(bytes);
+    }
+
     public void emit(ByteOutput output) throws IOException {
         output.write(bytes);
     }
@@ -0,0 +1,243 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.security;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.flurg.thimbot.CaseMapping;
+import com.flurg.thimbot.IRCUser;
+import com.flurg.thimbot.MaskSet;
+import com.flurg.thimbot.event.AccountChangeEvent;
+import com.flurg.thimbot.event.DisconnectEvent;
+import com.flurg.thimbot.event.Event;
+import com.flurg.thimbot.event.EventHandler;
+import com.flurg.thimbot.event.EventHandlerContext;
+import com.flurg.thimbot.event.FromUserEvent;
+import com.flurg.thimbot.event.NickChangeEvent;
+import com.flurg.thimbot.event.QuitEvent;
+
+/**
+ * An event handler which decides the {@link Authorization} of users from mask and account rules.  A user gets the
+ * highest level of any rule that matches them, or {@link Authorization#STRANGER} if none do.
+ * <p>
+ * Decisions are cached by user prefix and account, so a user who keeps talking is only checked against the rules
+ * once.  Entries are dropped when the user changes nick or account or quits, and the whole cache is dropped when the
+ * rules change.  Since the account is part of the key, a stale entry is never returned for a user who has logged in or
+ * out, even if the change has not been seen by this handler yet.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class Authorizer extends EventHandler {
+    private static final Authorization[] LEVELS = Authorization.values();
+    private static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private final CaseMapping caseMapping;
+    private final MaskSet[] masks;
+    private final Map<String, Authorization> accounts = new HashMap<String, Authorization>();
+    private final Cache cache;
+    private int generation;
+
+    /**
+     * Construct a new instance which uses the RFC 1459 case mapping.
+     */
+    public Authorizer() {
+        this(CaseMapping.RFC1459, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param caseMapping the case mapping to compare masks and accounts with
+     * @param cacheSize the maximum number of cached decisions
+     */
+    public Authorizer(final CaseMapping caseMapping, final int cacheSize) {
+        this.caseMapping = caseMapping;
+        masks = new MaskSet[LEVELS.length];
+        for (int i = 0; i < masks.length; i ++) {
+            masks[i] = new MaskSet(caseMapping);
+        }
+        cache = new Cache(cacheSize);
+    }
+
+    /**
+     * Grant a level to users matching a mask.
+     *
+     * @param mask the mask
+     * @param level the level
+     */
+    public void addMask(String mask, Authorization level) {
+        synchronized (cache) {
+            if (masks[level.ordinal()].add(mask)) invalidateAll();
+        }
+    }
+
+    /**
+     * Revoke a level previously granted to a mask.
+     *
+     * @param mask the mask
+     * @param level the level
+     */
+    public void removeMask(String mask, Authorization level) {
+        synchronized (cache) {
+            if (masks[level.ordinal()].remove(mask)) invalidateAll();
+        }
+    }
+
+    /**
+     * Grant a level to users logged in to a services account.
+     *
+     * @param account the account name
+     * @param level the level
+     */
+    public void addAccount(String account, Authorization level) {
+        synchronized (cache) {
+            accounts.put(caseMapping.toLowerCase(account), level);
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Revoke the level previously granted to a services account.
+     *
+     * @param account the account name
+     */
+    public void removeAccount(String account) {
+        synchronized (cache) {
+            if (accounts.remove(caseMapping.toLowerCase(account)) != null) invalidateAll();
+        }
+    }
+
+    private void invalidateAll() {
+        assert Thread.holdsLock(cache);
+        generation ++;
+        cache.clear();
+    }
+
+    /**
+     * Get the authorization of the sender of an event.  The account is taken from the event's {@code account} tag if
+     * there is one, and otherwise from the state tracker.
+     *
+     * @param event the event
+     * @return the authorization level
+     */
+    public Authorization getAuthorization(FromUserEvent event) {
+        String account = event instanceof Event ? ((Event) event).getTags().getAccount() : null;
+        if (account == null) {
+            final IRCUser user = event.getBot().getStateTracker().getUser(event.getFromNick());
+            if (user != null) account = user.getAccount();
+        }
+        return getAuthorization(event.getFromUser(), account);
+    }
+
+    /**
+     * Get the authorization of a user.
+     *
+     * @param prefix the user prefix, of the form {@code nick!user@host}
+     * @param account the user's account name, or {@code null} if they are not logged in
+     * @return the authorization level
+     */
+    public Authorization getAuthorization(String prefix, String account) {
+        final int generation;
+        synchronized (cache) {
+            final Decision decision = cache.get(prefix);
+            if (decision != null && (account == null ? decision.account == null : account.equals(decision.account))) {
+                return decision.level;
+            }
+            generation = this.generation;
+        }
+        final Authorization level = compute(prefix, account);
+        synchronized (cache) {
+            // don't cache a decision made against rules which have since changed
+            if (generation == this.generation) {
+                cache.put(prefix, new Decision(account, level));
+            }
+        }
+        return level;
+    }
+
+    private Authorization compute(final String prefix, final String account) {
+        Authorization accountLevel = null;
+        if (account != null) {
+            synchronized (cache) {
+                accountLevel = accounts.get(caseMapping.toLowerCase(account));
+            }
+        }
+        for (int i = LEVELS.length - 1; i > 0; i --) {
+            final Authorization level = LEVELS[i];
+            if (accountLevel == level || masks[i].matchesAny(prefix)) {
+                return level;
+            }
+        }
+        return Authorization.STRANGER;
+    }
+
+    private void invalidate(final String prefix) {
+        synchronized (cache) {
+            cache.remove(prefix);
+        }
+    }
+
+    public void handleEvent(final EventHandlerContext context, final NickChangeEvent event) throws Exception {
+        invalidate(event.getFromUser());
+        super.handleEvent(context, event);
+    }
+
+    public void handleEvent(final EventHandlerContext context, final AccountChangeEvent event) throws Exception {
+        invalidate(event.getFromUser());
+        super.handleEvent(context, event);
+    }
+
+    public void handleEvent(final EventHandlerContext context, final QuitEvent event) throws Exception {
+        invalidate(event.getFromUser());
+        super.handleEvent(context, event);
+    }
+
+    public void handleEvent(final EventHandlerContext context, final DisconnectEvent event) throws Exception {
+        synchronized (cache) {
+            cache.clear();
+        }
+        super.handleEvent(context, event);
+    }
+
+    static final class Decision {
+        final String account;
+        final Authorization level;
+
+        Decision(final String account, final Authorization level) {
+            this.account = account;
+            this.level = level;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class Cache extends LinkedHashMap<String, Decision> {
+        private final int maxSize;
+
+        Cache(final int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        protected boolean removeEldestEntry(final Map.Entry<String, Decision> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
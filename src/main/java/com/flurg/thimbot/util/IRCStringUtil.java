@@ -18,8 +18,6 @@
 
 package com.flurg.thimbot.util;
 
-import java.util.regex.Pattern;
-
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
@@ -28,25 +26,134 @@ public final class IRCStringUtil {
     private IRCStringUtil() {
     }
 
-    private static final Pattern DEFORMAT = Pattern.compile(
-        "(?:" +
-            "[\\x02\\x0F\\x11\\x12\\x16\\x1d\\x1f]" + // single character color codes
-            "|" +
-            "\\x03\\d{0,2}(?:,\\d{0,2})?" + // standard mIRC colors
-            "|" +
-            "\\x04[0-9a-fA-F]{6}" + // VisualIRC-style RGB codes
-            "|" +
-            "\\x1b\\[[?=]?(?:\\d+(?:;\\d+)*)?[@-_]" + // ANSI argument sequences
-        ")+");
-
     /**
-     * Strip IRC colors and formatting from a string.
+     * Strip IRC colors and formatting from a string.  The following are removed:
+     * <ul>
+     *     <li>the single character codes {@code 0x02}, {@code 0x0F}, {@code 0x11}, {@code 0x12}, {@code 0x16},
+     *     {@code 0x1D} and {@code 0x1F}</li>
+     *     <li>standard mIRC colors: {@code 0x03} followed by up to two digits, optionally followed by a comma and up to
+     *     two more digits</li>
+     *     <li>VisualIRC-style RGB codes: {@code 0x04} followed by six hex digits</li>
+     *     <li>ANSI argument sequences: {@code ESC [}, an optional {@code ?} or {@code =}, optional numeric arguments
+     *     separated by {@code ;}, and a final character between {@code @} and {@code _}</li>
+     * </ul>
      *
      * @param original the original
-     * @return the clean string
+     * @return the clean string, which is {@code original} itself if there was nothing to remove
      */
     public static String deformat(String original) {
-        return DEFORMAT.matcher(original).replaceAll("");
+        final int length = original.length();
+        int i = 0;
+        // fast path: most text has no control characters at all
+        while (i < length && ! isFormatStart(original.charAt(i))) {
+            i ++;
+        }
+        if (i == length) {
+            return original;
+        }
+        final StringBuilder b = new StringBuilder(length);
+        int copied = 0;
+        while (i < length) {
+            final char c = original.charAt(i);
+            final int end;
+            switch (c) {
+                case 0x02: case 0x0F: case 0x11: case 0x12: case 0x16: case 0x1D: case 0x1F: {
+                    end = i + 1;
+                    break;
+                }
+                case 0x03: {
+                    int j = skipDigits(original, i + 1, 2);
+                    if (j < length && original.charAt(j) == ',') {
+                        j = skipDigits(original, j + 1, 2);
+                    }
+                    end = j;
+                    break;
+                }
+                case 0x04: {
+                    end = i + 7 <= length && isHex(original, i + 1, i + 7) ? i + 7 : -1;
+                    break;
+                }
+                case 0x1B: {
+                    end = ansiEnd(original, i + 1);
+                    break;
+                }
+                default: {
+                    end = -1;
+                    break;
+                }
+            }
+            if (end == -1) {
+                i ++;
+            } else {
+                b.append(original, copied, i);
+                copied = i = end;
+            }
+        }
+        if (copied == 0) {
+            return original;
+        }
+        b.append(original, copied, length);
+        return b.toString();
+    }
+
+    private static boolean isFormatStart(final char c) {
+        return c < 0x20 && (1 << c & (1 << 0x02 | 1 << 0x03 | 1 << 0x04 | 1 << 0x0F | 1 << 0x11 | 1 << 0x12 | 1 << 0x16 | 1 << 0x1B | 1 << 0x1D | 1 << 0x1F)) != 0;
+    }
+
+    private static boolean isDigit(final String s, final int i) {
+        if (i >= s.length()) {
+            return false;
+        }
+        final char c = s.charAt(i);
+        return c >= '0' && c <= '9';
+    }
+
+    private static int skipDigits(final String s, int i, final int max) {
+        final int limit = i + max;
+        while (i < limit && isDigit(s, i)) {
+            i ++;
+        }
+        return i;
+    }
+
+    private static boolean isHex(final String s, final int from, final int to) {
+        for (int i = from; i < to; i ++) {
+            final char c = s.charAt(i);
+            if (! (c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // returns the end of the ANSI sequence whose ESC precedes i, or -1 if there is none
+    private static int ansiEnd(final String s, int i) {
+        final int length = s.length();
+        if (i >= length || s.charAt(i) != '[') {
+            return -1;
+        }
+        i ++;
+        if (i < length && (s.charAt(i) == '?' || s.charAt(i) == '=')) {
+            i ++;
+        }
+        if (isDigit(s, i)) {
+            do {
+                i ++;
+            } while (isDigit(s, i));
+            while (i < length && s.charAt(i) == ';' && isDigit(s, i + 1)) {
+                i += 2;
+                while (isDigit(s, i)) {
+                    i ++;
+                }
+            }
+        }
+        if (i < length) {
+            final char c = s.charAt(i);
+            if (c >= '@' && c <= '_') {
+                return i + 1;
+            }
+        }
+        return -1;
     }
 
     /**
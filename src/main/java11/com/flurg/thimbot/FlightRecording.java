@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import com.flurg.thimbot.event.Event;
+import com.flurg.thimbot.event.EventHandler;
+import com.flurg.thimbot.raw.IRCCommand;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Hooks for JDK Flight Recorder events.  Each hook checks whether its event type is enabled before doing anything
+ * else, so the cost is a single field read when no recording is running.
+ * <p>
+ * Hooks which measure a span of time are split into a {@code begin} method, which returns a token, and an {@code end}
+ * method which takes the token.  The token is {@code null} if the event is not being recorded.
+ * <p>
+ * This class is internal to the bot; it is public only so that the raw and event packages can reach it.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class FlightRecording {
+
+    private static final EventType LINE_RECEIVED = EventType.getEventType(LineReceived.class);
+    private static final EventType EVENT_DISPATCHED = EventType.getEventType(EventDispatched.class);
+    private static final EventType MESSAGE_QUEUED = EventType.getEventType(MessageQueued.class);
+    private static final EventType MESSAGE_WRITTEN = EventType.getEventType(MessageWritten.class);
+    private static final EventType WINDOW_STALL = EventType.getEventType(WindowStall.class);
+    private static final EventType CONNECT = EventType.getEventType(Connect.class);
+
+    private FlightRecording() {
+    }
+
+    public static boolean isMessageWrittenEnabled() {
+        return MESSAGE_WRITTEN.isEnabled();
+    }
+
+    public static void lineReceived(IRCCommand command, int length) {
+        if (LINE_RECEIVED.isEnabled()) {
+            final LineReceived event = new LineReceived();
+            if (event.shouldCommit()) {
+                event.command = command.name();
+                event.length = length;
+                event.commit();
+            }
+        }
+    }
+
+    public static Object dispatchBegin() {
+        if (EVENT_DISPATCHED.isEnabled()) {
+            final EventDispatched event = new EventDispatched();
+            event.begin();
+            return event;
+        }
+        return null;
+    }
+
+    public static void dispatchEnd(Object token, Event event, EventHandler handler) {
+        if (token != null) {
+            final EventDispatched jfrEvent = (EventDispatched) token;
+            jfrEvent.end();
+            if (jfrEvent.shouldCommit()) {
+                jfrEvent.eventType = event.getClass();
+                jfrEvent.handlerType = handler.getClass();
+                jfrEvent.commit();
+            }
+        }
+    }
+
+    public static void messageQueued(Priority priority, String target) {
+        if (MESSAGE_QUEUED.isEnabled()) {
+            final MessageQueued event = new MessageQueued();
+            if (event.shouldCommit()) {
+                event.priority = priority.name();
+                event.target = target;
+                event.commit();
+            }
+        }
+    }
+
+    public static void messageWritten(Priority priority, long queueNanos) {
+        if (MESSAGE_WRITTEN.isEnabled()) {
+            final MessageWritten event = new MessageWritten();
+            if (event.shouldCommit()) {
+                event.priority = priority == null ? null : priority.name();
+                event.queueTime = queueNanos;
+                event.commit();
+            }
+        }
+    }
+
+    public static Object windowStallBegin() {
+        if (WINDOW_STALL.isEnabled()) {
+            final WindowStall event = new WindowStall();
+            event.begin();
+            return event;
+        }
+        return null;
+    }
+
+    public static void windowStallEnd(Object token, int windowSize) {
+        if (token != null) {
+            final WindowStall event = (WindowStall) token;
+            event.end();
+            if (event.shouldCommit()) {
+                event.windowSize = windowSize;
+                event.commit();
+            }
+        }
+    }
+
+    public static Object connectBegin() {
+        if (CONNECT.isEnabled()) {
+            final Connect event = new Connect();
+            event.begin();
+            return event;
+        }
+        return null;
+    }
+
+    public static void connectEnd(Object token, String host, int port, int attempt, boolean success) {
+        if (token != null) {
+            final Connect event = (Connect) token;
+            event.end();
+            if (event.shouldCommit()) {
+                event.host = host;
+                event.port = port;
+                event.attempt = attempt;
+                event.reconnect = attempt > 1;
+                event.success = success;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("com.flurg.thimbot.LineReceived")
+    @Label("IRC Line Received")
+    @Category({ "ThimBot", "Connection" })
+    @Description("A line was received from the server and parsed")
+    @StackTrace(false)
+    static final class LineReceived extends jdk.jfr.Event {
+        @Label("Command")
+        String command;
+        @Label("Length")
+        @DataAmount
+        int length;
+    }
+
+    @Name("com.flurg.thimbot.EventDispatched")
+    @Label("IRC Event Dispatched")
+    @Category({ "ThimBot", "Dispatch" })
+    @Description("An event was handled by one handler, including the time spent in the handlers it passed the event on to")
+    @StackTrace(false)
+    static final class EventDispatched extends jdk.jfr.Event {
+        @Label("Event Type")
+        Class<?> eventType;
+        @Label("Handler Type")
+        Class<?> handlerType;
+    }
+
+    @Name("com.flurg.thimbot.MessageQueued")
+    @Label("IRC Message Queued")
+    @Category({ "ThimBot", "Connection" })
+    @Description("An outbound line was queued")
+    static final class MessageQueued extends jdk.jfr.Event {
+        @Label("Priority")
+        String priority;
+        @Label("Target")
+        String target;
+    }
+
+    @Name("com.flurg.thimbot.MessageWritten")
+    @Label("IRC Message Written")
+    @Category({ "ThimBot", "Connection" })
+    @Description("A queued line was written to the transport")
+    @StackTrace(false)
+    static final class MessageWritten extends jdk.jfr.Event {
+        @Label("Priority")
+        String priority;
+        @Label("Queue Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueTime;
+    }
+
+    @Name("com.flurg.thimbot.WindowStall")
+    @Label("IRC Window Stall")
+    @Category({ "ThimBot", "Connection" })
+    @Description("Writing was held up because the flow control window was full")
+    @StackTrace(false)
+    static final class WindowStall extends jdk.jfr.Event {
+        @Label("Window Size")
+        int windowSize;
+    }
+
+    @Name("com.flurg.thimbot.Connect")
+    @Label("IRC Connect")
+    @Category({ "ThimBot", "Connection" })
+    @Description("A connection to a server was attempted")
+    static final class Connect extends jdk.jfr.Event {
+        @Label("Host")
+        String host;
+        @Label("Port")
+        int port;
+        @Label("Attempt")
+        int attempt;
+        @Label("Reconnect")
+        boolean reconnect;
+        @Label("Success")
+        boolean success;
+    }
+}
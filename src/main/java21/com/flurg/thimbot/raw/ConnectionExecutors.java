@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executors suitable for running the read and write loops of a blocking {@link LineProtocolConnection}.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class ConnectionExecutors {
+
+    private static final ThreadFactory VIRTUAL = Thread.ofVirtual().name("IRC I/O Thread ", 1L).factory();
+
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * Determine whether {@link #virtualThreadExecutor()} really uses virtual threads on this JVM.
+     *
+     * @return {@code true} if virtual threads are used, {@code false} if it falls back to platform threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return true;
+    }
+
+    /**
+     * Get an executor which runs each task in a new virtual thread.  On JVMs which do not have virtual threads,
+     * each task runs in a new daemon platform thread instead.
+     *
+     * @return the executor
+     */
+    public static Executor virtualThreadExecutor() {
+        return threadFactoryExecutor(VIRTUAL);
+    }
+
+    /**
+     * Get an executor which runs each task in a new thread from the given factory.
+     *
+     * @param threadFactory the thread factory
+     * @return the executor
+     */
+    public static Executor threadFactoryExecutor(final ThreadFactory threadFactory) {
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("threadFactory is null");
+        }
+        return new Executor() {
+            public void execute(final Runnable command) {
+                threadFactory.newThread(command).start();
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.prefs.Preferences;
+
+import javax.net.SocketFactory;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class DeliveryTrackerTest {
+
+    private static ThimBot newBot(final ServerSocket serverSocket) {
+        final ThimBot bot = new ThimBot(Preferences.userRoot().node("thimbot-test"), new InetSocketAddress("localhost", serverSocket.getLocalPort()), SocketFactory.getDefault());
+        // one line goes out, and everything after it stays queued
+        bot.setFloodControl(1, 1L, TimeUnit.HOURS);
+        return bot;
+    }
+
+    private static Throwable failure(final CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get(10L, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("Delivery succeeded");
+        return null;
+    }
+
+    @Test
+    public void testDisconnectWithQueuedLines() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            final ThimBot bot = newBot(serverSocket);
+            bot.connect();
+            try (Socket socket = serverSocket.accept()) {
+                final CompletableFuture<Void> first = bot.sendMessageTracked("#test", "one");
+                final CompletableFuture<Void> second = bot.sendMessageTracked("someone", "two");
+                assertTrue(! first.isDone() && ! second.isDone());
+                socket.close();
+                assertTrue(failure(first) instanceof IOException);
+                assertTrue(failure(second) instanceof IOException);
+            }
+            // there is no connection to queue on any more
+            assertTrue(failure(bot.sendMessageTracked("#test", "three")) instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testTimeoutWhileQueued() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            final ThimBot bot = newBot(serverSocket);
+            bot.setDeliveryTimeout(200L, TimeUnit.MILLISECONDS);
+            bot.connect();
+            try (Socket socket = serverSocket.accept()) {
+                assertTrue(failure(bot.sendMessageTracked("#test", "one")) instanceof TimeoutException);
+            } finally {
+                bot.disconnect();
+            }
+        }
+    }
+}
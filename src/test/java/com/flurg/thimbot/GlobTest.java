@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Check {@link Glob} against the regular expression which {@link Mask#maskToPattern(String)} produces.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class GlobTest {
+
+    static List<String> strings(final String alphabet, final int maxLength) {
+        final List<String> list = new ArrayList<String>();
+        list.add("");
+        int start = 0;
+        for (int length = 1; length <= maxLength; length ++) {
+            final int end = list.size();
+            for (int i = start; i < end; i ++) {
+                for (int j = 0; j < alphabet.length(); j ++) {
+                    list.add(list.get(i) + alphabet.charAt(j));
+                }
+            }
+            start = end;
+        }
+        return list;
+    }
+
+    static boolean regexMatches(final String mask, final String s, final CaseMapping caseMapping) {
+        return Mask.maskToPattern(caseMapping.toLowerCase(mask)).matcher(caseMapping.toLowerCase(s)).matches();
+    }
+
+    @Test
+    public void testAgainstRegex() {
+        // '.' checks that the regex is quoted; 'B' and 'A' check folding
+        final List<String> patterns = strings("aB.*?", 4);
+        final List<String> inputs = strings("abA.", 5);
+        for (String pattern : patterns) {
+            final Glob glob = new Glob(pattern, CaseMapping.RFC1459);
+            for (String input : inputs) {
+                assertEquals("\"" + pattern + "\" against \"" + input + "\"", regexMatches(pattern, input, CaseMapping.RFC1459), glob.matches(input));
+            }
+        }
+    }
+
+    @Test
+    public void testRange() {
+        final List<String> patterns = strings("ab*?", 4);
+        final List<String> inputs = strings("ab", 4);
+        for (String pattern : patterns) {
+            final Glob glob = new Glob(pattern, CaseMapping.ASCII);
+            for (String input : inputs) {
+                final boolean expected = regexMatches(pattern, input, CaseMapping.ASCII);
+                assertEquals(pattern + " against " + input, expected, glob.matches("!!" + input + "@@", 2, 2 + input.length()));
+            }
+        }
+    }
+
+    @Test
+    public void testPrefixSuffixOverlap() {
+        // the literal prefix and suffix must not be allowed to share characters
+        final Glob glob = new Glob("ab*ba", CaseMapping.ASCII);
+        assertFalse(glob.matches("aba"));
+        assertTrue(glob.matches("abba"));
+        assertTrue(glob.matches("abxba"));
+        assertFalse(new Glob("a*a", CaseMapping.ASCII).matches("a"));
+        assertTrue(new Glob("a*a", CaseMapping.ASCII).matches("aa"));
+        assertFalse(new Glob("abc*?c", CaseMapping.ASCII).matches("abcc"));
+        assertTrue(new Glob("abc*?c", CaseMapping.ASCII).matches("abcxc"));
+        assertEquals("ab", glob.getLiteralPrefix());
+        assertEquals("ba", glob.getLiteralSuffix());
+    }
+
+    @Test
+    public void testStars() {
+        assertTrue(new Glob("*", CaseMapping.ASCII).matchesAll());
+        assertTrue(new Glob("***", CaseMapping.ASCII).matchesAll());
+        assertTrue(new Glob("a**b", CaseMapping.ASCII).matches("ab"));
+        assertTrue(new Glob("*?*", CaseMapping.ASCII).matches("x"));
+        assertFalse(new Glob("*?*", CaseMapping.ASCII).matches(""));
+        assertTrue(new Glob("*a*b*", CaseMapping.ASCII).matches("xxaxxbxx"));
+        assertFalse(new Glob("*a*b*", CaseMapping.ASCII).matches("xxbxxaxx"));
+    }
+
+    @Test
+    public void testCaseMapping() {
+        assertTrue(new Glob("*.Example.COM", CaseMapping.ASCII).matches("irc.example.com"));
+        assertTrue(new Glob("[foo]*", CaseMapping.RFC1459).matches("{FOO}bar"));
+        assertTrue(new Glob("a^b", CaseMapping.RFC1459).matches("A~B"));
+        assertFalse(new Glob("a^b", CaseMapping.STRICT_RFC1459).matches("a~b"));
+        assertTrue(new Glob("a\\b", CaseMapping.STRICT_RFC1459).matches("a|b"));
+        assertFalse(new Glob("[foo]", CaseMapping.ASCII).matches("{foo}"));
+        final List<String> patterns = strings("[^*?", 3);
+        final List<String> inputs = strings("[{^~", 3);
+        for (CaseMapping caseMapping : CaseMapping.values()) {
+            for (String pattern : patterns) {
+                final Glob glob = new Glob(pattern, caseMapping);
+                for (String input : inputs) {
+                    assertEquals(caseMapping + ": " + pattern + " against " + input, regexMatches(pattern, input, caseMapping), glob.matches(input));
+                }
+            }
+        }
+    }
+}
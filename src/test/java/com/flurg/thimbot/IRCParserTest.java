@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.prefs.Preferences;
+
+import javax.net.SocketFactory;
+
+import com.flurg.thimbot.event.BatchEvent;
+import com.flurg.thimbot.event.ChannelActionEvent;
+import com.flurg.thimbot.event.ChannelMessageEvent;
+import com.flurg.thimbot.event.Event;
+import com.flurg.thimbot.event.EventHandler;
+import com.flurg.thimbot.event.EventHandlerContext;
+import com.flurg.thimbot.event.PrivateMessageEvent;
+import com.flurg.thimbot.event.QuitEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class IRCParserTest {
+
+    private final List<Event> events = new ArrayList<>();
+    private ThimBot bot;
+    private IRCParser parser;
+
+    @Before
+    public void setUp() {
+        bot = new ThimBot(Preferences.userRoot().node("thimbot-test"), new InetSocketAddress("localhost", 6667), SocketFactory.getDefault());
+        bot.addEventHandler(new EventHandler() {
+            public void handleEvent(final EventHandlerContext context, final Event event) throws Exception {
+                events.add(event);
+                super.handleEvent(context, event);
+            }
+        });
+        parser = new IRCParser(new InternTable(64));
+    }
+
+    private void line(final String line) {
+        final byte[] bytes = ("junk" + line + "\r\n").getBytes(StandardCharsets.UTF_8);
+        parser.handleLine(bot, null, bytes, 4, bytes.length - 6);
+    }
+
+    private <T extends Event> T single(final Class<T> type) {
+        assertEquals(events.toString(), 1, events.size());
+        return type.cast(events.remove(0));
+    }
+
+    @Test
+    public void testChannelMessage() {
+        line("@account=alice :alice!a@example.com PRIVMSG #chan :hello  there ");
+        final ChannelMessageEvent event = single(ChannelMessageEvent.class);
+        assertEquals("alice", event.getFromNick());
+        assertEquals("alice!a@example.com", event.getFromUser());
+        assertEquals("#chan", event.getChannel());
+        assertEquals("hello  there ", event.getRawText());
+        assertEquals("alice", event.getTags().getAccount());
+    }
+
+    @Test
+    public void testPrivateMessageAndAction() {
+        line(":bob!b@example.com PRIVMSG thimbot :hi é");
+        assertEquals("hi é", single(PrivateMessageEvent.class).getRawText());
+        line(":bob!b@example.com PRIVMSG #chan :\u0001ACTION waves\u0001");
+        assertEquals("waves", single(ChannelActionEvent.class).getRawText());
+    }
+
+    @Test
+    public void testIgnored() {
+        // a server cannot send channel messages, and a message needs text
+        line(":irc.example.com PRIVMSG #chan :hello");
+        line(":bob!b@example.com PRIVMSG #chan");
+        line("FROB #chan :hello");
+        line("");
+        line("@a=b :prefix");
+        line("   ");
+        assertTrue(events.toString(), events.isEmpty());
+    }
+
+    @Test
+    public void testBatch() {
+        line(":irc.example.com BATCH +s1 netsplit a.example.com b.example.com");
+        line("@batch=s1 :u1!u@h QUIT :a.example.com b.example.com");
+        line("@batch=s1 :u2!u@h QUIT :a.example.com b.example.com");
+        assertTrue(events.toString(), events.isEmpty());
+        line(":irc.example.com BATCH -s1");
+        assertEquals(events.toString(), 3, events.size());
+        final BatchEvent batch = (BatchEvent) events.get(0);
+        assertEquals("s1", batch.getReference());
+        assertEquals("netsplit", batch.getType());
+        assertEquals(2, batch.getParameters().size());
+        assertEquals(2, batch.getEvents().size());
+        // handlers which do not handle batches get the members one at a time
+        assertSame(batch.getEvents().get(0), events.get(1));
+        assertEquals("u2", ((QuitEvent) events.get(2)).getFromNick());
+    }
+
+    @Test
+    public void testUnknownBatchReference() {
+        line("@batch=nope :u1!u@h QUIT :bye");
+        single(QuitEvent.class);
+    }
+}
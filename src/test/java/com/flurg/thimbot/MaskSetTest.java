@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Check the {@link MaskSet} index against matching each mask's regular expression in turn.
+ *
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class MaskSetTest {
+
+    private static final String[] MASKS = {
+        // literal hosts
+        "*!*@host.example.com",
+        "Nick!*@HOST.example.com",
+        // suffixes, including ones which overlap the prefix
+        "*!*@*.example.com",
+        "*!*@*.EXAMPLE.com",
+        "*!*@h*t.example.com",
+        "*!*@ab*ba",
+        "*!*@a*a",
+        "*!*@*a",
+        // prefixes
+        "*!*@10.0.*",
+        "*!*@10.*.5",
+        "*!*@h?st*",
+        // literal nicks with wild hosts
+        "nick!*@*",
+        "[nick]!*@*",
+        "NICK!user@*",
+        // everything else
+        "*!user@*",
+        "n?ck*!*@*",
+        "*!*@*",
+        "*!*u?er@?*",
+        "host*",
+    };
+
+    private static final String[] NICKS = { "nick", "NICK", "{nick}", "[NICK]", "nack", "nickname", "other" };
+    private static final String[] USERS = { "user", "USER", "xuser", "uper", "" };
+    private static final String[] HOSTS = { "host.example.com", "HOST.EXAMPLE.COM", "hoost.example.com", "x.example.com",
+        "example.com", "10.0.0.1", "10.1.1.5", "10.0.0.5", "host", "hast.net", "aba", "abba", "abxba", "a", "aa", "ba", "" };
+
+    private static boolean regexMatches(final Mask mask, final String nick, final String user, final String host, final CaseMapping caseMapping) {
+        final String source = mask.getMask();
+        final int nickSep = source.indexOf('!');
+        final int hostSep = source.indexOf('@', nickSep + 1);
+        final String nickMask = nickSep == -1 ? "*" : source.substring(0, nickSep);
+        final String userMask = hostSep == -1 ? "*" : source.substring(nickSep + 1, hostSep);
+        final String hostMask = hostSep == -1 ? source.substring(nickSep + 1) : source.substring(hostSep + 1);
+        return GlobTest.regexMatches(nickMask, nick, caseMapping)
+            && GlobTest.regexMatches(userMask, user, caseMapping)
+            && GlobTest.regexMatches(hostMask, host, caseMapping);
+    }
+
+    private static void check(final CaseMapping caseMapping) {
+        final MaskSet set = new MaskSet(caseMapping);
+        for (String mask : MASKS) {
+            set.add(mask);
+        }
+        final MaskSet.Index index = new MaskSet.Index(caseMapping, set.getMasks().toArray(new Mask[0]));
+        for (String nick : NICKS) {
+            for (String user : USERS) {
+                for (String host : HOSTS) {
+                    final Set<Mask> expected = new HashSet<Mask>();
+                    for (Mask mask : set.getMasks()) {
+                        if (regexMatches(mask, nick, user, host, caseMapping)) {
+                            expected.add(mask);
+                        }
+                    }
+                    final String what = caseMapping + ": " + nick + "!" + user + "@" + host;
+                    final List<Mask> found = new ArrayList<Mask>();
+                    assertEquals(what, ! expected.isEmpty(), index.find(nick, user, host, found));
+                    assertEquals(what + " found duplicates " + found, found.size(), new HashSet<Mask>(found).size());
+                    assertEquals(what, expected, new HashSet<Mask>(found));
+                    assertEquals(what, ! expected.isEmpty(), index.find(nick, user, host, null));
+                    assertEquals(what, expected, new HashSet<Mask>(set.getMatches(nick + "!" + user + "@" + host)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAgainstRegex() {
+        for (CaseMapping caseMapping : CaseMapping.values()) {
+            check(caseMapping);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        final MaskSet set = new MaskSet(CaseMapping.RFC1459);
+        assertEquals(false, set.matchesAny("nick!user@host"));
+        set.add("*!*@host");
+        assertEquals(true, set.matchesAny("NICK!user@HOST"));
+        set.remove("*!*@host");
+        assertEquals(false, set.matchesAny("nick!user@host"));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.prefs.Preferences;
+
+import javax.net.SocketFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class StateTrackerTest {
+
+    private ThimBot bot;
+    private StateTracker tracker;
+
+    @Before
+    public void setUp() {
+        bot = new ThimBot(Preferences.userRoot().node("thimbot-test"), new InetSocketAddress("localhost", 6667), SocketFactory.getDefault());
+        tracker = new StateTracker(bot);
+        tracker.join("#chan", bot.getBotNick() + "!bot@example.com", bot.getBotNick(), null);
+        tracker.join("#other", bot.getBotNick() + "!bot@example.com", bot.getBotNick(), null);
+    }
+
+    @Test
+    public void testNick() {
+        tracker.join("#chan", "alice!a@example.com", "alice", null);
+        final IRCUser alice = tracker.getUser("alice");
+        tracker.nick("alice", "Alicia");
+        assertNull(tracker.getUser("alice"));
+        assertSame(alice, tracker.getUser("ALICIA"));
+        assertEquals("Alicia", alice.getNick());
+        assertSame(alice, tracker.getChannel("#chan").getMember(tracker.getChannel("#chan").indexOf("alicia")));
+    }
+
+    @Test
+    public void testNickCollision() {
+        tracker.join("#chan", "alice!a@example.com", "alice", null);
+        tracker.join("#chan", "bob!b@example.com", "bob", null);
+        tracker.join("#other", "bob!b@example.com", "bob", null);
+        final IRCUser alice = tracker.getUser("alice");
+        final IRCUser bob = tracker.getUser("bob");
+        // bob's quit was missed; the stale bob must not linger in either channel
+        tracker.nick("alice", "Bob");
+        assertSame(alice, tracker.getUser("bob"));
+        final ChannelState chan = tracker.getChannel("#chan");
+        assertEquals(2, chan.getMemberCount());
+        assertEquals(-1, chan.indexOf(bob));
+        assertSame(alice, chan.getMember(chan.indexOf("bob")));
+        final ChannelState other = tracker.getChannel("#other");
+        assertEquals(1, other.getMemberCount());
+        assertEquals(-1, other.indexOf(bob));
+        assertTrue(tracker.getCommonChannels("bob").contains(chan));
+        // the stale user's id is free for reuse
+        tracker.join("#other", "carol!c@example.com", "carol", null);
+        assertEquals(bob.getId(), tracker.getUser("carol").getId());
+    }
+
+    @Test
+    public void testNickCollisionDuringNames() {
+        tracker.join("#chan", "alice!a@example.com", "alice", null);
+        tracker.names("#other", "@bob +dave");
+        final IRCUser bob = tracker.getUser("bob");
+        tracker.nick("alice", "bob");
+        tracker.endOfNames("#other");
+        final ChannelState other = tracker.getChannel("#other");
+        assertEquals(-1, other.indexOf(bob));
+        assertEquals(-1, other.indexOf("bob"));
+        assertTrue(other.contains("dave"));
+        assertEquals(1, other.getMemberCount());
+    }
+}
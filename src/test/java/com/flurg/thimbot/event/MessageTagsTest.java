@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class MessageTagsTest {
+
+    @Test
+    public void testGet() {
+        final MessageTags tags = new MessageTags("account=bob;batch=x1;+example.com/flag;msgid=a\\sb\\:c");
+        assertEquals("bob", tags.getAccount());
+        assertEquals("x1", tags.getBatch());
+        assertEquals("", tags.get("+example.com/flag"));
+        assertEquals("a b;c", tags.getMessageId());
+        assertNull(tags.get("acc"));
+        assertNull(tags.getLabel());
+        assertTrue(tags.contains("+example.com/flag"));
+        assertFalse(tags.contains("example.com/flag"));
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        final MessageTags tags = new MessageTags("batch=first;label=1;batch=second;label");
+        assertEquals("second", tags.getBatch());
+        assertEquals("", tags.getLabel());
+        assertEquals(tags.toMap().get("batch"), tags.get("batch"));
+        assertEquals(tags.toMap().get("label"), tags.get("label"));
+    }
+}
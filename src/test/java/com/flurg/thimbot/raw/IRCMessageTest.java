@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class IRCMessageTest {
+
+    private static IRCMessage parse(final String line) {
+        final IRCMessage message = new IRCMessage();
+        final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        assertTrue(line, message.parse(bytes, 0, bytes.length));
+        return message;
+    }
+
+    private static void assertMalformed(final String line) {
+        final byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        assertFalse(line, new IRCMessage().parse(bytes, 0, bytes.length));
+    }
+
+    private static void assertParams(final IRCMessage message, final String... params) {
+        assertEquals(params.length, message.getParamCount());
+        for (int i = 0; i < params.length; i ++) {
+            assertEquals(params[i], message.getParam(i, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testCommandOnly() {
+        final IRCMessage message = parse("PING");
+        assertSame(IRCCommand.PING, message.getCommand());
+        assertFalse(message.hasTags());
+        assertFalse(message.hasPrefix());
+        assertEquals("", message.getPrefix());
+        assertEquals(-1, message.getNumeric());
+        assertParams(message);
+        assertEquals("", message.getLastParam(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTagsAndPrefix() {
+        final IRCMessage message = parse("@time=2020-01-01T00:00:00.000Z;+draft/x :nick!user@host PRIVMSG #chan :hello world");
+        assertTrue(message.hasTags());
+        assertEquals("time=2020-01-01T00:00:00.000Z;+draft/x", new String(message.getBuffer(), message.getTagsOffset(), message.getTagsLength(), StandardCharsets.UTF_8));
+        assertTrue(message.hasPrefix());
+        assertEquals("nick!user@host", message.getPrefix());
+        assertTrue(message.hasUserPrefix());
+        assertSame(IRCCommand.PRIVMSG, message.getCommand());
+        assertParams(message, "#chan", "hello world");
+    }
+
+    @Test
+    public void testUserPrefix() {
+        assertFalse(parse(":irc.example.com NOTICE * :hi").hasUserPrefix());
+        assertFalse(parse(":nick NICK other").hasUserPrefix());
+        assertFalse(parse(":nick@host NICK other").hasUserPrefix());
+        assertTrue(parse(":nick!user@host NICK other").hasUserPrefix());
+    }
+
+    @Test
+    public void testMiddleParams() {
+        final IRCMessage message = parse("MODE  #chan   +ov  alice bob");
+        assertSame(IRCCommand.MODE, message.getCommand());
+        assertParams(message, "#chan", "+ov", "alice", "bob");
+        assertTrue(message.paramEquals(1, "+ov".getBytes(StandardCharsets.US_ASCII)));
+        assertFalse(message.paramEquals(1, "+o".getBytes(StandardCharsets.US_ASCII)));
+        assertFalse(message.paramEquals(4, "bob".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testTrailing() {
+        assertParams(parse("PRIVMSG #chan :a :b  c "), "#chan", "a :b  c ");
+        // a trailing parameter which is not introduced by a colon
+        assertParams(parse("PRIVMSG #chan word"), "#chan", "word");
+        assertParams(parse("PRIVMSG #chan ::)"), "#chan", ":)");
+    }
+
+    @Test
+    public void testEmptyTrailing() {
+        final IRCMessage message = parse("TOPIC #chan :");
+        assertParams(message, "#chan", "");
+        assertEquals(0, message.getParamLength(1));
+        assertParams(parse("TOPIC #chan"), "#chan");
+        assertParams(parse("TOPIC #chan   "), "#chan");
+    }
+
+    @Test
+    public void testParamLimit() {
+        final StringBuilder b = new StringBuilder("CMD");
+        for (int i = 1; i <= 20; i ++) {
+            b.append(" p").append(i);
+        }
+        final IRCMessage message = parse(b.toString());
+        assertEquals(IRCMessage.MAX_PARAMS, message.getParamCount());
+        assertEquals("p14", message.getParam(13));
+        // the rest are folded into the last parameter
+        assertEquals("p15 p16 p17 p18 p19 p20", message.getParam(14));
+        // the last parameter may still be introduced by a colon, but one past it is part of the text
+        assertEquals("x y", parse("CMD 1 2 3 4 5 6 7 8 9 10 11 12 13 14 :x y").getParam(14));
+        assertEquals("15 :x y", parse("CMD 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 :x y").getParam(14));
+    }
+
+    @Test
+    public void testNumeric() {
+        final IRCMessage message = parse(":irc.example.com 001 bot :Welcome to IRC");
+        assertSame(IRCCommand.NUMERIC, message.getCommand());
+        assertEquals(1, message.getNumeric());
+        assertEquals("irc.example.com", message.getPrefix());
+        assertParams(message, "bot", "Welcome to IRC");
+        assertEquals(433, parse("433 * bot :Nickname is already in use").getNumeric());
+        assertEquals(999, parse("999").getNumeric());
+        assertSame(IRCCommand.UNKNOWN, parse("01 x").getCommand());
+        assertSame(IRCCommand.UNKNOWN, parse("1234 x").getCommand());
+        assertSame(IRCCommand.UNKNOWN, parse("00a x").getCommand());
+        assertEquals(-1, parse("1234 x").getNumeric());
+    }
+
+    @Test
+    public void testCommands() {
+        assertSame(IRCCommand.PRIVMSG, parse("privmsg #c :x").getCommand());
+        assertSame(IRCCommand.NOTICE, parse("Notice #c :x").getCommand());
+        for (IRCCommand command : IRCCommand.values()) {
+            if (command == IRCCommand.NUMERIC || command == IRCCommand.UNKNOWN) continue;
+            assertSame(command, parse(command.name() + " x").getCommand());
+        }
+        assertSame(IRCCommand.UNKNOWN, parse("PRIVMSGX #c :x").getCommand());
+        assertSame(IRCCommand.UNKNOWN, parse("PRIV #c :x").getCommand());
+        assertSame(IRCCommand.UNKNOWN, parse("FOO").getCommand());
+    }
+
+    @Test
+    public void testMalformed() {
+        assertMalformed("");
+        assertMalformed("    ");
+        assertMalformed("@a=b");
+        assertMalformed("@a=b ");
+        assertMalformed(":prefix");
+        assertMalformed(":prefix   ");
+        assertMalformed("@a=b :prefix");
+    }
+
+    @Test
+    public void testSlice() {
+        final byte[] bytes = "xxxx:srv PONG srv :tok\r\nPING :next".getBytes(StandardCharsets.US_ASCII);
+        final IRCMessage message = new IRCMessage();
+        assertTrue(message.parse(bytes, 4, 18));
+        assertSame(IRCCommand.PONG, message.getCommand());
+        assertParams(message, "srv", "tok");
+        // reuse replaces everything from the previous line
+        assertTrue(message.parse(bytes, 24, 10));
+        assertSame(IRCCommand.PING, message.getCommand());
+        assertFalse(message.hasPrefix());
+        assertParams(message, "next");
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testParamOutOfRange() {
+        parse("PING :x").getParam(1);
+    }
+}
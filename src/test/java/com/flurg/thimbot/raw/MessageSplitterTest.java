@@ -0,0 +1,161 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.flurg.thimbot.raw;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
+ */
+public final class MessageSplitterTest {
+
+    private static String[] split(final String message, final int budget) {
+        final StringEmitter[] pieces = MessageSplitter.split(new StringEmitter(message, StandardCharsets.UTF_8), budget);
+        final String[] strings = new String[pieces.length];
+        for (int i = 0; i < pieces.length; i ++) {
+            try {
+                // a piece must never end or begin inside a UTF-8 sequence
+                strings[i] = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).decode(ByteBuffer.wrap(pieces[i].bytes)).toString();
+            } catch (CharacterCodingException e) {
+                throw new AssertionError("Piece " + i + " is not valid UTF-8", e);
+            }
+        }
+        return strings;
+    }
+
+    private static String repeat(final char c, final int count) {
+        final StringBuilder b = new StringBuilder(count);
+        for (int i = 0; i < count; i ++) {
+            b.append(c);
+        }
+        return b.toString();
+    }
+
+    private static int byteLength(final String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Test
+    public void testFits() {
+        final StringEmitter message = new StringEmitter("hello world", StandardCharsets.UTF_8);
+        final StringEmitter[] pieces = MessageSplitter.split(message, 11);
+        assertEquals(1, pieces.length);
+        assertSame(message, pieces[0]);
+    }
+
+    @Test
+    public void testSpaces() {
+        assertArrayEquals(new String[] { "hello world", "foo bar" }, split("hello world foo bar", 12));
+        // a space too near the start of the piece is not worth breaking at
+        assertArrayEquals(new String[] { "a bcdefghij", "klmno" }, split("a bcdefghijklmno", 11));
+    }
+
+    @Test
+    public void testMultibyteAtEdge() {
+        for (String wide : new String[] { "é", "€", "😀" }) {
+            final int width = byteLength(wide);
+            for (int budget = 20; budget < 20 + width; budget ++) {
+                final String message = repeat('a', 19) + wide + repeat('b', 30);
+                final String[] pieces = split(message, budget);
+                final StringBuilder joined = new StringBuilder();
+                for (String piece : pieces) {
+                    assertTrue(byteLength(piece) <= budget);
+                    joined.append(piece);
+                }
+                assertEquals(message, joined.toString());
+                // the wide character is either wholly in the first piece or wholly in the second
+                assertTrue(pieces[0].endsWith(wide) || pieces[1].startsWith(wide));
+            }
+        }
+    }
+
+    @Test
+    public void testColorCodeAtCut() {
+        // the code would straddle the end of the first piece
+        for (int pad = 25; pad < 30; pad ++) {
+            final String[] pieces = split(repeat('a', pad) + "\u000304,12" + repeat('x', 40), 30);
+            assertEquals(repeat('a', pad), pieces[0]);
+            assertTrue(pieces[1], pieces[1].startsWith("\u000304,12x"));
+        }
+        // a comma which follows a bare color code is text, not part of the code
+        final byte[] bare = "\u0003,12".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(1, MessageSplitter.unitEnd(bare, 0, bare.length));
+        final byte[] full = "\u00034,12x".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(5, MessageSplitter.unitEnd(full, 0, full.length));
+        final byte[] noBackground = "\u00034,x".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(2, MessageSplitter.unitEnd(noBackground, 0, noBackground.length));
+    }
+
+    @Test
+    public void testColorRestoredBeforeDigits() {
+        final String[] pieces = split("\u00033" + repeat('a', 40) + repeat('5', 40), 40);
+        assertEquals("\u00033" + repeat('a', 38), pieces[0]);
+        for (int i = 1; i < pieces.length; i ++) {
+            // two digits, so that the 5s which follow are not read as part of the color
+            assertTrue(pieces[i], pieces[i].startsWith("\u00030355") || pieces[i].startsWith("\u000303aa"));
+            assertTrue(byteLength(pieces[i]) <= 40);
+        }
+        final String[] background = split("\u00034,5" + repeat('a', 40) + repeat('1', 40), 40);
+        for (int i = 1; i < background.length; i ++) {
+            assertTrue(background[i], background[i].startsWith("\u000304,05"));
+        }
+        // formatting which was reset is not restored
+        final String[] reset = split("\u0002bold\u000f" + repeat('a', 60), 30);
+        assertTrue(reset[1], reset[1].startsWith("a"));
+    }
+
+    @Test
+    public void testToggleRestore() {
+        final String[] pieces = split("\u0002\u001d" + repeat('a', 60), 30);
+        assertEquals(3, pieces.length);
+        assertTrue(pieces[1].startsWith("\u0002\u001da"));
+        // toggled off again before the cut
+        final String[] off = split("\u0002x\u0002" + repeat('a', 60), 30);
+        assertTrue(off[1].startsWith("a"));
+    }
+
+    @Test
+    public void testBudgetSmallerThanRestore() {
+        // bold, italic, foreground and background need seven bytes, which leaves no useful room; send without them
+        final String message = "\u0002\u001d\u00031,2" + repeat('a', 20);
+        final String[] pieces = split(message, 6);
+        final StringBuilder joined = new StringBuilder();
+        for (String piece : pieces) {
+            assertTrue(piece, byteLength(piece) <= 6);
+            joined.append(piece);
+        }
+        assertEquals(message, joined.toString());
+    }
+
+    @Test
+    public void testUnitBiggerThanBudget() {
+        assertArrayEquals(new String[] { "ab", "😀", "cd" }, split("ab😀cd", 3));
+        assertArrayEquals(new String[] { "a", "\u000312,34", "b" }, split("a\u000312,34b", 4));
+    }
+}